@@ -1,6 +1,7 @@
 package foundation;
 
 import foundation.math.ObjPos;
+import foundation.tick.RenderThread;
 import foundation.tick.Tick;
 
 import javax.swing.*;
@@ -10,6 +11,7 @@ import java.awt.event.WindowEvent;
 
 public class Main {
     public static final Tick TICK = new Tick();
+    public static final RenderThread RENDER_THREAD = new RenderThread();
 
     public static MainPanel window = new MainPanel();
 
@@ -70,5 +72,6 @@ public class Main {
         window.init();
 
         TICK.start();
+        RENDER_THREAD.start();
     }
 }
\ No newline at end of file
@@ -7,6 +7,7 @@ import foundation.math.ObjPos;
 import foundation.tick.RegisteredTickable;
 import foundation.tick.TickOrder;
 import level.Level;
+import level.objects.PhysicsObject;
 import level.objects.Player;
 import loader.AssetManager;
 import loader.ResourceLocation;
@@ -14,6 +15,7 @@ import network.Client;
 import network.NetworkState;
 import network.PacketWriter;
 import network.Server;
+import network.ServerLoadTest;
 import render.ui.GameState;
 import render.ui.UIRenderer;
 import render.ui.button.ButtonState;
@@ -28,7 +30,6 @@ import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
-import java.awt.image.RescaleOp;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -97,6 +98,7 @@ public class MainPanel extends JFrame implements KeyListener, MouseListener, Reg
             server.clients.forEach((id, c) -> c.setLevel(mainLevel));
         }
         cameraY = 1;
+        previousCameraY = 1;
     }
 
     public static Level addNewLevel(long seed, boolean finalise) {
@@ -161,6 +163,8 @@ public class MainPanel extends JFrame implements KeyListener, MouseListener, Reg
     public static void startServer() {
         if (networkState != NetworkState.NONE)
             return;
+        if (Server.DEBUG_LOAD_TEST)
+            ServerLoadTest.run();
         networkState = NetworkState.SERVER;
         server = new Server();
         serverAddressBox.delete();
@@ -208,10 +212,10 @@ public class MainPanel extends JFrame implements KeyListener, MouseListener, Reg
         return ids;
     }
 
-    public static void handleClientPlayerInput(InputEvent event, InputType type, int clientID, int levelIndex) {
+    public static void handleClientPlayerInput(InputEvent event, InputType type, int sequence, int clientID, int levelIndex) {
         Player player = getLevel(levelIndex).players.get(clientID);
         if (player != null) {
-            player.handleInput(event, type);
+            player.handleClientInput(event, type, sequence);
         }
     }
 
@@ -223,7 +227,7 @@ public class MainPanel extends JFrame implements KeyListener, MouseListener, Reg
         g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
         g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
         if (levelTint != 1)
-            g2d.drawImage(levelToImage(), new RescaleOp(new float[]{levelTint}, new float[]{0}, g2d.getRenderingHints()), 0, 0);
+            drawTintedLevel(g2d);
         else
             drawLevel(g2d);
 
@@ -236,11 +240,58 @@ public class MainPanel extends JFrame implements KeyListener, MouseListener, Reg
         }
     }
 
-    public BufferedImage levelToImage() {
-        BufferedImage image = new BufferedImage(DEVICE_WINDOW_SIZE.xInt(), DEVICE_WINDOW_SIZE.yInt(), Image.SCALE_DEFAULT);
-        Graphics2D g2d = image.createGraphics();
-        drawLevel(g2d);
-        return image;
+    /*
+     * While the main menu is open, the level behind it is drawn darker. Rather than drawing the level into
+     * a new image every frame and rescaling its colours, the level is drawn as usual and then darkened by
+     * drawing black over it, with an alpha of one minus the tint, which gives the same colours.
+     *
+     * If nothing in view can change, the darkened frame is kept in levelFrame, which is reused between
+     * frames, and drawn instead of the level until the level, camera, tint or anything in the level's
+     * renderer changes.
+     */
+    private BufferedImage levelFrame = null;
+    private boolean levelFrameValid = false;
+    private int levelFrameLevel, levelFrameChanges;
+    private float levelFrameCameraY, levelFrameTint;
+
+    private void drawTintedLevel(Graphics2D g2d) {
+        Level l = getLevel(currentLevelIndex);
+        if (!levelExists(l) || !l.gameRenderer.isViewStatic()) {
+            levelFrameValid = false;
+            drawLevel(g2d);
+            drawTint(g2d);
+            return;
+        }
+        int width = DEVICE_WINDOW_SIZE.xInt(), height = DEVICE_WINDOW_SIZE.yInt();
+        if (levelFrame == null || levelFrame.getWidth() != width || levelFrame.getHeight() != height) {
+            levelFrame = AssetManager.createCompatibleImage(width, height);
+            levelFrameValid = false;
+        }
+        int changes = l.gameRenderer.getChangeCount();
+        float cameraY = getRenderCameraY();
+        if (!levelFrameValid || levelFrameLevel != l.levelIndex || levelFrameChanges != changes || levelFrameCameraY != cameraY || levelFrameTint != levelTint) {
+            //The frame is kept in device pixels, so that it looks the same as drawing the level directly
+            Graphics2D frameGraphics = levelFrame.createGraphics();
+            frameGraphics.setTransform(g2d.getTransform());
+            drawLevel(frameGraphics);
+            drawTint(frameGraphics);
+            frameGraphics.dispose();
+            //Something may have started moving since the view was last checked
+            levelFrameValid = l.gameRenderer.isViewStatic();
+            levelFrameLevel = l.levelIndex;
+            levelFrameChanges = changes;
+            levelFrameCameraY = cameraY;
+            levelFrameTint = levelTint;
+        }
+        AffineTransform prev = g2d.getTransform();
+        g2d.setTransform(new AffineTransform());
+        g2d.drawImage(levelFrame, 0, 0, this);
+        g2d.setTransform(prev);
+    }
+
+    private void drawTint(Graphics2D g2d) {
+        g2d.setColor(new Color(0, 0, 0, MathUtil.clamp(0, 1, 1 - levelTint)));
+        g2d.fillRect(0, 0, DEVICE_WINDOW_SIZE.xInt(), DEVICE_WINDOW_SIZE.yInt());
     }
 
     public void drawLevel(Graphics2D g2d) {
@@ -266,11 +317,22 @@ public class MainPanel extends JFrame implements KeyListener, MouseListener, Reg
         return TickOrder.LEVEL_UPDATES;
     }
 
-    public static float cameraY = 1;
+    //Written by the tick thread and read by the render thread, see getRenderCameraY
+    public static volatile float cameraY = 1;
+    //The camera position during the previous tick. Frames are rendered in between ticks,
+    //so the camera is interpolated between the two positions to keep its movement smooth.
+    //Physics objects are drawn between their last two positions in the same way, see
+    //PhysicsObject.getRenderPos. A frame can read the two positions either side of a tick,
+    //which only puts the camera somewhere between them for that frame
+    public static volatile float previousCameraY = 1;
+
+    public static float getRenderCameraY() {
+        return MathUtil.lerp(previousCameraY, cameraY, Main.TICK.getInterpolationAlpha());
+    }
 
     public static AffineTransform getCameraTransform() {
         AffineTransform t = new AffineTransform();
-        t.translate(0, cameraY);
+        t.translate(0, getRenderCameraY());
         return t;
     }
 
@@ -308,11 +370,19 @@ public class MainPanel extends JFrame implements KeyListener, MouseListener, Reg
             mainMenuYOffset = MathUtil.linearTo(mainMenuYOffset, BLOCK_DIMENSIONS.y, BLOCK_DIMENSIONS.y * 3, deltaTime);
         }
         Level l = getLevel(currentLevelIndex);
+        if (levelExists(l)) {
+            l.dynamicBlocks.forEach(b -> {
+                if (b instanceof PhysicsObject p)
+                    p.updateRenderPos();
+            });
+        }
+        previousCameraY = cameraY;
         if (levelExists(l) && l.cameraPlayer != null) {
             float y = Math.min(0, -l.cameraPlayer.pos.y + l.getCameraOffset());
-            if (cameraY == 1)
+            if (cameraY == 1) {
                 cameraY = y;
-            else {
+                previousCameraY = y;
+            } else {
                 cameraY += (y - cameraY) * deltaTime * 2.5f;
                 cameraY += Math.min(Math.abs(y - cameraY), 0.3f * deltaTime) * Math.signum(y - cameraY);
             }
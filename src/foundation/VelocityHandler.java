@@ -4,6 +4,7 @@ import foundation.math.ObjPos;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class VelocityHandler extends ObjPos {
     public VelocityHandler() {
@@ -147,4 +148,8 @@ public class VelocityHandler extends ObjPos {
             throw new RuntimeException(e);
         }
     }
+
+    public static VelocityHandler read(ByteBuffer buffer) {
+        return new VelocityHandler(buffer.getFloat(), buffer.getFloat());
+    }
 }
\ No newline at end of file
@@ -12,6 +12,65 @@ public abstract class EvaluateOperation {
         for (int i = 0; i < objArgs.length; i++) {
             args[i] = ((ExpressionObject<T, ?>) objArgs[i]);
         }
+        ExpressionObject<T, ?> result = evaluateClosure(op, args);
+        //Static results are already constants, and don't need to describe how they were computed
+        if (result instanceof ExpressionObjectStatic<T, ?> || result.node != null)
+            return result;
+        ExpressionNode node;
+        if (op == Expression.OperatorType.DOT) {
+            node = fieldNode(args);
+        } else {
+            node = ExpressionNode.operation(op, args);
+        }
+        return node == null ? result : withNode(result, node);
+    }
+
+    private static <T, R> ExpressionObject<T, R> withNode(ExpressionObject<T, R> o, ExpressionNode node) {
+        return new ExpressionObject<>(o.returnType, o.f, node);
+    }
+
+    //The field name is always a static string, otherwise evaluateClosure would already have thrown
+    private static ExpressionNode fieldNode(ExpressionObject<?, ?>[] args) {
+        String field = (String) ((ExpressionObjectStatic<?, ?>) args[1]).value;
+        if (args[0].returnType.equals(ObjPos.class))
+            return ExpressionNode.field(args[0], field);
+        if (args[0].returnType.equals(BlockLike.class)) {
+            return switch (field) {
+                case "name" -> ExpressionNode.call(EvaluateOperation.class, "blockName", args[0]);
+                case "layer" -> ExpressionNode.call(EvaluateOperation.class, "blockLayer", args[0]);
+                case "pos" -> ExpressionNode.call(EvaluateOperation.class, "blockPos", args[0]);
+                case "hasCollision" -> ExpressionNode.call(EvaluateOperation.class, "blockHasCollision", args[0]);
+                default -> null;
+            };
+        }
+        if (args[0].returnType.equals(LayoutMarker.class))
+            return ExpressionNode.call(EvaluateOperation.class, "markerPos", args[0]);
+        return null;
+    }
+
+    //The fields accessed by the DOT operator. These are called by the closures, and described by the expression nodes
+
+    public static String blockName(BlockLike b) {
+        return b == null ? null : b.name;
+    }
+
+    public static String blockLayer(BlockLike b) {
+        return b == null ? null : b.getLayer().s;
+    }
+
+    public static ObjPos blockPos(BlockLike b) {
+        return b == null ? null : b.pos.copy();
+    }
+
+    public static Boolean blockHasCollision(BlockLike b) {
+        return b == null ? null : b.hasCollision();
+    }
+
+    public static ObjPos markerPos(LayoutMarker lm) {
+        return lm.pos.copy();
+    }
+
+    private static <T> ExpressionObject<T, ?> evaluateClosure(Expression.OperatorType op, ExpressionObject<T, ?>[] args) {
         final boolean bothNumbers = args.length == 2 && args[0].returnType.equals(Number.class) && args[1].returnType.equals(Number.class);
         final boolean bothBooleans = args.length == 2 && args[0].returnType.equals(Boolean.class) && args[1].returnType.equals(Boolean.class);
         return switch (op) {
@@ -26,22 +85,10 @@ public abstract class EvaluateOperation {
                     if (args[0].returnType.equals(BlockLike.class)) {
                         final Function<T, ?> f = args[0].f;
                         yield switch (field) {
-                            case "name" -> new ExpressionObject<>(String.class, o -> {
-                                BlockLike b = ((BlockLike) f.apply(o));
-                                return b == null ? null : b.name;
-                            });
-                            case "layer" -> new ExpressionObject<>(String.class, o -> {
-                                BlockLike b = ((BlockLike) f.apply(o));
-                                return b == null ? null : b.getLayer().s;
-                            });
-                            case "pos" -> new ExpressionObject<>(ObjPos.class, o -> {
-                                BlockLike b = ((BlockLike) f.apply(o));
-                                return b == null ? null : b.pos.copy();
-                            });
-                            case "hasCollision" -> new ExpressionObject<>(Boolean.class, o -> {
-                                BlockLike b = ((BlockLike) f.apply(o));
-                                return b == null ? null : b.hasCollision();
-                            });
+                            case "name" -> new ExpressionObject<>(String.class, o -> blockName((BlockLike) f.apply(o)));
+                            case "layer" -> new ExpressionObject<>(String.class, o -> blockLayer((BlockLike) f.apply(o)));
+                            case "pos" -> new ExpressionObject<>(ObjPos.class, o -> blockPos((BlockLike) f.apply(o)));
+                            case "hasCollision" -> new ExpressionObject<>(Boolean.class, o -> blockHasCollision((BlockLike) f.apply(o)));
                             default ->
                                     throw new RuntimeException("Incorrectly formatted expression, tried to access non-existent field \"" + field + "\" from BlockLike");
                         };
@@ -68,7 +115,7 @@ public abstract class EvaluateOperation {
                         final Function<T, ?> f = args[0].f;
                         yield switch (field) {
                             case "pos" ->
-                                    new ExpressionObject<>(ObjPos.class, o -> ((LayoutMarker) f.apply(o)).pos.copy());
+                                    new ExpressionObject<>(ObjPos.class, o -> markerPos((LayoutMarker) f.apply(o)));
                             default ->
                                     throw new RuntimeException("Incorrectly formatted expression, tried to access non-existent field \"" + field + "\" from LayoutMarker");
                         };
@@ -4,13 +4,25 @@ import foundation.Main;
 import foundation.math.ObjPos;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
 public class Expression<T> {
+    //Run the ExpressionOptimizer on expressions when they're compiled, and evaluate the optimized closures
+    public static final boolean OPTIMIZE_EXPRESSIONS = true;
+    //Print each expression as it was parsed and as it was optimized when it's compiled
+    public static final boolean DEBUG_PRINT_COMPILED_EXPRESSIONS = false;
+    //Runs ExpressionDifferentialTest once the level has finished generating
+    public static final boolean DEBUG_DIFFERENTIAL_TEST = false;
+
     public HashMap<String, ExpressionValue<T>> values = new HashMap<>();
     public HashMap<String, ExpressionFunction<T>> functions = new HashMap<>();
 
+    //Compiled expressions, keyed by the expression text. The values and functions must all be added
+    //before the first expression is compiled, as the compiled expressions are never invalidated
+    private final ConcurrentHashMap<String, Function<T, ?>> compiledExpressions = new ConcurrentHashMap<>();
+
     protected Expression() {
 
     }
@@ -23,7 +35,43 @@ public class Expression<T> {
         functions.put(v.name, v);
     }
 
+    /*
+     * Parsing an expression gives a tree of functions that can be evaluated any number of times, and
+     * which doesn't depend on the expression string anymore. The same expression text is used in many
+     * places, for example the same connected texture conditions are used by most blocks, so the parsed
+     * function is shared between all of them instead of each one parsing the expression again.
+     *
+     * With the optimizer on, the function is the closure of the optimized tree.
+     */
+    public Function<T, ?> compileExpression(String expression) {
+        return compiledExpressions.computeIfAbsent(expression, s -> {
+            ExpressionObject<T, ?> parsed = parseExpressionObject(s);
+            ExpressionObject<T, ?> optimized = OPTIMIZE_EXPRESSIONS ? ExpressionOptimizer.optimize(parsed) : parsed;
+            if (DEBUG_PRINT_COMPILED_EXPRESSIONS) {
+                System.out.println("expression: " + s);
+                System.out.println("    parsed (cost " + ExpressionOptimizer.cost(parsed) + "): " + parsed);
+                System.out.println("    optimized (cost " + ExpressionOptimizer.cost(optimized) + "): " + optimized);
+            }
+            return optimized.f;
+        });
+    }
+
+    public int getCompiledExpressionCount() {
+        return compiledExpressions.size();
+    }
+
+    //The text of every expression compiled so far, sorted, which is every expression used by the loaded assets
+    public ArrayList<String> getCompiledExpressions() {
+        ArrayList<String> expressions = new ArrayList<>(compiledExpressions.keySet());
+        expressions.sort(String::compareTo);
+        return expressions;
+    }
+
     public Function<T, ?> parseExpression(String expression) {
+        return parseExpressionObject(expression).f;
+    }
+
+    public ExpressionObject<T, ?> parseExpressionObject(String expression) {
         ArrayList<ParserToken<?>> unidentifiedTokens = getUnidentifiedTokens(expression);
         ArrayList<ParserToken<?>> finalTokens = new ArrayList<>();
 
@@ -61,8 +109,7 @@ public class Expression<T> {
             }
             finalTokens.add(token);
         }
-        Function<T, ?> function = evaluateExpression(tokensToExpression(false, finalTokens)).f;
-        return function;
+        return evaluateExpression(tokensToExpression(false, finalTokens));
     }
 
     private static ArrayList<ParserToken<?>> getUnidentifiedTokens(String condition) {
@@ -278,13 +325,13 @@ public class Expression<T> {
                         ObjPos pos = new ObjPos(num0, num1);
                         yield new ExpressionObjectStatic<>(ObjPos.class, o -> pos, pos);
                     }
-                    yield new ExpressionObject<>(ObjPos.class, o -> new ObjPos(num0, ((Number) f1.apply(o)).floatValue()));
+                    yield new ExpressionObject<>(ObjPos.class, o -> new ObjPos(num0, ((Number) f1.apply(o)).floatValue()), ExpressionNode.position(args.get(0), args.get(1)));
                 } else {
                     if (args.get(1) instanceof ExpressionObjectStatic<T, ?> static1) {
                         float num1 = ((Number) static1.value).floatValue();
-                        yield new ExpressionObject<>(ObjPos.class, o -> new ObjPos(((Number) f0.apply(o)).floatValue(), num1));
+                        yield new ExpressionObject<>(ObjPos.class, o -> new ObjPos(((Number) f0.apply(o)).floatValue(), num1), ExpressionNode.position(args.get(0), args.get(1)));
                     }
-                    yield new ExpressionObject<>(ObjPos.class, o -> new ObjPos(((Number) f0.apply(o)).floatValue(), ((Number) f1.apply(o)).floatValue()));
+                    yield new ExpressionObject<>(ObjPos.class, o -> new ObjPos(((Number) f0.apply(o)).floatValue(), ((Number) f1.apply(o)).floatValue()), ExpressionNode.position(args.get(0), args.get(1)));
                 }
             }
             case "distanceToBorder" -> {
@@ -302,15 +349,10 @@ public class Expression<T> {
                 } else {
                     Function<T, ?> f = args.get(0).f;
                     if (args.get(0).returnType.equals(ObjPos.class)) {
-                        yield new ExpressionObject<>(Number.class, o -> {
-                            float x = ((ObjPos) f.apply(o)).x;
-                            return Math.min(x, Main.BLOCKS_X - 1 - x);
-                        });
+                        ExpressionObject<T, Number> x = new ExpressionObject<>(Number.class, o -> ((ObjPos) f.apply(o)).x, ExpressionNode.field(args.get(0), "x"));
+                        yield new ExpressionObject<>(Number.class, o -> distanceToBorder(((ObjPos) f.apply(o)).x), ExpressionNode.call(Expression.class, "distanceToBorder", x));
                     } else {
-                        yield new ExpressionObject<>(Number.class, o -> {
-                            float x = ((Number) f.apply(o)).floatValue();
-                            return Math.min(x, Main.BLOCKS_X - 1 - x);
-                        });
+                        yield new ExpressionObject<>(Number.class, o -> distanceToBorder(((Number) f.apply(o)).floatValue()), ExpressionNode.call(Expression.class, "distanceToBorder", args.get(0)));
                     }
                 }
             }
@@ -319,6 +361,10 @@ public class Expression<T> {
         };
     }
 
+    public static float distanceToBorder(float x) {
+        return Math.min(x, Main.BLOCKS_X - 1 - x);
+    }
+
     protected <U> U getArg(int index, ArrayList<ExpressionObject<T, ?>> args, T t, Class<U> clazz) {
         if (!clazz.isAssignableFrom(args.get(index).returnType)) {
             Object v = args.get(index).f.apply(t);
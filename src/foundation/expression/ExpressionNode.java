@@ -0,0 +1,112 @@
+package foundation.expression;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+public class ExpressionNode {
+    /*
+     * Describes how an ExpressionObject computes its value, so that the expression can be optimized and
+     * read, where a closure can only be evaluated. The node only describes the expression object it
+     * belongs to, its arguments are the expression objects it's built from. Expression objects without a
+     * node, such as functions that don't describe themselves, are left as they are.
+     *
+     * Calls must not have side effects, and may only throw for badly formed expressions, as the
+     * ExpressionOptimizer is free to evaluate them once for several uses, or in a different order.
+     */
+    public enum Kind {
+        //The value is the constant itself
+        CONSTANT,
+        //The object the expression is being evaluated for
+        INPUT,
+        //A public static method, the value is the Method. ObjPos arguments are passed as two floats, x then y
+        CALL,
+        //An ObjPos made from two numbers, x then y
+        POSITION,
+        //The x or y field of a position, the value is the field name
+        FIELD,
+        //An operator applied to one or two arguments, the value is the OperatorType
+        OPERATION
+    }
+
+    //The estimated cost of a call that only reads fields, the cost of other calls is given when they're created
+    public static final int DEFAULT_CALL_COST = 2;
+
+    public final Kind kind;
+    public final Object value;
+    public final ExpressionObject<?, ?>[] args;
+    //The estimated cost of evaluating this node, not including its arguments
+    public final int cost;
+
+    private ExpressionNode(Kind kind, Object value, int cost, ExpressionObject<?, ?>... args) {
+        this.kind = kind;
+        this.value = value;
+        this.cost = cost;
+        this.args = args;
+    }
+
+    //The same node, but with different arguments
+    public ExpressionNode withArgs(ExpressionObject<?, ?>... args) {
+        return new ExpressionNode(kind, value, cost, args);
+    }
+
+    public static ExpressionNode constant(Object value) {
+        return new ExpressionNode(Kind.CONSTANT, value, 0);
+    }
+
+    public static ExpressionNode input() {
+        return new ExpressionNode(Kind.INPUT, null, 0);
+    }
+
+    public static ExpressionNode position(ExpressionObject<?, ?> x, ExpressionObject<?, ?> y) {
+        return new ExpressionNode(Kind.POSITION, null, 0, x, y);
+    }
+
+    public static ExpressionNode field(ExpressionObject<?, ?> position, String field) {
+        return new ExpressionNode(Kind.FIELD, field, 0, position);
+    }
+
+    public static ExpressionNode operation(Expression.OperatorType op, ExpressionObject<?, ?>... args) {
+        return new ExpressionNode(Kind.OPERATION, op, 1, args);
+    }
+
+    //The method must be the only public static method with that name in the class
+    public static ExpressionNode call(Class<?> owner, String name, ExpressionObject<?, ?>... args) {
+        return call(DEFAULT_CALL_COST, owner, name, args);
+    }
+
+    public static ExpressionNode call(int cost, Class<?> owner, String name, ExpressionObject<?, ?>... args) {
+        Method found = null;
+        for (Method m : owner.getMethods()) {
+            if (!m.getName().equals(name) || !Modifier.isStatic(m.getModifiers()))
+                continue;
+            if (found != null)
+                throw new RuntimeException("Expression call \"" + name + "\" in " + owner.getSimpleName() + " is overloaded, calls must have a unique name");
+            found = m;
+        }
+        if (found == null)
+            throw new RuntimeException("Expression call \"" + name + "\" was not found as a public static method in " + owner.getSimpleName());
+        return new ExpressionNode(Kind.CALL, found, cost, args);
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case CONSTANT -> value instanceof String ? "\"" + value + "\"" : String.valueOf(value);
+            case INPUT -> "input";
+            case CALL -> ((Method) value).getName() + argsToString();
+            case POSITION -> "pos" + argsToString();
+            case FIELD -> args[0] + "." + value;
+            case OPERATION -> value + argsToString();
+        };
+    }
+
+    private String argsToString() {
+        StringBuilder s = new StringBuilder("[");
+        for (int i = 0; i < args.length; i++) {
+            if (i != 0)
+                s.append(", ");
+            s.append(args[i]);
+        }
+        return s.append("]").toString();
+    }
+}
@@ -5,9 +5,21 @@ import java.util.function.Function;
 public class ExpressionObject<T, R> {
     public final Class<R> returnType;
     public final Function<T, R> f;
+    //How the value is computed, used by the ExpressionOptimizer. Null if it can only be evaluated with the closure
+    public final ExpressionNode node;
 
     public ExpressionObject(Class<R> returnType, Function<T, R> f) {
+        this(returnType, f, null);
+    }
+
+    public ExpressionObject(Class<R> returnType, Function<T, R> f, ExpressionNode node) {
         this.returnType = returnType;
         this.f = f;
+        this.node = node;
+    }
+
+    @Override
+    public String toString() {
+        return node == null ? "closure<" + (returnType == null ? "null" : returnType.getSimpleName()) + ">" : node.toString();
     }
 }
@@ -6,7 +6,7 @@ public class ExpressionObjectStatic<T, R> extends ExpressionObject<T, R> {
     public final R value;
 
     public ExpressionObjectStatic(Class<R> returnType, Function<T, R> f, R value) {
-        super(returnType, f);
+        super(returnType, f, ExpressionNode.constant(value));
         this.value = value;
     }
 }
@@ -0,0 +1,380 @@
+package foundation.expression;
+
+import foundation.math.ObjPos;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public abstract class ExpressionOptimizer {
+    /*
+     * Rewrites the ExpressionNode tree of a parsed expression, before it's evaluated. Each
+     * rewritten node computes the same value as the node it replaces. Operations, positions and fields
+     * whose arguments were rewritten get a new closure made from the rewritten arguments, so that the
+     * closure of the optimized expression skips what was folded away, and tests the conditions of and/or
+     * chains in their new order. Calls keep the closure they were parsed with, which computes the
+     * arguments of the call itself.
+     *
+     * The passes, applied bottom up to every node:
+     *  - Type inference, where the type of each node is worked out from the node itself, and must agree
+     *    with the type the parser gave it.
+     *  - Constant folding, where nodes with only constant arguments are evaluated once, and "and", "or"
+     *    and "not" are simplified when one side is constant.
+     *  - Reordering of "and" and "or" chains so that the cheapest conditions are tested first. This is
+     *    only done when none of the conditions have side effects or can throw, so it can't be seen.
+     *  - Common subexpression elimination, where nodes that compute the same thing become the same
+     *    object. The closures still evaluate a shared object each time it's used, but code that reads
+     *    the tree, such as CTNeighbourTable, sees one object instead of several.
+     *
+     * Closures don't describe what they do, so they are never moved, folded or shared.
+     */
+    public static final AtomicInteger foldedNodes = new AtomicInteger(), reorderedChains = new AtomicInteger(), sharedNodes = new AtomicInteger();
+
+    //The estimated cost of calling a closure, which can do anything
+    private static final int CLOSURE_COST = 20;
+
+    //The optimized expression takes the same input as the one it replaces
+    @SuppressWarnings("unchecked")
+    public static <T> ExpressionObject<T, ?> optimize(ExpressionObject<T, ?> expression) {
+        return (ExpressionObject<T, ?>) new Optimizer().optimize(expression);
+    }
+
+    public static int cost(ExpressionObject<?, ?> e) {
+        if (e.node == null)
+            return CLOSURE_COST;
+        int cost = e.node.cost;
+        for (ExpressionObject<?, ?> arg : e.node.args) {
+            cost += cost(arg);
+        }
+        return cost;
+    }
+
+    //Evaluating the expression never has side effects, so it can be evaluated early, late, or only once
+    public static boolean isPure(ExpressionObject<?, ?> e) {
+        if (e.node == null)
+            return false;
+        for (ExpressionObject<?, ?> arg : e.node.args) {
+            if (!isPure(arg))
+                return false;
+        }
+        return true;
+    }
+
+    //Whether evaluating the expression can throw for a well formed expression, for example by unboxing a null
+    public static boolean canThrow(ExpressionObject<?, ?> e) {
+        if (e.node == null)
+            return true;
+        switch (e.node.kind) {
+            case CALL -> {
+                if (isValueType(e.returnType) && !((Method) e.node.value).getReturnType().isPrimitive())
+                    return true;
+            }
+            case OPERATION -> {
+                Expression.OperatorType op = (Expression.OperatorType) e.node.value;
+                //Equality is checked with equals, which throws if the first value is null
+                if ((op == Expression.OperatorType.EQUAL || op == Expression.OperatorType.NOT_EQUAL) &&
+                        !isValueType(e.node.args[0].returnType) &&
+                        !(isConstant(e.node.args[0]) && e.node.args[0].node.value != null))
+                    return true;
+            }
+        }
+        for (ExpressionObject<?, ?> arg : e.node.args) {
+            if (canThrow(arg))
+                return true;
+        }
+        return false;
+    }
+
+    //Booleans, numbers and positions are used by value, so one that's null throws as soon as it's used
+    private static boolean isValueType(Class<?> c) {
+        return Boolean.class.equals(c) || Number.class.equals(c) || ObjPos.class.equals(c);
+    }
+
+    //The type that the node computes, worked out from the node rather than taken from the parser
+    public static Class<?> inferType(ExpressionObject<?, ?> e) {
+        ExpressionNode node = e.node;
+        if (node == null || node.kind == ExpressionNode.Kind.INPUT)
+            return e.returnType;
+        return switch (node.kind) {
+            case CONSTANT -> {
+                if (node.value == null)
+                    yield e.returnType;
+                if (node.value instanceof Number)
+                    yield Number.class;
+                yield node.value.getClass();
+            }
+            case CALL -> {
+                Class<?> returnType = ((Method) node.value).getReturnType();
+                if (returnType == boolean.class)
+                    yield Boolean.class;
+                if (returnType == float.class || returnType == int.class || Number.class.isAssignableFrom(returnType))
+                    yield Number.class;
+                yield returnType;
+            }
+            case POSITION -> {
+                expectType(node, 0, Number.class);
+                expectType(node, 1, Number.class);
+                yield ObjPos.class;
+            }
+            case FIELD -> {
+                expectType(node, 0, ObjPos.class);
+                yield Number.class;
+            }
+            case OPERATION -> switch ((Expression.OperatorType) node.value) {
+                case AND, OR -> {
+                    expectType(node, 0, Boolean.class);
+                    expectType(node, 1, Boolean.class);
+                    yield Boolean.class;
+                }
+                case NOT -> {
+                    expectType(node, 0, Boolean.class);
+                    yield Boolean.class;
+                }
+                case GTH, GTE, LTH, LTE -> {
+                    expectType(node, 0, Number.class);
+                    expectType(node, 1, Number.class);
+                    yield Boolean.class;
+                }
+                case EQUAL, NOT_EQUAL -> Boolean.class;
+                case MULTIPLICATION, DIVISION, PLUS, MINUS -> {
+                    for (ExpressionObject<?, ?> arg : node.args) {
+                        if (inferType(arg).equals(ObjPos.class))
+                            yield ObjPos.class;
+                    }
+                    yield Number.class;
+                }
+                case DOT -> e.returnType;
+            };
+            case INPUT -> e.returnType;
+        };
+    }
+
+    private static void expectType(ExpressionNode node, int arg, Class<?> type) {
+        Class<?> found = inferType(node.args[arg]);
+        if (found != null && !type.isAssignableFrom(found))
+            throw new RuntimeException("Expression type error, argument " + (arg + 1) + " of " + node + " should be " +
+                    type.getSimpleName() + " but was " + found.getSimpleName());
+    }
+
+    private static boolean isConstant(ExpressionObject<?, ?> e) {
+        return e.node != null && e.node.kind == ExpressionNode.Kind.CONSTANT;
+    }
+
+    private static boolean isConstant(ExpressionObject<?, ?> e, boolean value) {
+        return isConstant(e) && Boolean.valueOf(value).equals(e.node.value);
+    }
+
+    private static class Optimizer {
+        //The shared object for every node seen so far, keyed by what the node computes
+        private final HashMap<String, ExpressionObject<?, ?>> canonical = new HashMap<>();
+        private final IdentityHashMap<ExpressionObject<?, ?>, Integer> ids = new IdentityHashMap<>();
+        private final IdentityHashMap<ExpressionObject<?, ?>, ExpressionObject<?, ?>> optimized = new IdentityHashMap<>();
+
+        private ExpressionObject<?, ?> optimize(ExpressionObject<?, ?> e) {
+            ExpressionObject<?, ?> result = optimized.get(e);
+            if (result == null) {
+                result = share(simplify(withOptimizedArgs(e)));
+                optimized.put(e, result);
+            }
+            return result;
+        }
+
+        private ExpressionObject<?, ?> withOptimizedArgs(ExpressionObject<?, ?> e) {
+            if (e.node == null || e.node.args.length == 0)
+                return e;
+            Class<?> inferred = inferType(e);
+            if (e.returnType != null && inferred != null && !e.returnType.isAssignableFrom(inferred) && !inferred.isAssignableFrom(e.returnType))
+                throw new RuntimeException("Expression type error, " + e.node + " was parsed as " + e.returnType.getSimpleName() +
+                        " but computes " + inferred.getSimpleName());
+            ExpressionObject<?, ?>[] args = new ExpressionObject<?, ?>[e.node.args.length];
+            boolean changed = false;
+            for (int i = 0; i < args.length; i++) {
+                args[i] = optimize(e.node.args[i]);
+                changed |= args[i] != e.node.args[i];
+            }
+            return changed ? withArgs(e, e.node.withArgs(args)) : e;
+        }
+
+        private ExpressionObject<?, ?> simplify(ExpressionObject<?, ?> e) {
+            ExpressionNode node = e.node;
+            if (node == null || node.kind == ExpressionNode.Kind.CONSTANT || node.kind == ExpressionNode.Kind.INPUT)
+                return e;
+            boolean allConstant = true;
+            for (ExpressionObject<?, ?> arg : node.args) {
+                allConstant &= isConstant(arg);
+            }
+            if (allConstant) {
+                ExpressionObject<?, ?> folded = fold(e);
+                if (folded != null)
+                    return folded;
+            }
+            if (node.kind != ExpressionNode.Kind.OPERATION)
+                return e;
+            Expression.OperatorType op = (Expression.OperatorType) node.value;
+            switch (op) {
+                case NOT -> {
+                    //not not x is x
+                    ExpressionObject<?, ?> arg = node.args[0];
+                    if (arg.node != null && arg.node.kind == ExpressionNode.Kind.OPERATION && arg.node.value == Expression.OperatorType.NOT) {
+                        foldedNodes.incrementAndGet();
+                        return arg.node.args[0];
+                    }
+                }
+                case AND, OR -> {
+                    //x and true is x, and x and false is false, as long as x doesn't need to be evaluated
+                    boolean identity = op == Expression.OperatorType.AND;
+                    for (int i = 0; i < 2; i++) {
+                        ExpressionObject<?, ?> arg = node.args[i], other = node.args[1 - i];
+                        if (isConstant(arg, identity)) {
+                            foldedNodes.incrementAndGet();
+                            return other;
+                        }
+                        if (isConstant(arg, !identity) && (i == 0 || (isPure(other) && !canThrow(other)))) {
+                            foldedNodes.incrementAndGet();
+                            return arg;
+                        }
+                    }
+                    return reorder(e, op);
+                }
+            }
+            return e;
+        }
+
+        /*
+         * Nodes with only constant arguments are evaluated now, from the constants rather than with the
+         * node's closure, as the closure may still evaluate arguments that have since been simplified
+         * away. If evaluating the node fails, it's left as it is, so that it fails in the same way later.
+         */
+        private ExpressionObject<?, ?> fold(ExpressionObject<?, ?> e) {
+            ExpressionNode node = e.node;
+            try {
+                Object value = switch (node.kind) {
+                    case OPERATION -> {
+                        ExpressionObject<Object, ?> result = EvaluateOperation.evaluateOperation((Expression.OperatorType) node.value, (Object[]) node.args);
+                        yield result instanceof ExpressionObjectStatic<Object, ?> s ? s.value : result.f.apply(null);
+                    }
+                    case CALL -> invoke((Method) node.value, node.args);
+                    case POSITION ->
+                            new ObjPos(((Number) node.args[0].node.value).floatValue(), ((Number) node.args[1].node.value).floatValue());
+                    case FIELD -> {
+                        ObjPos pos = (ObjPos) node.args[0].node.value;
+                        yield node.value.equals("x") ? pos.x : pos.y;
+                    }
+                    default -> throw new IllegalArgumentException();
+                };
+                foldedNodes.incrementAndGet();
+                //The return type may be primitive, so the value can't be checked against it
+                @SuppressWarnings("unchecked")
+                Class<Object> returnType = (Class<Object>) e.returnType;
+                return new ExpressionObjectStatic<>(returnType, o -> value, value);
+            } catch (RuntimeException | ReflectiveOperationException ignored) {
+                return null;
+            }
+        }
+
+        //Calls the method the same way compiled code would, with positions passed as two floats
+        private static Object invoke(Method m, ExpressionObject<?, ?>[] args) throws ReflectiveOperationException {
+            Class<?>[] params = m.getParameterTypes();
+            Object[] values = new Object[params.length];
+            int p = 0;
+            for (ExpressionObject<?, ?> arg : args) {
+                Object value = arg.node.value;
+                if (value instanceof ObjPos pos && params[p] == float.class) {
+                    values[p++] = pos.x;
+                    values[p++] = pos.y;
+                } else if (value instanceof Number n && params[p] == float.class) {
+                    values[p++] = n.floatValue();
+                } else if (value instanceof Number n && params[p] == int.class) {
+                    values[p++] = (int) n.floatValue();
+                } else
+                    values[p++] = value;
+            }
+            return m.invoke(null, values);
+        }
+
+        //Puts the conditions of a chain of the same operator in order of cost, cheapest first
+        private ExpressionObject<?, ?> reorder(ExpressionObject<?, ?> e, Expression.OperatorType op) {
+            ArrayList<ExpressionObject<?, ?>> chain = new ArrayList<>();
+            flatten(e, op, chain);
+            for (ExpressionObject<?, ?> condition : chain) {
+                if (!isPure(condition) || canThrow(condition))
+                    return e;
+            }
+            ArrayList<ExpressionObject<?, ?>> sorted = new ArrayList<>(chain);
+            //The sort is stable, so conditions with the same cost keep their order
+            sorted.sort((a, b) -> Integer.compare(cost(a), cost(b)));
+            if (sorted.equals(chain))
+                return e;
+            reorderedChains.incrementAndGet();
+            ExpressionObject<?, ?> result = sorted.get(0);
+            for (int i = 1; i < sorted.size(); i++) {
+                result = share(EvaluateOperation.evaluateOperation(op, result, sorted.get(i)));
+            }
+            return result;
+        }
+
+        private static void flatten(ExpressionObject<?, ?> e, Expression.OperatorType op, ArrayList<ExpressionObject<?, ?>> chain) {
+            if (e.node != null && e.node.kind == ExpressionNode.Kind.OPERATION && e.node.value == op) {
+                flatten(e.node.args[0], op, chain);
+                flatten(e.node.args[1], op, chain);
+            } else
+                chain.add(e);
+        }
+
+        //Returns the object already used for a node that computes the same thing, if there is one
+        private ExpressionObject<?, ?> share(ExpressionObject<?, ?> e) {
+            if (!isPure(e))
+                return e;
+            String key = key(e);
+            ExpressionObject<?, ?> existing = canonical.get(key);
+            if (existing != null) {
+                if (existing != e && e.node.kind != ExpressionNode.Kind.CONSTANT && e.node.kind != ExpressionNode.Kind.INPUT)
+                    sharedNodes.incrementAndGet();
+                return existing;
+            }
+            canonical.put(key, e);
+            ids.put(e, ids.size());
+            return e;
+        }
+
+        //The arguments have already been shared, so they can be identified by their id
+        private String key(ExpressionObject<?, ?> e) {
+            StringBuilder s = new StringBuilder();
+            s.append(e.node.kind).append('|').append(e.returnType == null ? "null" : e.returnType.getName()).append('|');
+            if (e.node.value instanceof Method m)
+                s.append(m.getDeclaringClass().getName()).append('.').append(m.getName());
+            else if (e.node.value != null)
+                s.append(e.node.value.getClass().getName()).append(':').append(e.node.value);
+            if (e.node.kind == ExpressionNode.Kind.INPUT)
+                s.append(System.identityHashCode(e));
+            for (ExpressionObject<?, ?> arg : e.node.args) {
+                s.append('|').append(ids.get(arg));
+            }
+            return s.toString();
+        }
+
+        //The closures of the arguments take the same input as the closure of the node
+        @SuppressWarnings("unchecked")
+        private static ExpressionObject<?, ?> withArgs(ExpressionObject<?, ?> e, ExpressionNode node) {
+            Function<Object, ?> f = switch (node.kind) {
+                case POSITION -> {
+                    Function<Object, ?> x = (Function<Object, ?>) node.args[0].f, y = (Function<Object, ?>) node.args[1].f;
+                    yield o -> new ObjPos(((Number) x.apply(o)).floatValue(), ((Number) y.apply(o)).floatValue());
+                }
+                case FIELD -> {
+                    Function<Object, ?> pos = (Function<Object, ?>) node.args[0].f;
+                    yield node.value.equals("x") ? o -> ((ObjPos) pos.apply(o)).x : o -> ((ObjPos) pos.apply(o)).y;
+                }
+                case OPERATION -> {
+                    ExpressionObject<Object, ?> result = EvaluateOperation.evaluateOperation((Expression.OperatorType) node.value, (Object[]) node.args);
+                    yield result.returnType == e.returnType ? result.f : (Function<Object, ?>) e.f;
+                }
+                default -> (Function<Object, ?>) e.f;
+            };
+            return new ExpressionObject<>((Class<Object>) e.returnType, (Function<Object, Object>) f, node);
+        }
+    }
+}
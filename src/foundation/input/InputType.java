@@ -1,5 +1,6 @@
 package foundation.input;
 
+import network.PacketCodec;
 import network.Writable;
 
 import java.awt.event.InputEvent;
@@ -30,7 +31,7 @@ public class InputType<T extends InputEvent> implements Writable {
     @Override
     public void write(DataOutputStream writer) {
         try {
-            writer.writeInt(index);
+            PacketCodec.writeVarInt(writer, index);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -39,7 +40,7 @@ public class InputType<T extends InputEvent> implements Writable {
 
     public static InputType read(DataInputStream reader) {
         try {
-            return values()[reader.readInt()];
+            return values()[PacketCodec.readVarInt(reader)];
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
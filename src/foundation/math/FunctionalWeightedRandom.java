@@ -3,8 +3,8 @@ package foundation.math;
 import foundation.Deletable;
 
 import java.util.ArrayList;
+import java.util.function.DoubleSupplier;
 import java.util.function.Function;
-import java.util.function.Supplier;
 
 public class FunctionalWeightedRandom<T, U> implements Deletable {
     private final ArrayList<T> values = new ArrayList<>();
@@ -16,7 +16,7 @@ public class FunctionalWeightedRandom<T, U> implements Deletable {
         return this;
     }
 
-    public T getValue(Supplier<Double> random, U input) {
+    public T getValue(DoubleSupplier random, U input) {
         if (values.isEmpty())
             return null;
         float[] calculatedWeights = new float[weights.size()];
@@ -1,6 +1,6 @@
 package foundation.math;
 
-import java.util.function.Supplier;
+import java.util.function.DoubleSupplier;
 
 public abstract class MathUtil {
     public static float lerp(float a, float b, float t) {
@@ -35,17 +35,17 @@ public abstract class MathUtil {
         return newValue;
     }
 
-    public static int randIntBetween(int min, int max, Supplier<Double> random) {
+    public static int randIntBetween(int min, int max, DoubleSupplier random) {
         int realMin = Math.min(min, max), realMax = Math.max(min, max);
-        return ((int) Math.floor(lerp(realMin, realMax + 1, random.get().floatValue())));
+        return ((int) Math.floor(lerp(realMin, realMax + 1, (float) random.getAsDouble())));
     }
 
-    public static float randFloatBetween(float min, float max, Supplier<Double> random) {
-        return (float) (random.get() * (max - min) + min);
+    public static float randFloatBetween(float min, float max, DoubleSupplier random) {
+        return (float) (random.getAsDouble() * (max - min) + min);
     }
 
-    public static boolean randBoolean(float probability, Supplier<Double> random) {
-        return random.get() < probability;
+    public static boolean randBoolean(float probability, DoubleSupplier random) {
+        return random.getAsDouble() < probability;
     }
 
     public static float[] findQuadratic(float root1, float root2, float ext) {
@@ -6,6 +6,7 @@ import java.awt.*;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class ObjPos implements Writable {
     public float x;
@@ -430,4 +431,13 @@ public class ObjPos implements Writable {
             throw new RuntimeException(e);
         }
     }
+
+    public void write(ByteBuffer buffer) {
+        buffer.putFloat(x);
+        buffer.putFloat(y);
+    }
+
+    public static ObjPos read(ByteBuffer buffer) {
+        return new ObjPos(buffer.getFloat(), buffer.getFloat());
+    }
 }
@@ -1,28 +1,86 @@
 package foundation.math;
 
-import java.util.HashMap;
 import java.util.Random;
-import java.util.function.Supplier;
+import java.util.function.DoubleSupplier;
 
 public class RandomHandler {
     private final long seed;
     private final Random mainRandom;
-    private final HashMap<RandomType, Random> randoms = new HashMap<>();
+    //Indexed by random type ordinal. Never modified after the constructor, and Random is already thread
+    //safe, so the shared randoms can be read without locking
+    private final Random[] randoms = new Random[RandomType.values().length];
+    //Never drawn from, only split into streams, so they can be shared between threads
+    private final RandomStream[] streamRoots = new RandomStream[RandomType.values().length];
+    //Streams that replace the shared randoms for the current thread while runWithStream is running
+    private final ThreadLocal<RandomStream[]> streams = new ThreadLocal<>();
 
     public RandomHandler(long seed) {
         this.seed = seed;
         mainRandom = new Random(seed);
         for (RandomType type : RandomType.values()) {
-            randoms.put(type, new Random(mainRandom.nextInt()));
+            randoms[type.ordinal()] = new Random(mainRandom.nextInt());
+            streamRoots[type.ordinal()] = new RandomStream(RandomStream.mix(seed + type.ordinal()));
         }
     }
 
-    public synchronized Random getRandom(RandomType type) {
-        return randoms.get(type);
+    public Random getRandom(RandomType type) {
+        RandomStream[] threadStreams = streams.get();
+        if (threadStreams != null)
+            return threadStreams[type.ordinal()];
+        return randoms[type.ordinal()];
     }
 
-    public synchronized Supplier<Double> getDoubleSupplier(RandomType type) {
-        return getRandom(type)::nextDouble;
+    /*
+     * The shared randoms give different results depending on the order in which they're used, which
+     * isn't deterministic once several threads use them at the same time. While the action runs, every
+     * random used by the current thread is instead a stream that is seeded only from the level seed,
+     * the random type and the key. As long as each key is only used by one thread at a time, the action
+     * then gets the same numbers no matter what the other threads are doing.
+     *
+     * Streams can be nested. The inner stream only depends on its own key, so it gets the same numbers no
+     * matter which stream it's nested in, or which thread runs it.
+     */
+    public void runWithStream(long key, Runnable action) {
+        RandomStream[] previous = streams.get();
+        RandomStream[] threadStreams = new RandomStream[RandomType.values().length];
+        for (RandomType type : RandomType.values()) {
+            threadStreams[type.ordinal()] = getStream(type, key);
+        }
+        streams.set(threadStreams);
+        try {
+            action.run();
+        } finally {
+            if (previous == null)
+                streams.remove();
+            else
+                streams.set(previous);
+        }
+    }
+
+    //A new stream derived only from the level seed, the random type and the key
+    public RandomStream getStream(RandomType type, long key) {
+        return streamRoots[type.ordinal()].split(key);
+    }
+
+    //Combines the position into a key, so that something generated at a position always gets the same stream
+    public static long positionKey(ObjPos pos) {
+        return ((long) Float.floatToIntBits(pos.x) << 32) | (Float.floatToIntBits(pos.y) & 0xFFFFFFFFL);
+    }
+
+    //Inside runWithStream, this is the stream itself, so drawing numbers from it doesn't allocate
+    public DoubleSupplier getDoubleSupplier(RandomType type) {
+        Random random = getRandom(type);
+        if (random instanceof RandomStream stream)
+            return stream;
+        return random::nextDouble;
+    }
+
+    public double nextDouble(RandomType type) {
+        return getRandom(type).nextDouble();
+    }
+
+    public int nextInt(RandomType type, int bound) {
+        return getRandom(type).nextInt(bound);
     }
 
     public Random generateNewRandomSource(RandomType type) {
@@ -0,0 +1,74 @@
+package foundation.math;
+
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+public class RandomStream extends Random implements DoubleSupplier {
+    /*
+     * A SplitMix64 generator. The state is just a counter, and each number is the counter run through
+     * a mixing function, so a stream seeded from a key doesn't depend on any other stream. It extends
+     * Random so that it can be used anywhere a Random is expected, but unlike Random it isn't thread
+     * safe, and it should only ever be used by the thread that created it.
+     *
+     * Reading numbers never allocates, which matters for the procedural generator where random numbers
+     * are drawn in the innermost loops.
+     */
+    private static final long serialVersionUID = 1L;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+    private long state;
+
+    public RandomStream(long seed) {
+        super(0);
+        this.seed = seed;
+        state = seed;
+    }
+
+    //A new stream that only depends on this stream's seed and the key, not on how many numbers have been drawn
+    public RandomStream split(long key) {
+        return new RandomStream(mix(seed ^ mix(key + GOLDEN_GAMMA)));
+    }
+
+    @Override
+    public long nextLong() {
+        return mix(state += GOLDEN_GAMMA);
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+
+    @Override
+    public double getAsDouble() {
+        return nextDouble();
+    }
+
+    //The finalisation step of SplitMix64, so that nearby keys give unrelated numbers
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -3,6 +3,7 @@ package foundation.math;
 import foundation.Deletable;
 
 import java.util.ArrayList;
+import java.util.function.DoubleSupplier;
 import java.util.function.Supplier;
 
 public class SuppliedWeightedRandom<T> implements Deletable {
@@ -15,7 +16,7 @@ public class SuppliedWeightedRandom<T> implements Deletable {
         return this;
     }
 
-    public T getValue(Supplier<Double> random) {
+    public T getValue(DoubleSupplier random) {
         if (values.isEmpty())
             return null;
         float[] calculatedWeights = new float[weights.size()];
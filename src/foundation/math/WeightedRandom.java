@@ -3,7 +3,7 @@ package foundation.math;
 import foundation.Deletable;
 
 import java.util.ArrayList;
-import java.util.function.Supplier;
+import java.util.function.DoubleSupplier;
 
 public class WeightedRandom<T> implements Deletable {
     private final ArrayList<T> values = new ArrayList<>();
@@ -15,7 +15,7 @@ public class WeightedRandom<T> implements Deletable {
         return this;
     }
 
-    public T getValue(Supplier<Double> random) {
+    public T getValue(DoubleSupplier random) {
         if (values.isEmpty())
             return null;
         float[] calculatedWeights = new float[weights.size()];
@@ -0,0 +1,50 @@
+package foundation.tick;
+
+import foundation.Main;
+
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.util.concurrent.TimeUnit;
+
+public class RenderThread extends Thread {
+    //Frames are rendered independently of the ticks, so that a slow frame doesn't slow down
+    //the game, and a slow tick doesn't stop frames from being rendered
+    public static final int MAX_FRAME_RATE = 240;
+    private static final long MIN_FRAME_TIME = 1_000_000_000L / MAX_FRAME_RATE;
+
+    private volatile long lastFrameTime = 0, frameCount = 0;
+
+    @Override
+    public void run() {
+        while (true) {
+            long time = System.nanoTime();
+            BufferStrategy strategy = Main.window.getBufferStrategy();
+            do {
+                Graphics drawGraphics = strategy.getDrawGraphics();
+                Main.window.paintComponents(drawGraphics);
+                drawGraphics.dispose();
+                strategy.show();
+            } while (strategy.contentsRestored());
+            lastFrameTime = System.nanoTime() - time;
+            frameCount++;
+
+            long sleep = MIN_FRAME_TIME - lastFrameTime;
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    //Time taken to render the most recent frame, in nanoseconds
+    public long getLastFrameTime() {
+        return lastFrameTime;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+}
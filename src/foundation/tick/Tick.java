@@ -1,24 +1,23 @@
 package foundation.tick;
 
-import foundation.Main;
 import foundation.MainPanel;
 import network.NetworkState;
 
-import java.awt.*;
-import java.awt.image.BufferStrategy;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
 
 public class Tick extends Thread {
     private final Set<RegisteredTickable> qRegister = ConcurrentHashMap.newKeySet(), qRemove = ConcurrentHashMap.newKeySet();
-    private final TreeMap<TickOrder, HashSet<RegisteredTickable>> tickables = new TreeMap<>();
+    private final TickPhase[] phases = new TickPhase[TickOrder.values().length];
 
     public Tick() {
         for (TickOrder value : TickOrder.values()) {
-            tickables.put(value, new HashSet<>());
+            phases[value.ordinal()] = new TickPhase(value);
         }
     }
 
@@ -32,63 +31,181 @@ public class Tick extends Thread {
 
     //we queue tickables when removing and adding to avoid ConcurrentModificationException
     private synchronized void processQueued() {
-        qRegister.forEach(t -> tickables.get(t.getTickOrder()).add(t));
+        qRegister.forEach(t -> phases[t.getTickOrder().ordinal()].add(t));
         qRegister.clear();
 
-        qRemove.forEach(t -> tickables.get(t.getTickOrder()).remove(t));
+        qRemove.forEach(t -> phases[t.getTickOrder().ordinal()].remove(t));
         qRemove.clear();
     }
 
-    //The maximum delta time allowed by the game. If we have a delta time larger
-    //than this, we'll cap the delta time resulting in the game time running slower
-    //than normal. This is to avoid physics problems that would otherwise happen,
-    //for example weird snapping and blocks phasing through each other
+    //The fixed amount of time that the game is advanced by each tick. Real time is accumulated, and
+    //the game is ticked as many times as fits into the accumulated time, meaning that the game
+    //always runs at the same speed no matter how long each loop takes. Too large of a tick length
+    //would cause physics problems, for example weird snapping and blocks phasing through each other
     public static final float MAX_DELTA_TIME = 0.01f;
-    //Clients don't need as frequent deltaTimes because they get the "correct" simulation results
-    //from the server anyway
+    //Clients don't need to catch up on every tick because they get the "correct" simulation results
+    //from the server anyway. A client that falls behind by more than this amount of time skips the
+    //ticks past it, otherwise it catches up the same way the server does
     public static final float MAX_CLIENT_DELTA_TIME = 0.05f;
 
     //If the dT is too long, we cap the dT to avoid lag spikes when the game
     //falls behind. This can happen if the player tabs out of the game, for example
     public static final float TOTAL_DELTA_TIME_CAP = 0.1f;
 
+    //Parallel-safe phases are only split up if they have more tickables than this,
+    //and each task gets at least this many tickables
+    private static final int PARALLEL_BATCH_SIZE = 256;
+    private static final ForkJoinPool TICK_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    //Prints the average time spent on each phase, once per second
+    public static final boolean PRINT_DEBUG_TIMINGS = false;
+
+    //How far the game is between the last tick and the next one, from 0 to 1. Used by the renderer to
+    //interpolate between the last two ticks, as frames aren't rendered in sync with the ticks
+    private volatile float interpolationAlpha = 0;
+    private volatile long tickCount = 0;
+
     @Override
     public void run() {
-        long time = System.currentTimeMillis();
+        long time = System.nanoTime();
         long newTime;
+        float accumulator = 0;
+        long debugTimer = time;
         while (true) {
             //calculate deltaTime
-            newTime = System.currentTimeMillis();
-            float deltaTime = (newTime - time) / 1000f;
+            newTime = System.nanoTime();
+            float deltaTime = Math.min((newTime - time) / 1_000_000_000f, TOTAL_DELTA_TIME_CAP);
             time = newTime;
+            accumulator += deltaTime;
+            if (MainPanel.networkState == NetworkState.CLIENT)
+                accumulator = Math.min(accumulator, MAX_CLIENT_DELTA_TIME);
 
-
-            //tick tickable objects
-            deltaTime = Math.min(deltaTime, TOTAL_DELTA_TIME_CAP);
-            do {
+            while (accumulator >= MAX_DELTA_TIME) {
                 //add and remove tickables
                 processQueued();
-                float finalDT = deltaTime;
-                deltaTime -= MainPanel.networkState == NetworkState.CLIENT ? MAX_CLIENT_DELTA_TIME : MAX_DELTA_TIME;
-                tickables.forEach((order, set) -> set.forEach(t -> t.tick(Math.min(finalDT, MAX_DELTA_TIME))));
-            } while (deltaTime > 0);
-
-
-            //render frame
-            BufferStrategy strategy = Main.window.getBufferStrategy();
-            do {
-                Graphics drawGraphics = strategy.getDrawGraphics();
-                Main.window.paintComponents(drawGraphics);
-                drawGraphics.dispose();
-                strategy.show();
-            } while (strategy.contentsRestored());
-            //We make sure that a detectable amount of time has passed before processing the next tick
-            //If we don't, the physics may not function properly
+                for (TickPhase phase : phases) {
+                    phase.tick(MAX_DELTA_TIME);
+                }
+                accumulator -= MAX_DELTA_TIME;
+                tickCount++;
+            }
+            interpolationAlpha = accumulator / MAX_DELTA_TIME;
+
+            if (PRINT_DEBUG_TIMINGS && newTime - debugTimer > 1_000_000_000L) {
+                debugTimer = newTime;
+                printTimings();
+            }
+
+            //Wait until the next tick is due
             try {
-                TimeUnit.MILLISECONDS.sleep(3 - (System.currentTimeMillis() - time));
+                TimeUnit.NANOSECONDS.sleep((long) ((MAX_DELTA_TIME - accumulator) * 1_000_000_000));
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
         }
     }
+
+    public float getInterpolationAlpha() {
+        return interpolationAlpha;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    //Time taken by the phase during the most recent tick, in nanoseconds
+    public long getLastPhaseTime(TickOrder order) {
+        return phases[order.ordinal()].lastTime;
+    }
+
+    //Total time taken by the phase over all ticks so far, in nanoseconds
+    public long getTotalPhaseTime(TickOrder order) {
+        return phases[order.ordinal()].totalTime;
+    }
+
+    public long getAveragePhaseTime(TickOrder order) {
+        long ticks = tickCount;
+        return ticks == 0 ? 0 : phases[order.ordinal()].totalTime / ticks;
+    }
+
+    public int getTickableCount(TickOrder order) {
+        return phases[order.ordinal()].count;
+    }
+
+    private void printTimings() {
+        System.out.println("----------------------[ Tick timings ]-------------------------");
+        for (TickPhase phase : phases) {
+            System.out.println(phase.order + ": " + phase.count + " tickables, last " + phase.lastTime / 1000 + "us, average " + getAveragePhaseTime(phase.order) / 1000 + "us");
+        }
+        System.out.println("---------------------------------------------------------------");
+    }
+
+    private static class TickPhase {
+        private final TickOrder order;
+        private final HashSet<RegisteredTickable> tickables = new HashSet<>();
+        //Array copy of the tickables, so that the tickables can be split up into ranges
+        //for parallel phases. Only recreated when the set changes
+        private RegisteredTickable[] array = new RegisteredTickable[0];
+        private int count = 0;
+        private boolean modified = false;
+        private volatile long lastTime = 0, totalTime = 0;
+
+        private TickPhase(TickOrder order) {
+            this.order = order;
+        }
+
+        private void add(RegisteredTickable t) {
+            modified |= tickables.add(t);
+        }
+
+        private void remove(RegisteredTickable t) {
+            modified |= tickables.remove(t);
+        }
+
+        private void tick(float deltaTime) {
+            long start = System.nanoTime();
+            if (modified) {
+                modified = false;
+                array = tickables.toArray(array);
+                count = tickables.size();
+                if (count < array.length)
+                    Arrays.fill(array, count, array.length, null);
+            }
+            if (order.parallelSafe && count > PARALLEL_BATCH_SIZE)
+                TICK_POOL.invoke(new ParallelTickTask(array, 0, count, deltaTime));
+            else {
+                for (int i = 0; i < count; i++) {
+                    array[i].tick(deltaTime);
+                }
+            }
+            lastTime = System.nanoTime() - start;
+            totalTime += lastTime;
+        }
+    }
+
+    private static class ParallelTickTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final RegisteredTickable[] tickables;
+        private final int from, to;
+        private final float deltaTime;
+
+        private ParallelTickTask(RegisteredTickable[] tickables, int from, int to, float deltaTime) {
+            this.tickables = tickables;
+            this.from = from;
+            this.to = to;
+            this.deltaTime = deltaTime;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_BATCH_SIZE) {
+                for (int i = from; i < to; i++) {
+                    tickables[i].tick(deltaTime);
+                }
+                return;
+            }
+            int middle = (from + to) / 2;
+            invokeAll(new ParallelTickTask(tickables, from, middle, deltaTime), new ParallelTickTask(tickables, middle, to, deltaTime));
+        }
+    }
 }
@@ -2,10 +2,21 @@ package foundation.tick;
 
 public enum TickOrder {
     //Higher up on this list means it'll get ticked earlier
-    PLACEHOLDER,
-    PLAYER_INPUT,
-    BLOCK_MOVEMENT,
-    COLLISION_CHECK,
-    ANIMATIONS_ONLY,
-    LEVEL_UPDATES
+    PLACEHOLDER(false),
+    PLAYER_INPUT(false),
+    BLOCK_MOVEMENT(false),
+    BODY_INTEGRATION(false),
+    COLLISION_CHECK(false),
+    //Tickables in this phase only update their own animation state, so they can
+    //safely be ticked at the same time as each other
+    ANIMATIONS_ONLY(true),
+    LEVEL_UPDATES(false);
+
+    //Whether the tickables in this phase are allowed to be split up across multiple
+    //threads. They still never run at the same time as tickables from other phases
+    public final boolean parallelSafe;
+
+    TickOrder(boolean parallelSafe) {
+        this.parallelSafe = parallelSafe;
+    }
 }
@@ -0,0 +1,136 @@
+package level;
+
+import foundation.MainPanel;
+import foundation.tick.RegisteredTickable;
+import foundation.tick.TickOrder;
+import level.objects.BlockLike;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BlockTickRegistry implements RegisteredTickable {
+    /*
+     * Decides which blocks actually get ticked. Most blocks are static, and the only thing a static block
+     * does when ticked is advance its animation, so there are three kinds of blocks:
+     *
+     * Blocks without an animated texture are dormant, and are never ticked.
+     *
+     * Static blocks with an animated texture are stored here by level section, instead of being
+     * registered to the tick thread. Only the sections around the camera are ticked, and only if this
+     * is the level that is currently being shown, since the animation of a block that isn't on screen
+     * doesn't matter.
+     *
+     * Any other block has game logic in its tick, like physics blocks, and is always registered
+     * to the tick thread directly.
+     */
+    //If false, all animated blocks in the level are ticked, no matter where the camera is
+    public static final boolean RESTRICT_TO_CAMERA = true;
+    //Number of sections above and below the screen that are also ticked, so that animations
+    //are already running when they scroll into view
+    public static final int ACTIVE_SECTION_MARGIN = 1;
+
+    private final Level level;
+    private final ArrayList<Set<BlockLike>> animatedSections;
+    private final AtomicInteger registeredCount = new AtomicInteger(), animatedCount = new AtomicInteger(), alwaysActiveCount = new AtomicInteger();
+    private volatile int activeAnimatedCount = 0;
+    private boolean deleted = false;
+
+    public BlockTickRegistry(Level level, int sectionCount) {
+        this.level = level;
+        animatedSections = new ArrayList<>(sectionCount);
+        for (int i = 0; i < sectionCount; i++) {
+            animatedSections.add(ConcurrentHashMap.newKeySet());
+        }
+        registerTickable();
+    }
+
+    public void register(BlockLike b) {
+        registeredCount.incrementAndGet();
+        if (!b.blockRequiresTick())
+            return;
+        if (b.getTickOrder() == TickOrder.ANIMATIONS_ONLY) {
+            if (animatedSections.get(section(b)).add(b))
+                animatedCount.incrementAndGet();
+        } else {
+            alwaysActiveCount.incrementAndGet();
+            b.registerTickable();
+        }
+    }
+
+    public void remove(BlockLike b) {
+        registeredCount.decrementAndGet();
+        if (!b.blockRequiresTick())
+            return;
+        if (b.getTickOrder() == TickOrder.ANIMATIONS_ONLY) {
+            if (animatedSections.get(section(b)).remove(b))
+                animatedCount.decrementAndGet();
+        } else {
+            alwaysActiveCount.decrementAndGet();
+            b.removeTickable();
+        }
+    }
+
+    private int section(BlockLike b) {
+        return clampSection(level.yPosToSection(b.pos.y));
+    }
+
+    private int clampSection(int section) {
+        return Math.max(0, Math.min(animatedSections.size() - 1, section));
+    }
+
+    @Override
+    public void tick(float deltaTime) {
+        if (deleted)
+            return;
+        int bottom, top;
+        if (!RESTRICT_TO_CAMERA) {
+            bottom = 0;
+            top = animatedSections.size() - 1;
+        } else if (MainPanel.currentLevelIndex == level.levelIndex && MainPanel.BLOCK_DIMENSIONS != null) {
+            bottom = clampSection(level.yPosToSection(-MainPanel.cameraY) - ACTIVE_SECTION_MARGIN);
+            top = clampSection(level.yPosToSection(-MainPanel.cameraY + MainPanel.BLOCK_DIMENSIONS.y) + ACTIVE_SECTION_MARGIN);
+        } else {
+            activeAnimatedCount = 0;
+            return;
+        }
+        int active = 0;
+        for (int i = bottom; i <= top; i++) {
+            for (BlockLike b : animatedSections.get(i)) {
+                b.tick(deltaTime);
+                active++;
+            }
+        }
+        activeAnimatedCount = active;
+    }
+
+    //The number of blocks that have been initialised in this level, ticked or not
+    public int getRegisteredCount() {
+        return registeredCount.get();
+    }
+
+    //The number of blocks with an animated texture that are only ticked near the camera
+    public int getAnimatedCount() {
+        return animatedCount.get();
+    }
+
+    //The number of blocks that were actually ticked during the last tick
+    public int getActiveCount() {
+        return alwaysActiveCount.get() + activeAnimatedCount;
+    }
+
+    @Override
+    public TickOrder getTickOrder() {
+        return TickOrder.ANIMATIONS_ONLY;
+    }
+
+    @Override
+    public void delete() {
+        deleted = true;
+        for (Set<BlockLike> section : animatedSections) {
+            section.clear();
+        }
+        removeTickable();
+    }
+}
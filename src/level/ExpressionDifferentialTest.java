@@ -0,0 +1,109 @@
+package level;
+
+import foundation.expression.Expression;
+import foundation.expression.ExpressionOptimizer;
+import foundation.math.RandomType;
+import level.procedural.marker.LayoutMarker;
+import level.procedural.marker.resolved.GeneratorCondition;
+import level.procedural.marker.resolved.GeneratorConditionData;
+import level.procedural.marker.resolved.LMTResolvedElement;
+import level.procedural.marker.unresolved.ResolverCondition;
+import level.procedural.marker.unresolved.ResolverConditionData;
+import render.texture.ct.CTExpression;
+import render.texture.ct.CTExpressionData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Function;
+
+public abstract class ExpressionDifferentialTest {
+    /*
+     * Checks that optimizing an expression never changes what it does, for every expression used by
+     * the loaded assets, with each of the condition parsers. Each expression is evaluated with its parsed
+     * closures and with the closures of the tree rewritten by the ExpressionOptimizer, whatever
+     * Expression.OPTIMIZE_EXPRESSIONS is set to, and both must give the same result. Generator and
+     * resolver conditions are evaluated for a sample of the level's markers, connected texture conditions
+     * for a sample of its static blocks.
+     *
+     * Generator and resolver conditions can call rand, which draws from the level's procedural random
+     * numbers. Every evaluation of a condition for the same marker gets the same random stream, and the
+     * number drawn from the stream after the condition is done is compared along with the result. A
+     * rewritten condition that calls rand a different number of times than the closures, for example
+     * because the conditions around it were reordered, therefore fails the test.
+     *
+     * An evaluation that throws gives the class of the exception as its result.
+     */
+    private static final int SAMPLE_MARKERS = 500, SAMPLE_BLOCKS = 2000;
+
+    private interface Evaluator<T> {
+        Object evaluate(int index, T input, Function<T, ?> expression);
+    }
+
+    //Returns whether every optimized expression gave the same results as its parsed closures
+    public static boolean run(Level level) {
+        ArrayList<GeneratorConditionData> generatorData = new ArrayList<>();
+        ArrayList<ResolverConditionData> resolverData = new ArrayList<>();
+        for (ArrayList<LayoutMarker> section : level.layout.markerSections) {
+            for (LayoutMarker lm : section) {
+                if (generatorData.size() >= SAMPLE_MARKERS)
+                    break;
+                //The markers have already been resolved, but neither parser reads the type of the data
+                generatorData.add(new GeneratorConditionData(level.getRegion(lm.pos), lm.type instanceof LMTResolvedElement t ? t : null, lm, level));
+                resolverData.add(new ResolverConditionData(level.getRegion(lm.pos), null, lm, level));
+            }
+        }
+        ArrayList<CTExpressionData> ctData = new ArrayList<>();
+        level.staticBlocks.forEach(b -> {
+            if (ctData.size() < SAMPLE_BLOCKS)
+                ctData.add(new CTExpressionData(b, level));
+        });
+
+        System.out.println("--------------------[ Expression differential test ]------------");
+        int mismatches = compare("generator conditions", GeneratorCondition.parser, generatorData, withRandomStream(level));
+        mismatches += compare("resolver conditions", ResolverCondition.parser, resolverData, withRandomStream(level));
+        mismatches += compare("connected texture conditions", CTExpression.parser, ctData, (index, data, expression) -> expression.apply(data));
+        boolean passed = mismatches == 0 && !generatorData.isEmpty() && !ctData.isEmpty();
+        System.out.println("result: " + (passed ? "PASSED" : "FAILED"));
+        System.out.println("---------------------------------------------------------------");
+        return passed;
+    }
+
+    private static <T> Evaluator<T> withRandomStream(Level level) {
+        return (index, data, expression) -> {
+            Object[] result = new Object[2];
+            level.randomHandler.runWithStream(index, () -> {
+                result[0] = expression.apply(data);
+                result[1] = level.randomHandler.nextDouble(RandomType.PROCEDURAL);
+            });
+            return Arrays.asList(result);
+        };
+    }
+
+    //Returns the number of evaluations in which an optimized expression gave a different result than the parsed closures
+    private static <T> int compare(String name, Expression<T> parser, ArrayList<T> inputs, Evaluator<T> evaluator) {
+        ArrayList<String> expressions = parser.getCompiledExpressions();
+        int mismatches = 0;
+        for (String expression : expressions) {
+            Function<T, ?> closures = parser.parseExpression(expression);
+            Function<T, ?> optimized = ExpressionOptimizer.optimize(parser.parseExpressionObject(expression)).f;
+            for (int i = 0; i < inputs.size(); i++) {
+                Object expected = evaluate(evaluator, i, inputs.get(i), closures);
+                if (!expected.equals(evaluate(evaluator, i, inputs.get(i), optimized))) {
+                    if (mismatches == 0)
+                        System.out.println("first mismatch: \"" + expression + "\"");
+                    mismatches++;
+                }
+            }
+        }
+        System.out.println(name + ": " + expressions.size() + " expressions, " + inputs.size() + " inputs, mismatches: " + mismatches);
+        return mismatches;
+    }
+
+    private static <T> Object evaluate(Evaluator<T> evaluator, int index, T input, Function<T, ?> expression) {
+        try {
+            return evaluator.evaluate(index, input, expression);
+        } catch (RuntimeException e) {
+            return e.getClass();
+        }
+    }
+}
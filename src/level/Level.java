@@ -3,6 +3,7 @@ package level;
 import foundation.Deletable;
 import foundation.Main;
 import foundation.MainPanel;
+import foundation.expression.Expression;
 import foundation.input.InputEvent;
 import foundation.input.InputHandler;
 import foundation.input.InputType;
@@ -16,11 +17,17 @@ import level.procedural.generator.BoundType;
 import level.procedural.marker.LayoutMarker;
 import level.procedural.marker.resolved.LMTResolvedElement;
 import loader.AssetManager;
+import loader.BlitBenchmark;
+import physics.CollisionBenchmark;
 import physics.CollisionHandler;
+import physics.PhysicsStore;
 import physics.StaticHitBox;
 import render.GameRenderer;
+import render.RenderBenchmark;
 import render.event.RenderEvent;
 import render.renderables.RenderBackground;
+import render.texture.ct.CTExpressionBenchmark;
+import render.texture.ct.ConnectedTexture;
 import render.ui.elements.UIProgressTracker;
 
 import java.awt.*;
@@ -32,19 +39,31 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import static foundation.MainPanel.*;
 
 public class Level implements Deletable {
     public static int levelIndexCounter = 0;
     public final int levelIndex;
-    public int generationAttempts = 0;
-    public int generatedMarkers = 0;
+    public final AtomicInteger generationAttempts = new AtomicInteger();
+    public final AtomicInteger generatedMarkers = new AtomicInteger();
+    //The number of times a connected texture has tested its conditions for a block in this level, and how
+    //many of those conditions were evaluated or looked up in a CTNeighbourTable
+    public final AtomicInteger connectedTextureUpdates = new AtomicInteger(), evaluatedConnectedTextureConditions = new AtomicInteger(),
+            lookedUpConnectedTextureConditions = new AtomicInteger();
     public GameRenderer gameRenderer;
     public final int maximumHeight;
     public final InputHandler inputHandler;
     public final CollisionHandler collisionHandler;
+    public final PhysicsStore physicsStore;
+    public final BlockTickRegistry tickRegistry;
     public static final int SECTION_SIZE = 16;
+    //Runs LevelWriteStress once the level has finished generating
+    public static final boolean DEBUG_WRITE_STRESS = false;
+    //Only update the blocks around the ones that were changed once a marker has generated, rather than
+    //every block in the sections around the marker
+    public static final boolean INCREMENTAL_BLOCK_UPDATES = true;
     public final long seed;
     public final RandomHandler randomHandler;
 
@@ -54,13 +73,10 @@ public class Level implements Deletable {
     //layers. This does NOT affect the rendering layer or render order, it is just to allow
     //multiple static blocks to be placed on top of each other. It can, however, affect how
     //the renderer does connected textures
-    public final HashMap<ObjectLayer, BlockLike[][]> staticBlocks = new HashMap<>();
-    //Set of all statics to allow for faster block updates, divided by level section to
-    //allow async loading, with the bottom sections first
-    public final Set<BlockLike>[] allStaticBlocks;
+    public final StaticBlockStore staticBlocks;
 
     //A set containing all dynamic blocks. Connected textures do not work for these blocks.
-    public final HashSet<BlockLike> dynamicBlocks = new HashSet<>();
+    public final Set<BlockLike> dynamicBlocks = ConcurrentHashMap.newKeySet();
 
     public final Layout layout;
 
@@ -89,21 +105,10 @@ public class Level implements Deletable {
 
         int maximumHeight = getRegionTop() + 50;
 
-        for (ObjectLayer layer : ObjectLayer.values()) {
-            if (!layer.addToStatic)
-                continue;
-            staticBlocks.put(layer, new BlockLike[Main.BLOCKS_X][]);
-            BlockLike[][] blockLayer = staticBlocks.get(layer);
-            for (int i = 0; i < Main.BLOCKS_X; i++) {
-                blockLayer[i] = new BlockLike[maximumHeight];
-            }
-        }
+        staticBlocks = new StaticBlockStore(Main.BLOCKS_X, maximumHeight);
         int sectionCount = ((int) Math.ceil((double) maximumHeight / SECTION_SIZE)) + 2;
-        allStaticBlocks = new Set[sectionCount];
-        for (int i = 0; i < sectionCount; i++) {
-            allStaticBlocks[i] = ConcurrentHashMap.newKeySet();
-        }
         gameRenderer.createStaticsSet(sectionCount);
+        tickRegistry = new BlockTickRegistry(this, sectionCount);
 
         inputHandler = new InputHandler();
         inputHandler.addInput(InputType.KEY_PRESSED, e -> upCamera = true, e -> e.getKeyCode() == KeyEvent.VK_PAGE_UP, InputEvent.CAMERA_UP, false);
@@ -112,7 +117,9 @@ public class Level implements Deletable {
         inputHandler.addInput(InputType.KEY_RELEASED, e -> downCamera = false, e -> e.getKeyCode() == KeyEvent.VK_PAGE_DOWN, InputEvent.CAMERA_DOWN, false);
 
         collisionHandler = new CollisionHandler(maximumHeight, SECTION_SIZE, 2);
+        physicsStore = new PhysicsStore();
         this.maximumHeight = maximumHeight;
+        dirtyCells = new AtomicLongArray((Main.BLOCKS_X * maximumHeight + 63) / 64);
 
         layout = new Layout(maximumHeight, SECTION_SIZE, 1, this);
     }
@@ -131,9 +138,18 @@ public class Level implements Deletable {
         spawnLocation = AssetManager.getSpawnLocation(LEVEL_PATH);
         Thread generationThread = new Thread(() -> {
             long time = System.currentTimeMillis();
-            updatePool = Executors.newCachedThreadPool();
             layout.generateMarkers();
             collisionHandler.clearProcedural();
+            //Let the queued block updates finish, so that they're included in the stats
+            updatePool.shutdown();
+            try {
+                updatePool.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            updatePool = Executors.newCachedThreadPool();
+            //Blocks changed by generation attempts that were reverted after the last marker was generated
+            updateDirtyBlocks(RenderEvent.ON_GAME_INIT);
             if (generateTo.get() == -1)
                 System.out.println("-------------------[ Level fully generated ]-------------------");
             else
@@ -141,7 +157,7 @@ public class Level implements Deletable {
 
             System.out.println("seed: " + seed);
             System.out.println("generation time: " + ((System.currentTimeMillis() - time) / 1000f));
-            System.out.println("average generation attempts: " + ((float) generationAttempts) / generatedMarkers);
+            System.out.println("average generation attempts: " + ((float) generationAttempts.get()) / generatedMarkers.get());
             for (int i = layout.markerSections.length - 1; i >= 0; i--) {
                 float height = -1;
                 for (LayoutMarker lm : layout.markerSections[i]) {
@@ -153,14 +169,29 @@ public class Level implements Deletable {
                     break;
                 }
             }
-            System.out.println("generated markers: " + generatedMarkers);
+            System.out.println("generated markers: " + generatedMarkers.get());
+            System.out.println("connected texture updates per generated marker: " + ((float) connectedTextureUpdates.get()) / generatedMarkers.get()
+                    + (INCREMENTAL_BLOCK_UPDATES ? " (incremental)" : " (section sweep)"));
+            System.out.println("connected texture conditions evaluated: " + evaluatedConnectedTextureConditions.get() + ", looked up: " + lookedUpConnectedTextureConditions.get());
+            System.out.println("registered block tickables: " + tickRegistry.getRegisteredCount());
+            System.out.println("animated block tickables: " + tickRegistry.getAnimatedCount());
+            System.out.println("active block tickables: " + tickRegistry.getActiveCount());
+            System.out.println("static block chunks: " + staticBlocks.getAllocatedChunkCount() + " / " + staticBlocks.getTotalChunkCount());
+            System.out.println("static block memory: " + staticBlocks.getMemoryUsage() / 1024 + " KB (" + staticBlocks.getDenseMemoryUsage() / 1024 + " KB if fully allocated)");
+            System.out.println("neighbour mask memory: " + staticBlocks.getNeighbourMaskMemoryUsage() / 1024 + " KB");
             System.out.println("---------------------------------------------------------------");
-            updatePool.shutdown();
-            try {
-                updatePool.awaitTermination(30, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
+            if (CollisionHandler.DEBUG_SOLVER_BENCHMARK)
+                CollisionBenchmark.run(this);
+            if (DEBUG_WRITE_STRESS)
+                LevelWriteStress.run(this);
+            if (ConnectedTexture.DEBUG_EXPRESSION_BENCHMARK)
+                CTExpressionBenchmark.run(this);
+            if (Expression.DEBUG_DIFFERENTIAL_TEST)
+                ExpressionDifferentialTest.run(this);
+            if (GameRenderer.DEBUG_RENDER_BENCHMARK)
+                RenderBenchmark.run(this);
+            if (AssetManager.DEBUG_BLIT_BENCHMARK)
+                BlitBenchmark.run(this);
             doneGenerating.set(true);
         });
         generationThread.start();
@@ -200,7 +231,21 @@ public class Level implements Deletable {
     public BlockLike getBlock(ObjectLayer layer, int x, int y) {
         if (x < 0 || x >= Main.BLOCKS_X || y < 0 || y >= maximumHeight || !layer.addToStatic)
             return null;
-        return staticBlocks.get(layer)[x][y];
+        return staticBlocks.get(layer, x, y);
+    }
+
+    /*
+     * Which of the 8 neighbours of a cell have a block on each layer, see StaticBlockStore. Neighbours
+     * outside the level count as blocks on every layer, the same as they do for the existsBlock condition.
+     * The cell must be within the level.
+     */
+    public long getNeighbourMask(int x, int y) {
+        long mask = staticBlocks.getNeighbourMask(x, y);
+        for (int i = 0; i < 8; i++) {
+            if (outOfBounds(x + StaticBlockStore.NEIGHBOUR_X[i], y + StaticBlockStore.NEIGHBOUR_Y[i]))
+                mask |= 0x0101010101010101L << i;
+        }
+        return mask;
     }
 
     public boolean outOfBounds(int x, int y) {
@@ -215,29 +260,42 @@ public class Level implements Deletable {
         return outOfBounds(pos.x, pos.y);
     }
 
-    public synchronized void addBlocks(boolean registerCollision, boolean registerProcedural, BlockLike... blockLikes) {
+    /*
+     * Blocks are added and removed by the procedural generator while the level is being ticked. Rather
+     * than locking the whole level, replacing a static block only locks the section that it's in, so
+     * the generator only ever waits for writes to the same section. The collision handler and the tick
+     * registry handle their own locking.
+     */
+    public void addBlocks(boolean registerCollision, boolean registerProcedural, BlockLike... blockLikes) {
         if (registerCollision)
             collisionHandler.register(blockLikes);
         if (registerProcedural)
             collisionHandler.registerProcedural(blockLikes);
         for (BlockLike b : blockLikes) {
-            if (b.getLayer().addToStatic) {
-                BlockLike block = staticBlocks.get(b.getLayer())[((int) b.pos.x)][((int) b.pos.y)];
-                if (block != null)
-                    removeBlocks(registerCollision, block);
-                staticBlocks.get(b.getLayer())[((int) b.pos.x)][((int) b.pos.y)] = b;
-                allStaticBlocks[yPosToSection(b.pos.y)].add(b);
-            }
+            if (b.getLayer().addToStatic)
+                replaceStaticBlock(registerCollision, b);
             if (b.getLayer().addToDynamic)
                 dynamicBlocks.add(b);
         }
     }
 
-    public synchronized void removeBlocks(boolean registerCollision, BlockLike... blockLikes) {
+    private BlockLike replaceStaticBlock(boolean registerCollision, BlockLike b) {
+        int x = (int) b.pos.x, y = (int) b.pos.y;
+        synchronized (staticBlocks.lockFor(y)) {
+            BlockLike block = staticBlocks.get(b.getLayer(), x, y);
+            if (block != null)
+                removeBlocks(registerCollision, block);
+            staticBlocks.set(b.getLayer(), x, y, b);
+            markDirty(x, y);
+            return block;
+        }
+    }
+
+    public void removeBlocks(boolean registerCollision, BlockLike... blockLikes) {
         for (BlockLike b : blockLikes) {
             if (b.getLayer().addToStatic) {
-                staticBlocks.get(b.getLayer())[((int) b.pos.x)][((int) b.pos.y)] = null;
-                allStaticBlocks[yPosToSection(b.pos.y)].remove(b);
+                staticBlocks.set(b.getLayer(), ((int) b.pos.x), ((int) b.pos.y), null);
+                markDirty(((int) b.pos.x), ((int) b.pos.y));
             }
             if (b.getLayer().addToDynamic)
                 dynamicBlocks.remove(b);
@@ -251,7 +309,7 @@ public class Level implements Deletable {
     //The procedural generator needs to know if it has overwritten a block in case the generation
     //needs to be reverted. This does not apply if the overwritten block is a part of the current
     //generation
-    public synchronized BlockLike addProceduralBlock(boolean registerCollision, boolean registerProcedural, BlockLike b) {
+    public BlockLike addProceduralBlock(boolean registerCollision, boolean registerProcedural, BlockLike b) {
         if (outOfBounds(b.pos))
             return null;
         if (registerCollision)
@@ -259,45 +317,87 @@ public class Level implements Deletable {
         if (registerProcedural)
             collisionHandler.registerProcedural(b);
         BlockLike removed = null;
-        if (b.getLayer().addToStatic) {
-            BlockLike block = staticBlocks.get(b.getLayer())[((int) b.pos.x)][((int) b.pos.y)];
-            if (block != null) {
-                removeBlocks(registerCollision, block);
-                removed = block;
-            }
-            staticBlocks.get(b.getLayer())[((int) b.pos.x)][((int) b.pos.y)] = b;
-            allStaticBlocks[yPosToSection(b.pos.y)].add(b);
-        }
+        if (b.getLayer().addToStatic)
+            removed = replaceStaticBlock(registerCollision, b);
         if (b.getLayer().addToDynamic)
             dynamicBlocks.add(b);
         return removed;
     }
 
+    //Every static block is updated, in the same batched pass as the blocks changed by generation
     public void updateBlocks(RenderEvent type) {
-        new Thread(() -> {
-            long time = System.currentTimeMillis();
-            for (Set<BlockLike> section : allStaticBlocks) {
-                for (BlockLike b : section) {
-                    b.renderUpdateBlock(type);
-                }
-            }
-            System.out.println("block update time: " + ((System.currentTimeMillis() - time) / 1000f));
-        }).start();
+        for (int i = 0; i < dirtyCells.length(); i++) {
+            dirtyCells.set(i, -1L);
+        }
+        updatePool.submit(() -> updateDirtyBlocks(type));
     }
 
     public void updateBlocks(RenderEvent type, LayoutMarker lm) {
+        if (INCREMENTAL_BLOCK_UPDATES) {
+            updatePool.submit(() -> updateDirtyBlocks(type));
+            return;
+        }
         updatePool.submit(() -> {
             StaticHitBox updateBounds = lm.boundForBounds(BoundType.BLOCKS).expand(2);
             for (int i = yPosToSection(updateBounds.getBottom()); i <= yPosToSection(updateBounds.getTop()); i++) {
-                Set<BlockLike> sectionSet = allStaticBlocks[i];
-                for (BlockLike b : sectionSet) {
-                    b.renderUpdateBlock(type);
-                }
+                staticBlocks.forEachInSection(i, b -> b.renderUpdateBlock(type));
             }
         });
     }
 
-    private ExecutorService updatePool;
+    /*
+     * A connected texture only depends on the blocks next to it, on any layer, so when a static block is
+     * placed or removed, only the blocks in the 3x3 cells around it need to be updated. Changed cells are
+     * collected here as one bit per cell, at y * BLOCKS_X + x, and the blocks in them are updated in one
+     * pass once a marker has generated. A cell changed several times, by overlapping structures or by
+     * generation attempts that were reverted, is still only updated once.
+     *
+     * The bits of a word are cleared before the blocks in its cells are updated, so a cell changed again
+     * during the update is marked again and updated by the next pass.
+     */
+    private final AtomicLongArray dirtyCells;
+
+    private void markDirty(int x, int y) {
+        if (!INCREMENTAL_BLOCK_UPDATES)
+            return;
+        for (int dx = -1; dx <= 1; dx++) {
+            for (int dy = -1; dy <= 1; dy++) {
+                if (!outOfBounds(x + dx, y + dy)) {
+                    int cell = (y + dy) * Main.BLOCKS_X + x + dx;
+                    long bit = 1L << cell;
+                    if ((dirtyCells.get(cell >> 6) & bit) == 0)
+                        dirtyCells.getAndUpdate(cell >> 6, word -> word | bit);
+                }
+            }
+        }
+    }
+
+    public void updateDirtyBlocks(RenderEvent type) {
+        int cells = Main.BLOCKS_X * maximumHeight;
+        for (int i = 0; i < dirtyCells.length(); i++) {
+            if (dirtyCells.get(i) == 0)
+                continue;
+            long word = dirtyCells.getAndSet(i, 0);
+            while (word != 0) {
+                int cell = (i << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                //The bits past the last cell are set when every cell is marked
+                if (cell >= cells)
+                    break;
+                int x = cell % Main.BLOCKS_X, y = cell / Main.BLOCKS_X;
+                for (ObjectLayer layer : ObjectLayer.values()) {
+                    if (!layer.addToStatic)
+                        continue;
+                    BlockLike b = staticBlocks.get(layer, x, y);
+                    if (b != null)
+                        b.renderUpdateBlock(type);
+                }
+            }
+        }
+    }
+
+    //Replaced once generation has waited for its queued updates, as a shut down pool takes no new ones
+    private volatile ExecutorService updatePool = Executors.newCachedThreadPool();
 
     public void addRegion(String name, int startsAt) {
         regionLayout.put(startsAt, RegionType.getRegionType(name));
@@ -338,24 +438,14 @@ public class Level implements Deletable {
                 throw new RuntimeException(e);
             }
         }
-        for (ObjectLayer layer : ObjectLayer.values()) {
-            if (!layer.addToStatic)
-                continue;
-            BlockLike[][] blockLayer = staticBlocks.get(layer);
-            for (int i = 0; i < Main.BLOCKS_X; i++) {
-                for (int j = 0; j < maximumHeight; j++) {
-                    BlockLike b = blockLayer[i][j];
-                    if (b != null) {
-                        b.delete();
-                    }
-                    blockLayer[i][j] = null;
-                }
-            }
-        }
+        staticBlocks.forEach(BlockLike::delete);
+        staticBlocks.clear();
         dynamicBlocks.forEach(BlockLike::delete);
         dynamicBlocks.clear();
         inputHandler.delete();
         collisionHandler.delete();
+        physicsStore.delete();
+        tickRegistry.delete();
         gameRenderer.delete();
     }
 }
@@ -0,0 +1,123 @@
+package level;
+
+import foundation.Main;
+import foundation.math.ObjPos;
+import level.objects.BlockLike;
+import loader.AssetManager;
+import physics.CollisionObject;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+public abstract class LevelWriteStress {
+    /*
+     * Checks that blocks can be written to the level from several threads at once while the level is
+     * being ticked. Each writer thread is given its own empty section, which it repeatedly fills with
+     * blocks and clears again, the same way that the procedural generator places and reverts blocks.
+     * The game's collision ticks keep running the whole time, so the writes also race against the solver.
+     *
+     * Once the writers are done, each section is filled one last time, and every position is checked
+     * to hold the expected block in both the static block store and the collision handler. The blocks
+     * are then removed, and every position is checked to be empty again. Fails if any position doesn't
+     * hold what it should, and is skipped if the level doesn't have two empty sections to write to.
+     */
+    private static final String BLOCK = "stone_grey";
+    private static final int ROUNDS = 20;
+
+    //Returns whether every position held the expected block, or true if skipped
+    public static boolean run(Level level) {
+        int threadCount = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+        int[] sections = findEmptySections(level, threadCount);
+        if (sections.length < 2) {
+            System.out.println("level write stress skipped, not enough empty sections");
+            return true;
+        }
+        AtomicLong writes = new AtomicLong();
+        BlockLike[][] placed = new BlockLike[sections.length][];
+        Thread[] threads = new Thread[sections.length];
+        long ticksBefore = level.collisionHandler.getSolverTicks();
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < sections.length; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> {
+                for (int round = 0; round < ROUNDS; round++) {
+                    BlockLike[] blocks = fillSection(level, sections[index]);
+                    writes.addAndGet(blocks.length);
+                    if (round == ROUNDS - 1) {
+                        placed[index] = blocks;
+                        break;
+                    }
+                    for (BlockLike b : blocks) {
+                        level.removeBlocks(true, b);
+                    }
+                    writes.addAndGet(blocks.length);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        long writeTime = System.currentTimeMillis() - time;
+        long ticks = level.collisionHandler.getSolverTicks() - ticksBefore;
+
+        boolean consistent = true;
+        for (BlockLike[] blocks : placed) {
+            for (BlockLike b : blocks) {
+                int x = (int) b.pos.x, y = (int) b.pos.y;
+                CollisionObject object = level.collisionHandler.getObjectAt(x + 0.5f, y + 0.5f);
+                if (level.getBlock(b.getLayer(), x, y) != b || object != b)
+                    consistent = false;
+            }
+        }
+        for (BlockLike[] blocks : placed) {
+            for (BlockLike b : blocks) {
+                int x = (int) b.pos.x, y = (int) b.pos.y;
+                ObjectLayer layer = b.getLayer();
+                level.removeBlocks(true, b);
+                if (level.getBlock(layer, x, y) != null || level.collisionHandler.getObjectAt(x + 0.5f, y + 0.5f) != null)
+                    consistent = false;
+            }
+        }
+
+        System.out.println("-------------------[ Level write stress ]-------------------");
+        System.out.println("writer threads: " + sections.length);
+        System.out.println("block writes: " + writes.get());
+        System.out.println("write time: " + (writeTime / 1000f));
+        System.out.println("writes per second: " + (writes.get() * 1000 / Math.max(1, writeTime)));
+        System.out.println("collision ticks during writes: " + ticks);
+        System.out.println("consistent: " + consistent);
+        System.out.println("result: " + (consistent ? "PASSED" : "FAILED"));
+        System.out.println("------------------------------------------------------------");
+        return consistent;
+    }
+
+    private static BlockLike[] fillSection(Level level, int section) {
+        BlockLike[] blocks = new BlockLike[Main.BLOCKS_X * Level.SECTION_SIZE];
+        for (int y = 0; y < Level.SECTION_SIZE; y++) {
+            for (int x = 0; x < Main.BLOCKS_X; x++) {
+                BlockLike b = AssetManager.createBlock(BLOCK, new ObjPos(x, section * Level.SECTION_SIZE + y), level);
+                level.addBlocks(true, false, b);
+                blocks[y * Main.BLOCKS_X + x] = b;
+            }
+        }
+        return blocks;
+    }
+
+    //Sections near the top of the level are used first, as that's where the level is most likely to be empty
+    private static int[] findEmptySections(Level level, int count) {
+        int[] sections = new int[count];
+        int found = 0;
+        for (int section = level.yPosToSection(level.maximumHeight - 1); section >= 0 && found < count; section--) {
+            boolean[] empty = {true};
+            level.staticBlocks.forEachInSection(section, b -> empty[0] = false);
+            if (empty[0])
+                sections[found++] = section;
+        }
+        return Arrays.copyOf(sections, found);
+    }
+}
@@ -0,0 +1,241 @@
+package level;
+
+import level.objects.BlockLike;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+public class StaticBlockStore {
+    /*
+     * Stores the static blocks of a level for each static object layer. The level is divided into square
+     * chunks, and a chunk's array is only allocated once a block is placed in it. Until then, and again
+     * once the last block in it has been removed, the chunk points to a shared empty chunk. Most of a
+     * level is empty sky, and most layers are only used in a few places, so only a fraction of the
+     * chunks ever get allocated.
+     *
+     * The chunk size is the same as the level section size, so that each row of chunks is exactly
+     * one level section.
+     *
+     * Writes lock the row of chunks that they're in, rather than the whole store, so that blocks can
+     * be placed in different sections at the same time. Reads don't lock at all.
+     */
+    public static final int CHUNK_SIZE = Level.SECTION_SIZE;
+    private static final int CHUNK_AREA = CHUNK_SIZE * CHUNK_SIZE;
+    //Never written to
+    private static final BlockLike[] EMPTY_CHUNK = new BlockLike[CHUNK_AREA];
+
+    //Indexed by layer ordinal, then by chunk
+    private final BlockLike[][][] chunks;
+    //The number of blocks in each chunk, so that we know when it can be freed
+    private final int[][] chunkBlockCounts;
+    private final int chunksX, chunksY;
+    private final AtomicInteger allocatedChunks = new AtomicInteger();
+    //One lock per row of chunks, shared by all layers
+    private final Object[] sectionLocks;
+
+    /*
+     * For every cell, which of its 8 neighbours have a static block, on each layer. Bits layer.ordinal() * 8
+     * to layer.ordinal() * 8 + 7 are the neighbours on that layer, in the order of NEIGHBOUR_X and NEIGHBOUR_Y.
+     * Connected textures use these masks instead of looking up each neighbour.
+     *
+     * Placing a block sets its bit in each of its neighbours' masks, and removing it clears the bit again.
+     * The neighbours can be in the row of chunks above or below, which is guarded by a different lock, so
+     * the masks are updated atomically instead. Setting and clearing bits doesn't depend on the order that
+     * it happens in, so the masks don't need to be locked together with the blocks.
+     *
+     * Mask chunks are allocated the first time a bit is set in them, and are kept afterwards.
+     */
+    public static final int[] NEIGHBOUR_X = {-1, 0, 1, -1, 1, -1, 0, 1}, NEIGHBOUR_Y = {-1, -1, -1, 0, 0, 1, 1, 1};
+    private final AtomicReferenceArray<AtomicLongArray> neighbourMasks;
+    private final int width, height;
+
+    public StaticBlockStore(int width, int height) {
+        chunksX = (width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        chunksY = (height + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        this.width = width;
+        this.height = height;
+        neighbourMasks = new AtomicReferenceArray<>(chunksX * chunksY);
+        ObjectLayer[] layers = ObjectLayer.values();
+        chunks = new BlockLike[layers.length][][];
+        chunkBlockCounts = new int[layers.length][];
+        for (ObjectLayer layer : layers) {
+            if (!layer.addToStatic)
+                continue;
+            BlockLike[][] layerChunks = new BlockLike[chunksX * chunksY][];
+            for (int i = 0; i < layerChunks.length; i++) {
+                layerChunks[i] = EMPTY_CHUNK;
+            }
+            chunks[layer.ordinal()] = layerChunks;
+            chunkBlockCounts[layer.ordinal()] = new int[chunksX * chunksY];
+        }
+        sectionLocks = new Object[chunksY];
+        for (int i = 0; i < chunksY; i++) {
+            sectionLocks[i] = new Object();
+        }
+    }
+
+    //The lock guarding the row of chunks containing this y position. Holding it allows a block to be
+    //read and then replaced without another thread placing a block in between. Positions outside the
+    //level are clamped into the top or bottom row
+    public Object lockFor(int y) {
+        return sectionLocks[Math.max(0, Math.min(chunksY - 1, y / CHUNK_SIZE))];
+    }
+
+    //Coordinates must be within the level
+    public BlockLike get(ObjectLayer layer, int x, int y) {
+        return chunks[layer.ordinal()][chunkIndex(x, y)][indexInChunk(x, y)];
+    }
+
+    //Places the block, or removes the existing block if it's null. Returns the previous block at that position
+    public BlockLike set(ObjectLayer layer, int x, int y, BlockLike b) {
+        synchronized (lockFor(y)) {
+            return setLocked(layer, x, y, b);
+        }
+    }
+
+    private BlockLike setLocked(ObjectLayer layer, int x, int y, BlockLike b) {
+        BlockLike[][] layerChunks = chunks[layer.ordinal()];
+        int chunkIndex = chunkIndex(x, y), i = indexInChunk(x, y);
+        BlockLike[] chunk = layerChunks[chunkIndex];
+        BlockLike previous = chunk[i];
+        if (b == null) {
+            if (previous == null)
+                return null;
+            chunk[i] = null;
+            updateNeighbourMasks(layer, x, y, false);
+            if (--chunkBlockCounts[layer.ordinal()][chunkIndex] == 0) {
+                layerChunks[chunkIndex] = EMPTY_CHUNK;
+                allocatedChunks.decrementAndGet();
+            }
+            return previous;
+        }
+        if (chunk == EMPTY_CHUNK) {
+            chunk = new BlockLike[CHUNK_AREA];
+            layerChunks[chunkIndex] = chunk;
+            allocatedChunks.incrementAndGet();
+        }
+        chunk[i] = b;
+        if (previous == null) {
+            chunkBlockCounts[layer.ordinal()][chunkIndex]++;
+            updateNeighbourMasks(layer, x, y, true);
+        }
+        return previous;
+    }
+
+    private void updateNeighbourMasks(ObjectLayer layer, int x, int y, boolean placed) {
+        for (int i = 0; i < 8; i++) {
+            int nx = x + NEIGHBOUR_X[i], ny = y + NEIGHBOUR_Y[i];
+            if (nx < 0 || nx >= width || ny < 0 || ny >= height)
+                continue;
+            //The block is in the opposite direction when seen from the neighbour
+            long bit = 1L << (layer.ordinal() * 8 + 7 - i);
+            int chunkIndex = chunkIndex(nx, ny);
+            AtomicLongArray masks = neighbourMasks.get(chunkIndex);
+            if (masks == null) {
+                if (!placed)
+                    continue;
+                neighbourMasks.compareAndSet(chunkIndex, null, new AtomicLongArray(CHUNK_AREA));
+                masks = neighbourMasks.get(chunkIndex);
+            }
+            if (placed)
+                masks.getAndAccumulate(indexInChunk(nx, ny), bit, (m, b) -> m | b);
+            else
+                masks.getAndAccumulate(indexInChunk(nx, ny), bit, (m, b) -> m & ~b);
+        }
+    }
+
+    //Coordinates must be within the level
+    public long getNeighbourMask(int x, int y) {
+        AtomicLongArray masks = neighbourMasks.get(chunkIndex(x, y));
+        return masks == null ? 0 : masks.get(indexInChunk(x, y));
+    }
+
+    //Iterates all static blocks in a level section, in all layers
+    public void forEachInSection(int section, Consumer<BlockLike> action) {
+        if (section < 0 || section >= chunksY)
+            return;
+        for (BlockLike[][] layerChunks : chunks) {
+            if (layerChunks == null)
+                continue;
+            for (int chunkX = 0; chunkX < chunksX; chunkX++) {
+                BlockLike[] chunk = layerChunks[section * chunksX + chunkX];
+                if (chunk == EMPTY_CHUNK)
+                    continue;
+                for (BlockLike b : chunk) {
+                    if (b != null)
+                        action.accept(b);
+                }
+            }
+        }
+    }
+
+    public void forEach(Consumer<BlockLike> action) {
+        for (int i = 0; i < chunksY; i++) {
+            forEachInSection(i, action);
+        }
+    }
+
+    public void clear() {
+        for (int chunkY = 0; chunkY < chunksY; chunkY++) {
+            synchronized (sectionLocks[chunkY]) {
+                for (int layer = 0; layer < chunks.length; layer++) {
+                    if (chunks[layer] == null)
+                        continue;
+                    for (int i = chunkY * chunksX; i < (chunkY + 1) * chunksX; i++) {
+                        if (chunks[layer][i] != EMPTY_CHUNK)
+                            allocatedChunks.decrementAndGet();
+                        chunks[layer][i] = EMPTY_CHUNK;
+                        chunkBlockCounts[layer][i] = 0;
+                    }
+                }
+                for (int i = chunkY * chunksX; i < (chunkY + 1) * chunksX; i++) {
+                    neighbourMasks.set(i, null);
+                }
+            }
+        }
+    }
+
+    public int getAllocatedChunkCount() {
+        return allocatedChunks.get();
+    }
+
+    public int getTotalChunkCount() {
+        int layers = 0;
+        for (BlockLike[][] layerChunks : chunks) {
+            if (layerChunks != null)
+                layers++;
+        }
+        return layers * chunksX * chunksY;
+    }
+
+    //Approximate size of the block references stored, in bytes, assuming compressed references and a
+    //16 byte array header. Does not include the blocks themselves
+    public long getMemoryUsage() {
+        return getTotalChunkCount() * 4L + (long) allocatedChunks.get() * (16 + CHUNK_AREA * 4L);
+    }
+
+    //Approximate size of the allocated neighbour mask chunks, in bytes
+    public long getNeighbourMaskMemoryUsage() {
+        long size = neighbourMasks.length() * 4L;
+        for (int i = 0; i < neighbourMasks.length(); i++) {
+            if (neighbourMasks.get(i) != null)
+                size += 32 + CHUNK_AREA * 8L;
+        }
+        return size;
+    }
+
+    //What the same blocks would take up if every chunk was allocated
+    public long getDenseMemoryUsage() {
+        return getTotalChunkCount() * (4L + 16 + CHUNK_AREA * 4L);
+    }
+
+    private int chunkIndex(int x, int y) {
+        return (y / CHUNK_SIZE) * chunksX + x / CHUNK_SIZE;
+    }
+
+    private static int indexInChunk(int x, int y) {
+        return (y % CHUNK_SIZE) * CHUNK_SIZE + x % CHUNK_SIZE;
+    }
+}
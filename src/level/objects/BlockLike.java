@@ -41,8 +41,7 @@ public abstract class BlockLike implements RegisteredTickable, BoundedRenderable
     //init MUST be called after object creation
     public BlockLike init(RenderGameElement renderElement) {
         this.renderElement = renderElement;
-        if (blockRequiresTick())
-            registerTickable();
+        level.tickRegistry.register(this);
         zOrder = level.gameRenderer.getNextZOrder();
         level.gameRenderer.register(this);
         return this;
@@ -67,6 +66,8 @@ public abstract class BlockLike implements RegisteredTickable, BoundedRenderable
 
     public synchronized void renderUpdateBlock(RenderEvent type) {
         renderElement.onEvent(new RenderBlockUpdate(type, this));
+        if (level != null)
+            level.gameRenderer.invalidateStatic(this);
     }
 
     public BlockLike addProperty(String name, Object value) {
@@ -93,8 +94,8 @@ public abstract class BlockLike implements RegisteredTickable, BoundedRenderable
 
     @Override
     public void delete() {
+        level.tickRegistry.remove(this);
         renderElement.delete();
-        removeTickable();
         level.gameRenderer.remove(this);
         if (hitBox instanceof Deletable d)
             d.delete();
@@ -1,6 +1,7 @@
 package level.objects;
 
 import foundation.Direction;
+import foundation.Main;
 import foundation.MainPanel;
 import foundation.VelocityHandler;
 import foundation.math.MathUtil;
@@ -10,16 +11,26 @@ import level.ObjectLayer;
 import network.NetworkState;
 import physics.*;
 import render.event.RenderEvent;
+import render.renderables.RenderGameElement;
 
 public abstract class PhysicsObject extends BlockLike {
     public static final float BOUNCE_THRESHOLD = 2;
 
     public VelocityHandler velocity = new VelocityHandler(), previousVelocity = new VelocityHandler();
     public Constraints constraints = new Constraints(), previousConstraints = new Constraints();
+    //The two Constraints objects that constraints alternates between each tick, so that
+    //the constraints from the previous tick remain intact while the new ones are computed
+    private final Constraints[] constraintBuffers = new Constraints[]{constraints, previousConstraints};
     public ObjPos prevPos;
+    //The id of this object in the level's physics store, or -1 if the object does its own movement integration
+    public int bodyID = -1;
     public ObjPos serverPos = new ObjPos();
     private boolean previouslyFalling = false;
     public final float mass;
+    //The position at the end of the last two ticks, which frames interpolate between. Written by the tick
+    //thread and read by the render thread, only while holding this object's lock, so that a frame never
+    //gets one tick's x and another tick's y
+    private float renderPrevX, renderPrevY, renderX, renderY;
 
     public static final ObjPos DEFAULT_GRAVITY = new ObjPos(0, -30);
     public static final float EXP_X_DECAY = 3f, EXP_Y_DECAY = .5f, LINEAR_X_DECAY = 1.5f;
@@ -28,6 +39,23 @@ public abstract class PhysicsObject extends BlockLike {
         super(pos, name, level);
         prevPos = pos.copy();
         this.mass = mass;
+        renderX = renderPrevX = pos.x;
+        renderY = renderPrevY = pos.y;
+    }
+
+    //Called once at the end of each tick, at the same time as the camera is moved, see MainPanel.tick
+    public synchronized void updateRenderPos() {
+        renderPrevX = renderX;
+        renderPrevY = renderY;
+        renderX = pos.x;
+        renderY = pos.y;
+    }
+
+    //Where the object is drawn, between its last two positions in the same way as the camera, so that the
+    //object moves smoothly with the camera instead of jumping once per tick
+    public synchronized ObjPos getRenderPos() {
+        float alpha = Main.TICK.getInterpolationAlpha();
+        return new ObjPos(MathUtil.lerp(renderPrevX, renderX, alpha), MathUtil.lerp(renderPrevY, renderY, alpha));
     }
 
     public void applyImpulse(ObjPos impulse) {
@@ -57,32 +85,72 @@ public abstract class PhysicsObject extends BlockLike {
         if (constraints.is(Direction.DOWN) && !previousConstraints.onceConstrainedTo(Direction.DOWN)) {
             renderElement.onEvent(RenderEvent.ON_BLOCK_LAND);
         }
-        processMovement(deltaTime);
+        //With the physics store, the rest of the movement is done by the store for all objects at once
+        if (bodyID != -1 && PhysicsStore.isEnabled())
+            level.physicsStore.setFriction(bodyID, beginMovement(deltaTime));
+        else
+            processMovement(deltaTime);
         previousConstraints = constraints;
     }
 
+    @Override
+    public BlockLike init(RenderGameElement renderElement) {
+        super.init(renderElement);
+        if (PhysicsStore.USE_PHYSICS_STORE)
+            level.physicsStore.add(this);
+        return this;
+    }
+
+    @Override
+    public void delete() {
+        level.physicsStore.remove(this);
+        super.delete();
+    }
+
     public static final float MAX_VELOCITY = 30;
 
     public void processMovement(float deltaTime) {
-        prevPos = pos.copy();
-
-        if (MainPanel.networkState == NetworkState.CLIENT) {
-            pos.tickLerpTo(deltaTime, 3, serverPos);
-            pos.tickExponentialTo(deltaTime, 20, serverPos);
-            if (pos.distance(serverPos) > 0.5f) {
-                pos = serverPos;
-            }
-        }
+        float f = beginMovement(deltaTime);
+        integrateMovement(pos, velocity, getGravity(), f, deltaTime);
+    }
 
-        float f = computeFriction();
+    //The movement over one tick, without collisions, with f being the friction multiplier
+    public static void integrateMovement(ObjPos pos, VelocityHandler velocity, ObjPos gravity, float f, float deltaTime) {
         velocity.tickExponentialXDecay(deltaTime, EXP_X_DECAY * f);
         velocity.tickExponentialYDecay(deltaTime, EXP_Y_DECAY);
         velocity.tickLinearXDecay(deltaTime, LINEAR_X_DECAY * f);
-        velocity.applyAcceleration(getGravity(), deltaTime);
+        velocity.applyAcceleration(gravity, deltaTime);
         //All velocity processing must happen BEFORE this point so that the new velocity
         //can be applied on the same tick
         velocity.clamp(-MAX_VELOCITY, MAX_VELOCITY, -MAX_VELOCITY, MAX_VELOCITY);
-        pos.add(velocity.copy().multiply(deltaTime));
+        pos.add(velocity.x * deltaTime, velocity.y * deltaTime);
+    }
+
+    //The part of the movement that depends on the object itself, done before the velocity is
+    //integrated. Returns the friction multiplier to use for the velocity decay
+    public float beginMovement(float deltaTime) {
+        applyMovementInput(deltaTime);
+        //prevPos is set to the same object as pos if the collision handler fails to solve a tick
+        if (prevPos == pos)
+            prevPos = new ObjPos();
+        prevPos.set(pos);
+
+        if (MainPanel.networkState == NetworkState.CLIENT)
+            followServerPos(deltaTime);
+        return computeFriction();
+    }
+
+    //On a client, objects are pulled towards where the server last had them
+    protected void followServerPos(float deltaTime) {
+        pos.tickLerpTo(deltaTime, 3, serverPos);
+        pos.tickExponentialTo(deltaTime, 20, serverPos);
+        if (pos.distance(serverPos) > 0.5f) {
+            pos = serverPos;
+        }
+    }
+
+    //Used by objects that control their own velocity, called at the start of each tick's movement
+    protected void applyMovementInput(float deltaTime) {
     }
 
     @Override
@@ -102,8 +170,11 @@ public abstract class PhysicsObject extends BlockLike {
 
     @Override
     public void dynamicPreTick(float deltaTime) {
-        constraints = new Constraints();
-        previousVelocity = velocity.copyAsVelocityHandler();
+        constraints = previousConstraints == constraintBuffers[0] ? constraintBuffers[1] : constraintBuffers[0];
+        constraints.clear();
+        if (previousVelocity == velocity)
+            previousVelocity = new VelocityHandler();
+        previousVelocity.set(velocity);
     }
 
     @Override
@@ -114,7 +185,7 @@ public abstract class PhysicsObject extends BlockLike {
         float blockBelowFriction = 0;
         int blockBelowCount = 0;
         for (int i = 0; i < 5; i++) {
-            CollisionObject objectBelow = level.collisionHandler.getObjectAt(new ObjPos(MathUtil.lerp(hitBox.getLeft(), hitBox.getRight(), MathUtil.normalise(0, 4, i)), hitBox.getBottom() - 0.05f));
+            CollisionObject objectBelow = level.collisionHandler.getObjectAt(MathUtil.lerp(hitBox.getLeft(), hitBox.getRight(), MathUtil.normalise(0, 4, i)), hitBox.getBottom() - 0.05f);
             if (objectBelow != null) {
                 blockBelowCount++;
                 blockBelowFriction += objectBelow.getFriction();
@@ -129,17 +200,19 @@ public abstract class PhysicsObject extends BlockLike {
         float blockBounciness = 0;
         int blockCount = 0;
         for (int i = 0; i < 5; i++) {
-            ObjPos samplePos = switch (d) {
-                case DOWN ->
-                        new ObjPos(MathUtil.lerp(hitBox.getLeft(), hitBox.getRight(), MathUtil.normalise(0, 4, i)), hitBox.getBottom() - 0.05f);
-                case UP ->
-                        new ObjPos(MathUtil.lerp(hitBox.getLeft(), hitBox.getRight(), MathUtil.normalise(0, 4, i)), hitBox.getTop() + 0.05f);
-                case LEFT ->
-                        new ObjPos(hitBox.getLeft() - 0.05f, MathUtil.lerp(hitBox.getBottom(), hitBox.getTop(), MathUtil.normalise(0, 4, i)));
-                case RIGHT ->
-                        new ObjPos(hitBox.getRight() + 0.05f, MathUtil.lerp(hitBox.getBottom(), hitBox.getTop(), MathUtil.normalise(0, 4, i)));
+            //Sampled without creating an ObjPos, as this is called by the collision solver on every bounce
+            float t = MathUtil.normalise(0, 4, i);
+            float x = switch (d) {
+                case DOWN, UP -> MathUtil.lerp(hitBox.getLeft(), hitBox.getRight(), t);
+                case LEFT -> hitBox.getLeft() - 0.05f;
+                case RIGHT -> hitBox.getRight() + 0.05f;
+            };
+            float y = switch (d) {
+                case DOWN -> hitBox.getBottom() - 0.05f;
+                case UP -> hitBox.getTop() + 0.05f;
+                case LEFT, RIGHT -> MathUtil.lerp(hitBox.getBottom(), hitBox.getTop(), t);
             };
-            CollisionObject object = level.collisionHandler.getObjectAt(samplePos);
+            CollisionObject object = level.collisionHandler.getObjectAt(x, y);
             if (object != null) {
                 blockCount++;
                 blockBounciness += object.getBounciness();
@@ -157,7 +230,7 @@ public abstract class PhysicsObject extends BlockLike {
         DynamicHitBox thisBox = ((DynamicHitBox) getHitBox());
         HitBox otherBox = other.getHitBox();
         if (other.getCollisionBehaviour() == CollisionBehaviour.IMMOVABLE) {
-            ObjPos overlap = thisBox.collisionOverlap(otherBox);
+            float overlapX = thisBox.collisionOverlapX(otherBox), overlapY = thisBox.collisionOverlapY(otherBox);
             if (velocity.x < 0) {
                 if (previousConstraints.is(Direction.LEFT) && previousConstraints.to(Direction.LEFT) == otherBox.getRight()) {
                     if (previousConstraints.to(Direction.DOWN) != otherBox.getTop() && previousConstraints.to(Direction.UP) != otherBox.getBottom()) {
@@ -196,15 +269,15 @@ public abstract class PhysicsObject extends BlockLike {
                     }
                 }
             }
-            if (Math.abs(overlap.y * velocity.x) < Math.abs(overlap.x * velocity.y)) {
+            if (Math.abs(overlapY * velocity.x) < Math.abs(overlapX * velocity.y)) {
                 //Cancel out velocity, but only if the velocity was facing toward the colliding hit box
-                if (Math.signum(overlap.y) == Math.signum(velocity.y) || velocity.y == 0) {
+                if (Math.signum(overlapY) == Math.signum(velocity.y) || velocity.y == 0) {
                     if (Math.abs(velocity.y) > BOUNCE_THRESHOLD) {
                         float computedBounciness = computeBounciness(velocity.y > 0 ? Direction.UP : Direction.DOWN);
                         velocity.y = -velocity.y * computedBounciness;
                     } else
                         velocity.y = 0;
-                    if (overlap.y < 0) {
+                    if (overlapY < 0) {
                         constraints.set(Direction.DOWN, otherBox.getTop(), otherBox);
                         if (constraints.box(Direction.LEFT, Direction.UP) == otherBox.getTop()) {
                             constraints.remove(Direction.LEFT);
@@ -226,19 +299,19 @@ public abstract class PhysicsObject extends BlockLike {
                         }
                     }
                 }
-                if (overlap.y < 0) {
+                if (overlapY < 0) {
                     pos.y = otherBox.getTop() + thisBox.down;
                 } else {
                     pos.y = otherBox.getBottom() - thisBox.up;
                 }
             } else {
-                if (Math.signum(overlap.x) == Math.signum(velocity.x) || velocity.x == 0) {
+                if (Math.signum(overlapX) == Math.signum(velocity.x) || velocity.x == 0) {
                     if (Math.abs(velocity.x) > BOUNCE_THRESHOLD) {
                         float computedBounciness = computeBounciness(velocity.x > 0 ? Direction.RIGHT : Direction.LEFT);
                         velocity.x = -velocity.x * computedBounciness;
                     } else
                         velocity.x = 0;
-                    if (overlap.x < 0) {
+                    if (overlapX < 0) {
                         constraints.set(Direction.LEFT, otherBox.getRight(), otherBox);
                         if (constraints.box(Direction.UP, Direction.RIGHT) == otherBox.getRight()) {
                             constraints.remove(Direction.UP);
@@ -260,7 +333,7 @@ public abstract class PhysicsObject extends BlockLike {
                         }
                     }
                 }
-                if (overlap.x < 0) {
+                if (overlapX < 0) {
                     pos.x = otherBox.getRight() + thisBox.left;
                 } else {
                     pos.x = otherBox.getLeft() - thisBox.right;
@@ -268,22 +341,22 @@ public abstract class PhysicsObject extends BlockLike {
             }
         } else {
             if (other instanceof PhysicsObject physicsObject) {
-                ObjPos overlap = thisBox.collisionOverlap(otherBox);
+                float overlapX = thisBox.collisionOverlapX(otherBox), overlapY = thisBox.collisionOverlapY(otherBox);
                 DynamicHitBox otherDBox = ((DynamicHitBox) otherBox);
                 float collisionYVelocity = velocity.y - physicsObject.velocity.y;
                 float collisionXVelocity = velocity.x - physicsObject.velocity.x;
                 //There are cases where we know that a collision is "incorrect" to calculate
                 //on the Y-axis, and we therefore want to calculate it on the X-axis. We also do the
                 //same if we detect an incorrect collision on the X-axis
-                boolean forceXCollision = Math.signum(overlap.y) != Math.signum(collisionYVelocity);
-                boolean forceYCollision = Math.signum(overlap.x) != Math.signum(collisionXVelocity);
-                boolean isYAxis = Math.abs(overlap.y * (collisionXVelocity + 0.05f)) < Math.abs(overlap.x * (collisionYVelocity + 0.05f));
+                boolean forceXCollision = Math.signum(overlapY) != Math.signum(collisionYVelocity);
+                boolean forceYCollision = Math.signum(overlapX) != Math.signum(collisionXVelocity);
+                boolean isYAxis = Math.abs(overlapY * (collisionXVelocity + 0.05f)) < Math.abs(overlapX * (collisionYVelocity + 0.05f));
                 if (!constraintsOnly) {
                     if (isYAxis) {
-                        if (forceXCollision && Math.abs(overlap.x * 100) < Math.abs(overlap.y))
+                        if (forceXCollision && Math.abs(overlapX * 100) < Math.abs(overlapY))
                             isYAxis = false;
                     } else {
-                        if (forceYCollision && Math.abs(overlap.y * 100) < Math.abs(overlap.x)) {
+                        if (forceYCollision && Math.abs(overlapY * 100) < Math.abs(overlapX)) {
                             isYAxis = true;
                         }
                     }
@@ -298,7 +371,7 @@ public abstract class PhysicsObject extends BlockLike {
                     System.out.println(physicsObject.constraints);
                     System.out.println(this);
                     System.out.println(physicsObject);
-                    System.out.println("overlap: " + overlap);
+                    System.out.println("overlap: " + overlapX + ", " + overlapY);
                     System.out.println("v this: " + velocity);
                     System.out.println("v other: " + physicsObject.velocity);
                     System.out.println("v x: " + collisionXVelocity);
@@ -309,9 +382,9 @@ public abstract class PhysicsObject extends BlockLike {
 
                 if (isYAxis) {
                     //Cancel out velocity, but only if the velocity was facing toward the colliding hit box
-                    boolean cancelVelocity = Math.signum(overlap.y) == Math.signum(collisionYVelocity);
+                    boolean cancelVelocity = Math.signum(overlapY) == Math.signum(collisionYVelocity);
 
-                    if (overlap.y < 0) {
+                    if (overlapY < 0) {
                         if (physicsObject.constraints.is(Direction.DOWN)) {
                             pos.y = otherBox.getTop() + thisBox.down;
                             if (cancelVelocity)
@@ -333,8 +406,8 @@ public abstract class PhysicsObject extends BlockLike {
                         } else if (!constraintsOnly) {
                             //We make sure that the objects are separated slightly further apart than necessary,
                             //because otherwise they could still intersect even after separation due to floating-point errors
-                            pos.subtractY(overlap.y * 0.501f);
-                            physicsObject.pos.subtractY(overlap.y * -0.501f);
+                            pos.subtractY(overlapY * 0.501f);
+                            physicsObject.pos.subtractY(overlapY * -0.501f);
                             if (cancelVelocity) {
                                 float v = (velocity.y * getMass() + physicsObject.velocity.y * physicsObject.getMass()) / (getMass() + physicsObject.getMass());
                                 velocity.y = v;
@@ -363,8 +436,8 @@ public abstract class PhysicsObject extends BlockLike {
                             if (PRINT_DEBUG_COLLISION)
                                 System.out.println("always snap 2");
                         } else if (!constraintsOnly) {
-                            pos.subtractY(overlap.y * 0.501f);
-                            physicsObject.pos.subtractY(overlap.y * -0.501f);
+                            pos.subtractY(overlapY * 0.501f);
+                            physicsObject.pos.subtractY(overlapY * -0.501f);
                             if (cancelVelocity) {
                                 float v = (velocity.y * getMass() + physicsObject.velocity.y * physicsObject.getMass()) / (getMass() + physicsObject.getMass());
                                 velocity.y = v;
@@ -375,8 +448,8 @@ public abstract class PhysicsObject extends BlockLike {
                         }
                     }
                 } else {
-                    boolean cancelVelocity = Math.signum(overlap.x) == Math.signum(collisionXVelocity);
-                    if (overlap.x < 0) {
+                    boolean cancelVelocity = Math.signum(overlapX) == Math.signum(collisionXVelocity);
+                    if (overlapX < 0) {
                         if (physicsObject.constraints.is(Direction.LEFT)) {
                             pos.x = otherBox.getRight() + thisBox.left;
                             if (cancelVelocity)
@@ -386,7 +459,7 @@ public abstract class PhysicsObject extends BlockLike {
                                 System.out.println(1);
                         } else if (constraints.is(Direction.RIGHT)) {
                             physicsObject.pos.x = thisBox.getLeft() - otherDBox.right;
-                            physicsObject.pos.subtractX(overlap.x * -1);
+                            physicsObject.pos.subtractX(overlapX * -1);
                             if (cancelVelocity)
                                 physicsObject.velocity.x = 0;
                             physicsObject.constraints.set(Direction.RIGHT, thisBox.getLeft());
@@ -398,8 +471,8 @@ public abstract class PhysicsObject extends BlockLike {
                             if (PRINT_DEBUG_COLLISION)
                                 System.out.println("always snap 1");
                         } else if (!constraintsOnly) {
-                            pos.subtractX(overlap.x * 0.501f);
-                            physicsObject.pos.subtractX(overlap.x * -0.501f);
+                            pos.subtractX(overlapX * 0.501f);
+                            physicsObject.pos.subtractX(overlapX * -0.501f);
                             if (cancelVelocity) {
                                 float v = (velocity.x * getMass() + physicsObject.velocity.x * physicsObject.getMass()) / (getMass() + physicsObject.getMass());
                                 velocity.x = v;
@@ -429,8 +502,8 @@ public abstract class PhysicsObject extends BlockLike {
                             if (PRINT_DEBUG_COLLISION)
                                 System.out.println("always snap 2");
                         } else if (!constraintsOnly) {
-                            pos.subtractX(overlap.x * 0.501f);
-                            physicsObject.pos.subtractX(overlap.x * -0.501f);
+                            pos.subtractX(overlapX * 0.501f);
+                            physicsObject.pos.subtractX(overlapX * -0.501f);
                             if (cancelVelocity) {
                                 float v = (velocity.x * getMass() + physicsObject.velocity.x * physicsObject.getMass()) / (getMass() + physicsObject.getMass());
                                 velocity.x = v;
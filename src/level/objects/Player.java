@@ -7,8 +7,11 @@ import foundation.input.InputHandler;
 import foundation.input.InputType;
 import foundation.math.ObjPos;
 import level.Level;
+import network.NetworkState;
+import network.PacketCodec;
 import network.PacketType;
 import network.PacketWriter;
+import network.PlayerPrediction;
 import render.event.RenderBlockUpdate;
 import render.event.RenderEvent;
 
@@ -34,6 +37,11 @@ public class Player extends PhysicsBlock {
 
     private boolean hasInput = false;
 
+    //Set on the client's own player, which is moved by the client instead of following the server
+    public PlayerPrediction prediction = null;
+    //On the server, the number of the last input handled from the client, and the ticks since then
+    public int lastInputSequence = -1, ticksSinceInput = 0;
+
     public Player(ObjPos pos, String name, float mass, float hitBoxUp, float hitBoxDown, float hitBoxLeft, float hitBoxRight, Level level) {
         super(pos, name, mass, hitBoxUp, hitBoxDown, hitBoxLeft, hitBoxRight, level);
     }
@@ -86,17 +94,28 @@ public class Player extends PhysicsBlock {
     }
 
     public static void sendMovementPacket(InputType type, InputEvent event) {
+        if (MainPanel.networkState != NetworkState.CLIENT)
+            return;
+        int sequence = MainPanel.client.prediction.nextInput();
         MainPanel.sendClientPacket(new PacketWriter(PacketType.PLAYER_MOVEMENT, false, w -> {
             try {
                 w.writeLong(System.currentTimeMillis());
                 PacketWriter.writeEnum(event, w);
+                type.write(w);
+                PacketCodec.writeVarInt(w, sequence);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            type.write(w);
         }));
     }
 
+    //Called on the server for inputs from the client
+    public void handleClientInput(InputEvent event, InputType<?> type, int sequence) {
+        handleInput(event, type);
+        lastInputSequence = sequence;
+        ticksSinceInput = 0;
+    }
+
     public void handleInput(InputEvent event, InputType type) {
         switch (event) {
             case MOVEMENT_UP -> {
@@ -184,7 +203,10 @@ public class Player extends PhysicsBlock {
     public float jumpTimer = 0;
 
     @Override
-    public void processMovement(float deltaTime) {
+    protected void applyMovementInput(float deltaTime) {
+        if (prediction != null)
+            prediction.record(pos, velocity);
+        ticksSinceInput++;
         if (jumpTimer > 0)
             jumpTimer = Math.max(0, jumpTimer - deltaTime);
 
@@ -199,18 +221,19 @@ public class Player extends PhysicsBlock {
             isLongJump = false;
         if (velocity.y < 0)
             isLongJump = false;
+        //Counteracts half of the gravity while the jump key is held
         if (isLongJump)
-            velocity.applyAcceleration(DEFAULT_GRAVITY.copy().divide(-2), deltaTime);
+            velocity.add(DEFAULT_GRAVITY.x / -2 * deltaTime, DEFAULT_GRAVITY.y / -2 * deltaTime);
 
-        ObjPos movement = new ObjPos();
         if (left && !right)
-            movement.addX(-1);
+            velocity.x -= MOVEMENT_ACCELERATION * deltaTime;
         if (!left && right)
-            movement.addX(1);
-        if (movement.length() > 0) {
-            movement.setLength(MOVEMENT_ACCELERATION);
-            applyAcceleration(movement, deltaTime);
-        }
-        super.processMovement(deltaTime);
+            velocity.x += MOVEMENT_ACCELERATION * deltaTime;
+    }
+
+    @Override
+    protected void followServerPos(float deltaTime) {
+        if (prediction == null)
+            super.followServerPos(deltaTime);
     }
 }
@@ -1,5 +1,6 @@
 package level.procedural;
 
+import foundation.math.RandomHandler;
 import level.Level;
 import level.procedural.generator.ProceduralGenerator;
 import level.procedural.jump.JumpSimGroup;
@@ -9,6 +10,7 @@ import level.procedural.marker.resolved.LMDResolvedElement;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.function.Consumer;
 
@@ -46,7 +48,8 @@ public class Layout {
         }
     }
 
-    public HashSet<LayoutMarker> qProceduralMarkers = new HashSet<>();
+    //Queued markers are generated in the order they were validated in, which keeps the generation deterministic
+    public LinkedHashSet<LayoutMarker> qProceduralMarkers = new LinkedHashSet<>();
 
     public void generateMarkers() {
         ArrayList<LayoutMarker> markers = new ArrayList<>();
@@ -63,13 +66,15 @@ public class Layout {
             }
         });
         markers.forEach(this::addProceduralLM);
+        //Each marker gets its own random streams, keyed by its position, so that the number of attempts
+        //needed by one marker doesn't change the random numbers that every marker after it gets
         while (!qProceduralMarkers.isEmpty()) {
-            HashSet<LayoutMarker> generatingMarkers = qProceduralMarkers;
-            qProceduralMarkers = new HashSet<>();
-            generatingMarkers.forEach(lm -> {
+            LinkedHashSet<LayoutMarker> generatingMarkers = qProceduralMarkers;
+            qProceduralMarkers = new LinkedHashSet<>();
+            generatingMarkers.forEach(lm -> level.randomHandler.runWithStream(RandomHandler.positionKey(lm.pos), () -> {
                 LMDResolvedElement data = ((LMDResolvedElement) lm.data);
                 data.gen.generateMarkers(lm, data.genType);
-            });
+            }));
         }
     }
 
@@ -84,7 +84,9 @@ public class BlockCollection {
         HashSet<ObjPos> blocks = new HashSet<>(blockPositions);
         HashSet<ObjPos> toBeGenerated = new HashSet<>();
         for (int i = 0; i < layers + 1; i++) {
-            HashMap<Integer, ObjPos> topLayer = new HashMap<>();
+            //Sorted by x, as a random number is drawn for each column in the last layer. With a HashMap, columns
+            //that share a bucket would be iterated in the order the blocks happened to be added in
+            TreeMap<Integer, ObjPos> topLayer = new TreeMap<>();
             blocks.forEach(pos -> {
                 int xPos = (int) pos.x;
                 if (!topLayer.containsKey(xPos))
@@ -7,7 +7,7 @@ import physics.StaticHitBox;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.function.Supplier;
+import java.util.function.DoubleSupplier;
 
 public class HorizontalStackData extends BlockCollection {
     public final ArrayList<Integer> left;
@@ -25,7 +25,7 @@ public class HorizontalStackData extends BlockCollection {
         });
     }
 
-    public static HorizontalStackData blockStackInward(int initialLeft, int initialRight, boolean inverted, Supplier<Double> random, FunctionalWeightedRandom<Integer, StackRandomData> inward) {
+    public static HorizontalStackData blockStackInward(int initialLeft, int initialRight, boolean inverted, DoubleSupplier random, FunctionalWeightedRandom<Integer, StackRandomData> inward) {
         ArrayList<Integer> left = new ArrayList<>(), right = new ArrayList<>();
         left.add(initialLeft);
         right.add(initialRight);
@@ -6,18 +6,19 @@ import foundation.math.ObjPos;
 import foundation.math.WeightedRandom;
 import physics.StaticHitBox;
 
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.function.BiConsumer;
-import java.util.function.Supplier;
+import java.util.function.DoubleSupplier;
 
 public class IslandCluster extends BlockCollection {
     public final HashSet<StaticHitBox> islandBounds = new HashSet<>();
     public final HashSet<StaticHitBox> expandedIslandBounds = new HashSet<>();
-    private final HashMap<HorizontalStackData, ObjPos> islands = new HashMap<>();
+    //Islands are generated in the order they were created in, so that overlapping blocks always end up the same
+    private final LinkedHashMap<HorizontalStackData, ObjPos> islands = new LinkedHashMap<>();
     public final int yOffset;
 
-    public IslandCluster(int maxDistance, int minIslands, int maxIslands, Supplier<Double> random, WeightedRandom<Integer> widthSupplier, FunctionalWeightedRandom<Integer, StackRandomData> weights) {
+    public IslandCluster(int maxDistance, int minIslands, int maxIslands, DoubleSupplier random, WeightedRandom<Integer> widthSupplier, FunctionalWeightedRandom<Integer, StackRandomData> weights) {
         yOffset = maxDistance;
         int islandCount = MathUtil.randIntBetween(minIslands, maxIslands, random);
         setBound(null);
@@ -5,7 +5,7 @@ import foundation.math.MathUtil;
 
 import java.util.ArrayList;
 import java.util.function.BiConsumer;
-import java.util.function.Supplier;
+import java.util.function.DoubleSupplier;
 
 public class VerticalStackData extends BlockCollection {
     public final int centerUp, centerDown;
@@ -15,7 +15,7 @@ public class VerticalStackData extends BlockCollection {
             rightUp = new ArrayList<>(),
             rightDown = new ArrayList<>();
 
-    public VerticalStackData(int centerUp, int centerDown, Supplier<Double> random, FunctionalWeightedRandom<Integer, StackRandomData> inward) {
+    public VerticalStackData(int centerUp, int centerDown, DoubleSupplier random, FunctionalWeightedRandom<Integer, StackRandomData> inward) {
         this.centerUp = centerUp;
         this.centerDown = centerDown;
         generateInward(centerUp, centerDown, rightUp, rightDown, random, inward, null);
@@ -28,7 +28,7 @@ public class VerticalStackData extends BlockCollection {
         calculateBound();
     }
 
-    public VerticalStackData(int centerUp, int centerDown, Supplier<Double> random, FunctionalWeightedRandom<Integer, StackRandomData> inward, FunctionalWeightedRandom<Integer, StackRandomData> offset) {
+    public VerticalStackData(int centerUp, int centerDown, DoubleSupplier random, FunctionalWeightedRandom<Integer, StackRandomData> inward, FunctionalWeightedRandom<Integer, StackRandomData> offset) {
         this.centerUp = centerUp;
         this.centerDown = centerDown;
         generateInward(centerUp, centerDown, rightUp, rightDown, random, inward, offset);
@@ -42,7 +42,7 @@ public class VerticalStackData extends BlockCollection {
         calculateBound();
     }
 
-    private void generateInward(int initialUp, int initialDown, ArrayList<Integer> upLayers, ArrayList<Integer> downLayers, Supplier<Double> random, FunctionalWeightedRandom<Integer, StackRandomData> inward, FunctionalWeightedRandom<Integer, StackRandomData> offset) {
+    private void generateInward(int initialUp, int initialDown, ArrayList<Integer> upLayers, ArrayList<Integer> downLayers, DoubleSupplier random, FunctionalWeightedRandom<Integer, StackRandomData> inward, FunctionalWeightedRandom<Integer, StackRandomData> offset) {
         int prevUp = 0, prevDown = 0, prevOffset = 0, up = initialUp, down = initialDown;
         int layer = 0;
         while (true) {
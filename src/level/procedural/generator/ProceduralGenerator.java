@@ -20,17 +20,21 @@ import render.event.RenderEvent;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class ProceduralGenerator implements Deletable {
-    //All blocks added by the generation function must be added to this set
-    private final HashSet<BlockLike> generatedBlocks = new HashSet<>();
+    //All blocks added by the generation function must be added to this set. Both sets keep the order
+    //that the blocks were added in, as reverting overlapping blocks in a different order would give a
+    //different level for the same seed
+    private final LinkedHashSet<BlockLike> generatedBlocks = new LinkedHashSet<>();
     //All blocks overwritten by the generation function are added to this set
-    private final HashSet<BlockLike> overwrittenBlocks = new HashSet<>();
+    private final LinkedHashSet<BlockLike> overwrittenBlocks = new LinkedHashSet<>();
     //All layout markers added by the marker generation function must be added to this set
     //The markerFunction is the only function allowed to add LayoutMarkers
     private final ArrayList<LayoutMarker> generatedLayoutMarkers = new ArrayList<>();
@@ -73,7 +77,7 @@ public class ProceduralGenerator implements Deletable {
         level.collisionHandler.qRemove.addAll(overwrittenBlocks);
         level.collisionHandler.qAdd.addAll(generatedBlocks);
         //System.out.println(((LMDResolvedElement) marker.data).genType.s);
-        level.generatedMarkers++;
+        level.generatedMarkers.incrementAndGet();
         //Validation markers will have been generated on this marker's behalf by the previous loop iteration,
         //and we don't want to revert their generation
         generatedLayoutMarkers.clear();
@@ -89,7 +93,7 @@ public class ProceduralGenerator implements Deletable {
             if (level.interruptGeneration.get()) {
                 return;
             }
-            marker.level.generationAttempts++;
+            marker.level.generationAttempts.incrementAndGet();
             markerFunction.generateMarkers(this, marker, type); //Generate new markers
             generatedLayoutMarkers.forEach(LayoutMarker::generate); //Generate bounds for those markers
             AtomicBoolean validated = new AtomicBoolean(true);
@@ -304,7 +308,7 @@ public class ProceduralGenerator implements Deletable {
         return MathUtil.randBoolean(probability, random());
     }
 
-    public Supplier<Double> random() {
+    public DoubleSupplier random() {
         return level.randomHandler.getDoubleSupplier(RandomType.PROCEDURAL);
     }
 
@@ -59,7 +59,7 @@ public class LMTResolvedElement extends LMType {
     @Override
     public void parseDataFromJson(JsonObject data) {
         data.get("generatesAs", JsonType.JSON_ARRAY_TYPE).forEach(element -> {
-            Function<GeneratorConditionData, ?> condition = GeneratorCondition.parser.parseExpression(element.getOrDefault("condition", "true", JsonType.STRING_JSON_TYPE));
+            Function<GeneratorConditionData, ?> condition = GeneratorCondition.parser.compileExpression(element.getOrDefault("condition", "true", JsonType.STRING_JSON_TYPE));
             generatorConditions.add(new GenerationElement(
                             o -> ((boolean) condition.apply(o)),
                             element.get("name", JsonType.STRING_JSON_TYPE)
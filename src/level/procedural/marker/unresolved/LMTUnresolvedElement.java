@@ -40,7 +40,7 @@ public class LMTUnresolvedElement extends LMType {
     @Override
     public void parseDataFromJson(JsonObject data) {
         data.get("resolvesTo", JsonType.JSON_ARRAY_TYPE).forEach(element -> {
-            Function<ResolverConditionData, ?> resolverConditionDataFunction = ResolverCondition.parser.parseExpression(element.getOrDefault("condition", "true", JsonType.STRING_JSON_TYPE));
+            Function<ResolverConditionData, ?> resolverConditionDataFunction = ResolverCondition.parser.compileExpression(element.getOrDefault("condition", "true", JsonType.STRING_JSON_TYPE));
             resolveConditions.add(new ResolveElement(
                             o -> ((boolean) resolverConditionDataFunction.apply(o)),
                             element.get("name", JsonType.STRING_JSON_TYPE)
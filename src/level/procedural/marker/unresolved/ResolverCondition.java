@@ -1,7 +1,6 @@
 package level.procedural.marker.unresolved;
 
 import foundation.expression.*;
-import foundation.math.MathUtil;
 import foundation.math.ObjPos;
 import foundation.math.RandomType;
 import level.procedural.generator.BoundType;
@@ -12,11 +11,15 @@ import physics.StaticHitBox;
 import java.util.function.Function;
 
 public class ResolverCondition extends Expression<ResolverConditionData> {
+    //The condition data itself, the argument of the calls that compiled conditions make.
+    //It has to be created before the parser, which uses it in its constructor
+    private static final ExpressionObject<ResolverConditionData, ResolverConditionData> input = new ExpressionObject<>(ResolverConditionData.class, o -> o, ExpressionNode.input());
+
     public static final ResolverCondition parser = new ResolverCondition();
 
     protected ResolverCondition() {
         super();
-        addValue(new ExpressionValue<>("this", new ExpressionObject<>(LayoutMarker.class, o -> o.marker)));
+        addValue(new ExpressionValue<>("this", new ExpressionObject<>(LayoutMarker.class, o -> o.marker, ExpressionNode.call(ResolverCondition.class, "thisMarker", input))));
         addValue(new ExpressionValue<>("region", new ExpressionObject<>(String.class, o -> o.l.getRegion(o.marker.pos).toString())));
 
         addFunction(new ExpressionFunction<>("posOffset", args -> {
@@ -75,12 +78,12 @@ public class ResolverCondition extends Expression<ResolverConditionData> {
                 if (args.get(0) instanceof ExpressionObjectStatic<ResolverConditionData, ?> static0) {
                     float probability = ((Number) static0.value).floatValue();
                     return new ExpressionObject<>(Boolean.class, o ->
-                            MathUtil.randBoolean(probability, o.l.randomHandler.getDoubleSupplier(RandomType.PROCEDURAL))
+                            o.l.randomHandler.nextDouble(RandomType.PROCEDURAL) < probability
                     );
                 } else {
                     Function<ResolverConditionData, ?> f = args.get(0).f;
                     return new ExpressionObject<>(Boolean.class, o ->
-                            MathUtil.randBoolean(((Number) f.apply(o)).floatValue(), o.l.randomHandler.getDoubleSupplier(RandomType.PROCEDURAL))
+                            o.l.randomHandler.nextDouble(RandomType.PROCEDURAL) < ((Number) f.apply(o)).floatValue()
                     );
                 }
             }
@@ -88,4 +91,8 @@ public class ResolverCondition extends Expression<ResolverConditionData> {
         }
         ));
     }
+
+    public static LayoutMarker thisMarker(ResolverConditionData o) {
+        return o.marker;
+    }
 }
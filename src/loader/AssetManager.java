@@ -20,11 +20,15 @@ import render.texture.*;
 import render.texture.ct.ConnectedTexture;
 
 import javax.imageio.ImageIO;
+import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
@@ -35,7 +39,17 @@ public abstract class AssetManager {
     //The path to the assets folder, relative to this class file
     private static final String ASSETS_PATH = "../assets/";
 
+    /*
+     * Images are converted to the format of the screen as they're loaded, rather than being kept in
+     * whatever format ImageIO reads them as, often 4 byte ABGR or indexed colours. Drawing an image in
+     * another format than the screen means converting every pixel each time it's drawn, while images
+     * in the screen's format can be kept in video memory by Java2D and drawn without conversion.
+     */
     private static final HashMap<ResourceLocation, BufferedImage> textures = new HashMap<>();
+    public static final boolean DEBUG_BLIT_BENCHMARK = false;
+    public static final AtomicInteger
+            imageCacheHits = new AtomicInteger(), imageCacheMisses = new AtomicInteger(),
+            colourModifiedHits = new AtomicInteger(), colourModifiedMisses = new AtomicInteger();
     public static final HashMap<String, BiFunction<ObjPos, Level, ? extends BlockLike>> blocks = new HashMap<>();
     public static final HashMap<String, StaticHitBox> blockHitBoxes = new HashMap<>();
     public static final HashMap<String, Float> blockFriction = new HashMap<>(), blockBounciness = new HashMap<>();
@@ -232,7 +246,7 @@ public abstract class AssetManager {
                         player.setFriction(friction);
                         player.setBounciness(bounciness);
                         return player.init(new RenderTexture(
-                                RenderOrder.getRenderOrder(texture.getOrDefault("order", "player", JsonType.STRING_JSON_TYPE)), player::getPos,
+                                RenderOrder.getRenderOrder(texture.getOrDefault("order", "player", JsonType.STRING_JSON_TYPE)), player::getRenderPos,
                                 textureSupplier.apply(level)));
                     });
                 }
@@ -269,7 +283,7 @@ public abstract class AssetManager {
                         physicsBlock.setFriction(friction);
                         physicsBlock.setBounciness(bounciness);
                         return physicsBlock.init(new RenderTexture(
-                                RenderOrder.getRenderOrder(texture.getOrDefault("order", "block", JsonType.STRING_JSON_TYPE)), physicsBlock::getPos,
+                                RenderOrder.getRenderOrder(texture.getOrDefault("order", "block", JsonType.STRING_JSON_TYPE)), physicsBlock::getRenderPos,
                                 textureSupplier.apply(level)));
                     });
                 }
@@ -282,8 +296,18 @@ public abstract class AssetManager {
     }
 
     public static BufferedImage getImage(ResourceLocation resource) {
-        if (textures.containsKey(resource))
+        if (textures.containsKey(resource)) {
+            imageCacheHits.incrementAndGet();
             return textures.get(resource);
+        }
+        imageCacheMisses.incrementAndGet();
+        BufferedImage image = toCompatibleImage(readImage(resource));
+        textures.put(resource, image);
+        return image;
+    }
+
+    //Reads the image file as it is, without converting it or caching it
+    public static BufferedImage readImage(ResourceLocation resource) {
         try {
             InputStream inputStream = AssetManager.class.getResourceAsStream(resource.getPath(ASSETS_PATH));
             if (inputStream == null) {
@@ -295,13 +319,36 @@ public abstract class AssetManager {
             BufferedImage image = ImageIO.read(inputStream);
             if (image == null)
                 throw new RuntimeException("Image was null with path: " + resource.relativePath);
-            textures.put(resource, image);
             return image;
         } catch (IOException e) {
             throw new RuntimeException("Error opening image file with path " + resource.relativePath + " : " + e.getMessage());
         }
     }
 
+    public static Set<ResourceLocation> getLoadedImages() {
+        return Collections.unmodifiableSet(textures.keySet());
+    }
+
+    public static BufferedImage toCompatibleImage(BufferedImage image) {
+        BufferedImage compatible = createCompatibleImage(image.getWidth(), image.getHeight());
+        if (image.getType() == compatible.getType() && image.getColorModel().equals(compatible.getColorModel()))
+            return image;
+        Graphics2D g = compatible.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return compatible;
+    }
+
+    //A translucent image in the format of the screen. Without a screen, such as on a server, images are
+    //kept as ARGB, the format Java2D converts other images to before drawing them
+    public static BufferedImage createCompatibleImage(int width, int height) {
+        if (GraphicsEnvironment.isHeadless())
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration()
+                .createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+    }
+
     private static final HashMap<ResourceLocation, TextureAsset> textureAssets = new HashMap<>();
     private static final HashMap<ResourceLocation, Function<Level, AnimatedTexture>> animatedTextures = new HashMap<>();
     private static final HashMap<ResourceLocation, Function<Level, LayeredTexture>> layeredTextures = new HashMap<>();
@@ -0,0 +1,71 @@
+package loader;
+
+import level.Level;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+
+public abstract class BlitBenchmark {
+    /*
+     * Compares how fast the loaded images can be drawn in the format ImageIO reads them as, and after
+     * being converted to the format of the screen by the AssetManager. Images are drawn at the size they're
+     * shown at in the level, into an image in the format of the screen, the same as drawing blocks.
+     *
+     * Fails if any image the AssetManager hands out isn't in the format of the screen. The pixels aren't
+     * compared with the files, as textures with a colorFactor are recoloured in place once loaded.
+     */
+    private static final int WARMUP_BLITS = 50000, BENCHMARK_BLITS = 200000;
+
+    //Returns whether every loaded image is in the format of the screen
+    public static boolean run(Level level) {
+        ArrayList<BufferedImage> unconverted = new ArrayList<>(), converted = new ArrayList<>();
+        BufferedImage screenFormat = AssetManager.createCompatibleImage(1, 1);
+        int alreadyCompatible = 0, wrongFormatImages = 0;
+        for (ResourceLocation resource : new ArrayList<>(AssetManager.getLoadedImages())) {
+            BufferedImage raw = AssetManager.readImage(resource), image = AssetManager.getImage(resource);
+            unconverted.add(raw);
+            converted.add(image);
+            if (raw.getType() == image.getType())
+                alreadyCompatible++;
+            if (image.getType() != screenFormat.getType() || !image.getColorModel().equals(screenFormat.getColorModel()))
+                wrongFormatImages++;
+        }
+        if (converted.isEmpty())
+            return true;
+        //Textures are 16 pixels per block
+        double scale = level.gameRenderer.transform.getScaleX() / 16;
+        BufferedImage target = AssetManager.createCompatibleImage(1024, 1024);
+        Graphics2D g = target.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g.scale(scale, scale);
+
+        blit(g, unconverted, WARMUP_BLITS);
+        long unconvertedTime = blit(g, unconverted, BENCHMARK_BLITS);
+        blit(g, converted, WARMUP_BLITS);
+        long convertedTime = blit(g, converted, BENCHMARK_BLITS);
+        g.dispose();
+
+        System.out.println("--------------------[ Blit benchmark ]-------------------------");
+        System.out.println("images: " + converted.size() + ", already in the screen format: " + alreadyCompatible);
+        System.out.println("image cache hits: " + AssetManager.imageCacheHits.get() + ", misses: " + AssetManager.imageCacheMisses.get());
+        System.out.println("colour modified texture hits: " + AssetManager.colourModifiedHits.get() + ", misses: " + AssetManager.colourModifiedMisses.get());
+        System.out.println("unconverted images: " + BENCHMARK_BLITS * 1000000L / unconvertedTime + " blits per ms");
+        System.out.println("converted images: " + BENCHMARK_BLITS * 1000000L / convertedTime + " blits per ms");
+        System.out.println("speedup: " + ((float) unconvertedTime) / convertedTime);
+        System.out.println("images not in the screen format: " + wrongFormatImages);
+        System.out.println("result: " + (wrongFormatImages == 0 ? "PASSED" : "FAILED"));
+        System.out.println("---------------------------------------------------------------");
+        return wrongFormatImages == 0;
+    }
+
+    //Returns the time taken in nanoseconds
+    private static long blit(Graphics2D g, ArrayList<BufferedImage> images, int count) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            BufferedImage image = images.get(i % images.size());
+            g.drawImage(image, (i * 7) % 40, (i * 13) % 40, null);
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -12,8 +12,10 @@ import loader.AssetManager;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.LinkedTransferQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -25,6 +27,9 @@ public class Client {
     private DataInputStream reader;
     private DataOutputStream writer;
     private final HashSet<PacketWriter> packetQueue = new HashSet<>();
+    //See Server.transferQueueWriters
+    private final boolean useTransferQueue = Server.transferQueueWriters;
+    private final LinkedTransferQueue<PacketWriter> transferQueue = new LinkedTransferQueue<>();
     public int clientID = -1;
 
     public boolean failed = false;
@@ -42,12 +47,13 @@ public class Client {
             new Thread(this::runWriter).start();
             new Thread(() -> {
                 try {
-                    byte[] receiveBuffer = new byte[4096];
+                    ByteBuffer receiveBuffer = PacketCodec.takeBuffer();
+                    DatagramPacket packet = new DatagramPacket(receiveBuffer.array(), receiveBuffer.capacity());
                     while (true) {
-                        DatagramPacket packet = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+                        packet.setLength(receiveBuffer.capacity());
                         udpSocketReceive.receive(packet);
-                        ByteArrayInputStream bytes = new ByteArrayInputStream(packet.getData());
-                        readStream(new DataInputStream(bytes));
+                        receiveBuffer.clear().limit(packet.getLength());
+                        readDatagram(receiveBuffer);
                     }
                 } catch (IOException e) {
                     throw new RuntimeException(e);
@@ -61,14 +67,24 @@ public class Client {
         }
     }
 
-    public synchronized void queuePacket(PacketWriter packet) {
-        packetQueue.add(packet);
+    public void queuePacket(PacketWriter packet) {
+        if (useTransferQueue) {
+            transferQueue.add(packet);
+            return;
+        }
+        synchronized (this) {
+            packetQueue.add(packet);
+        }
     }
 
-    private long lastLevelUpdate = 0, lastPhysicsUpdate = 0;
+    private long lastLevelUpdate = 0;
+    //Only used by the UDP receiving thread
+    private final PhysicsSnapshotAssembler physicsSnapshots = new PhysicsSnapshotAssembler();
+    //Only used by the tick thread
+    public final PlayerPrediction prediction = new PlayerPrediction();
 
     public void readStream(DataInputStream stream) throws IOException {
-        switch (PacketType.values()[stream.readInt()]) {
+        switch (PacketType.values()[PacketCodec.readVarInt(stream)]) {
             case CLIENT_ID -> {
                 clientID = stream.readInt();
             }
@@ -114,85 +130,88 @@ public class Client {
                     MainPanel.setActiveLevel(active);
                 });
             }
+        }
+    }
+
+    //Datagrams are decoded straight out of the buffer they were received into, see PacketCodec
+    public void readDatagram(ByteBuffer buffer) {
+        switch (PacketReceiver.readEnum(PacketType.class, buffer)) {
             case PHYSICS_UPDATE -> {
-                long timeStamp = stream.readLong();
-                int levelIndex = stream.readInt(), blockCount = stream.readInt();
-                int playerIndex = stream.readInt();
-                boolean space, left, right;
-                if (playerIndex == -1) {
-                    space = false;
-                    left = false;
-                    right = false;
-                } else {
-                    space = stream.readBoolean();
-                    left = stream.readBoolean();
-                    right = stream.readBoolean();
-                }
-                int[] indices = new int[blockCount];
+                PhysicsSnapshotAssembler.Fragment f = physicsSnapshots.read(buffer);
+                if (f == null)
+                    break;
                 HashMap<Integer, Integer> indexSet = new HashMap<>();
-                String[] names = new String[blockCount];
-                ObjPos[] positions = new ObjPos[blockCount], prevPositions = new ObjPos[blockCount];
-                VelocityHandler[] velocities = new VelocityHandler[blockCount], prevVelocities = new VelocityHandler[blockCount];
-                for (int i = 0; i < blockCount; i++) {
-                    indices[i] = stream.readInt();
-                    indexSet.put(indices[i], i);
-                    names[i] = stream.readUTF();
-                    positions[i] = ObjPos.read(stream);
-                    velocities[i] = VelocityHandler.read(stream);
-                    prevPositions[i] = ObjPos.read(stream);
-                    prevVelocities[i] = VelocityHandler.read(stream);
+                for (int i = 0; i < f.indices.length; i++) {
+                    indexSet.put(f.indices[i], i);
                 }
-                if (lastPhysicsUpdate >= timeStamp)
-                    break;
-                lastPhysicsUpdate = timeStamp;
                 MainPanel.addTask(() -> {
-                    if (MainPanel.currentLevelIndex != levelIndex)
+                    if (MainPanel.currentLevelIndex != f.levelIndex)
                         return;
 
-                    Level l = MainPanel.getLevel(levelIndex);
+                    Level l = MainPanel.getLevel(f.levelIndex);
                     if (l == null)
                         return;
                     HashSet<PhysicsBlock> removeBlocks = new HashSet<>();
+                    HashSet<Integer> presentIndices = new HashSet<>();
                     l.dynamicBlocks.forEach(d -> {
                         if (d instanceof PhysicsBlock b) {
+                            presentIndices.add(b.index);
                             Integer i = indexSet.remove(b.index);
                             if (i != null) {
-                                b.serverPos = positions[i];
-                                b.velocity = velocities[i];
-                                //b.prevPos = prevPositions[i];
-                                b.previousVelocity = prevVelocities[i];
-                                if (b.index == playerIndex && b instanceof Player p) {
+                                b.serverPos = f.positions[i];
+                                if (b.index == f.playerIndex && b instanceof Player p) {
+                                    //The client moves its own player, and only corrects it with the update
+                                    if (p.prediction == null)
+                                        p.prediction = prediction;
+                                    p.prediction.reconcile(f.inputSequence, f.ticksSinceInput, f.positions[i], f.velocities[i], p.pos, p.velocity);
                                     l.cameraPlayer = p;
                                     p.addInput(l.inputHandler);
                                     long time = System.currentTimeMillis();
-                                    if (p.space != space && time - p.timeSpace > 50) {
+                                    if (p.space != f.space && time - p.timeSpace > 50) {
                                         p.sendMovementPacketUpdate(InputEvent.MOVEMENT_UP);
                                     }
-                                    if (p.left != left && time - p.timeLeft > 50) {
+                                    if (p.left != f.left && time - p.timeLeft > 50) {
                                         p.sendMovementPacketUpdate(InputEvent.MOVEMENT_LEFT);
                                     }
-                                    if (p.right != right && time - p.timeRight > 50) {
+                                    if (p.right != f.right && time - p.timeRight > 50) {
                                         p.sendMovementPacketUpdate(InputEvent.MOVEMENT_RIGHT);
                                     }
+                                } else {
+                                    b.velocity = f.velocities[i];
+                                    b.previousVelocity = f.prevVelocities[i];
                                 }
-                            } else {
+                            } else if (f.completesSnapshot() && f.snapshot.find(b.index) < 0) {
+                                //Blocks can only be removed once all of the update has arrived
                                 removeBlocks.add(b);
                             }
                         }
                     });
                     removeBlocks.forEach(b -> l.removeBlocks(true, b));
-                    indexSet.forEach((index, i) -> {
-                        BlockLike b = AssetManager.createBlock(names[i], positions[i], l);
-                        l.addBlocks(true, false, b);
-                        ((PhysicsBlock) b).velocity = velocities[i];
-                        ((PhysicsBlock) b).index = index;
-                        ((PhysicsBlock) b).serverPos = positions[i];
-                    });
+                    indexSet.forEach((index, i) -> addPhysicsBlock(l, index, f.names[i], f.positions[i], f.velocities[i]));
+                    if (f.completesSnapshot()) {
+                        //Unchanged blocks aren't in the update, so blocks the client missed, for example while
+                        //it was in another level, are added from the snapshot
+                        for (int i = 0; i < f.snapshot.count(); i++) {
+                            int index = f.snapshot.getIndex(i);
+                            if (!presentIndices.contains(index) && !indexSet.containsKey(index))
+                                addPhysicsBlock(l, index, f.snapshot.getName(i), f.snapshot.getPos(i), f.snapshot.getVelocity(i));
+                        }
+                        //The server only encodes updates against ones the client has applied
+                        queuePacket(PhysicsPacketiser.acknowledge(f.sequence));
+                    }
                 });
             }
         }
     }
 
+    private static void addPhysicsBlock(Level l, int index, String name, ObjPos pos, VelocityHandler velocity) {
+        BlockLike b = AssetManager.createBlock(name, pos, l);
+        l.addBlocks(true, false, b);
+        ((PhysicsBlock) b).velocity = velocity;
+        ((PhysicsBlock) b).index = index;
+        ((PhysicsBlock) b).serverPos = pos;
+    }
+
     public void runReader() {
         while (true) {
             try {
@@ -208,32 +227,17 @@ public class Client {
     public void runWriter() {
         AtomicBoolean close = new AtomicBoolean(false);
         try {
+            if (useTransferQueue) {
+                //Packets are written as soon as they're queued, instead of waiting for the next 5 ms check
+                while (!close.get()) {
+                    write(transferQueue.take(), close);
+                }
+                return;
+            }
             while (!close.get()) {
                 TimeUnit.MILLISECONDS.sleep(5);
                 synchronized (this) {
-                    packetQueue.forEach(p -> {
-                        if (p.udp()) {
-                            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-                            DataOutputStream out = new DataOutputStream(bytes);
-                            try {
-                                PacketWriter.writeEnum(p.type(), out);
-                                p.writer().accept(out);
-                                udpSocketSend.send(new DatagramPacket(bytes.toByteArray(), bytes.size(), inetAddress, Server.UDP_SERVER_PORT));
-                            } catch (IOException e) {
-                                throw new RuntimeException(e);
-                            }
-                        } else {
-                            try {
-                                PacketWriter.writeEnum(p.type(), writer);
-                            } catch (SocketException e) {
-                                close.set(true);
-                                return;
-                            } catch (IOException e) {
-                                throw new RuntimeException(e);
-                            }
-                            p.writer().accept(writer);
-                        }
-                    });
+                    packetQueue.forEach(p -> write(p, close));
                     packetQueue.clear();
                 }
             }
@@ -241,4 +245,28 @@ public class Client {
             throw new RuntimeException(e);
         }
     }
+
+    private void write(PacketWriter p, AtomicBoolean close) {
+        if (p.udp()) {
+            ByteBuffer buffer = PacketCodec.takeBuffer();
+            p.encode(buffer);
+            try {
+                udpSocketSend.send(new DatagramPacket(buffer.array(), buffer.position(), inetAddress, Server.UDP_SERVER_PORT));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                PacketCodec.returnBuffer(buffer);
+            }
+        } else {
+            try {
+                PacketWriter.writeEnum(p.type(), writer);
+            } catch (SocketException e) {
+                close.set(true);
+                return;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            p.writer().accept(writer);
+        }
+    }
 }
@@ -0,0 +1,182 @@
+package network;
+
+import foundation.math.ObjPos;
+import loader.AssetManager;
+
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+public abstract class LossyLinkSimulation {
+    /*
+     * Sends physics updates for a level with many physics blocks through a simulated bad network, over
+     * loopback UDP sockets, and reads them with a PhysicsSnapshotAssembler the same way the client does.
+     * The simulated link loses and duplicates datagrams at random, swaps some of them around, and lets
+     * some of them arrive late, during the next update. It's run once without a limit on the number of
+     * datagrams, and once as a congested link that only lets CONGESTED_CAPACITY datagrams of each update
+     * through, dropping the rest the way a full router queue would.
+     *
+     * Most of the blocks are at rest, only MOVING_BLOCKS of them move, and every REPLACE_INTERVAL updates
+     * a block is removed and a new one added. The congested link is run with every block moving, as
+     * updates with most blocks at rest fit into a single datagram. Updates are sent as changes from the
+     * last update the client acknowledged, see PhysicsBaselines, with the acknowledgements sent back over
+     * a link that loses LOSS of them, and arriving before the next update.
+     *
+     * Reports the bytes sent per update, and what a full update of the same blocks would have taken, how
+     * many updates arrived complete, and how many of the blocks the client has where the server has them
+     * after each update, for all blocks and for the blocks nearest to the player, which are sent first.
+     * Fails if any complete update the client assembled differs from the one the server sent, or if the
+     * updates with most blocks at rest aren't smaller than full ones.
+     *
+     * Doesn't need a level or the game window, so it's run on its own rather than from the game, with the
+     * exit status showing whether it passed.
+     */
+    private static final int BLOCKS = 2000, MOVING_BLOCKS = 100, REPLACE_INTERVAL = 10, UPDATES = 200, NEAREST_BLOCKS = 50;
+    private static final int CONGESTED_CAPACITY = 30;
+    private static final float LOSS = 0.01f, DUPLICATION = 0.01f, REORDERING = 0.1f, LATE = 0.01f;
+    //The player is the only block the AssetManager always has
+    private static final String BLOCK_NAME = "player";
+
+    public static void main(String[] args) {
+        System.exit(run() ? 0 : 1);
+    }
+
+    //Returns whether every complete update matched the one that was sent
+    public static boolean run() {
+        if (AssetManager.blocks.isEmpty())
+            PhysicsPacketiser.setBlockNames(List.of(BLOCK_NAME));
+        System.out.println("--------------------[ Lossy link simulation ]------------------");
+        boolean passed = runLink("uncongested link", Integer.MAX_VALUE, MOVING_BLOCKS);
+        passed &= runLink("congested link, " + CONGESTED_CAPACITY + " datagrams per update, every block moving", CONGESTED_CAPACITY, BLOCKS);
+        System.out.println("result: " + (passed ? "PASSED" : "FAILED"));
+        System.out.println("---------------------------------------------------------------");
+        return passed;
+    }
+
+    private static boolean runLink(String name, int capacity, int movingBlocks) {
+        Random random = new Random(0);
+        TreeMap<Integer, ObjPos> positions = new TreeMap<>();
+        for (int i = 0; i < BLOCKS; i++) {
+            positions.put(i, new ObjPos(random.nextFloat() * 60, random.nextFloat() * 500));
+        }
+        int nextIndex = BLOCKS;
+
+        PhysicsBaselines baselines = new PhysicsBaselines();
+        PhysicsSnapshotAssembler assembler = new PhysicsSnapshotAssembler();
+        HashMap<Integer, PhysicsPacketiser.Snapshot> sent = new HashMap<>();
+        //Where the client has each block, updated the same way Client does
+        HashMap<Integer, ObjPos> clientPositions = new HashMap<>();
+        long datagrams = 0, lost = 0, bytes = 0, fullBytes = 0, currentBlocks = 0, currentNearest = 0, mismatches = 0;
+        int maxSize = 0;
+        try (DatagramSocket sender = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+             DatagramSocket receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            receiver.setReceiveBufferSize(1 << 22);
+            receiver.setSoTimeout(200);
+            SocketAddress address = receiver.getLocalSocketAddress();
+            byte[] receiveBuffer = new byte[4096];
+            ArrayList<byte[]> late = new ArrayList<>();
+            for (int sequence = 0; sequence < UPDATES; sequence++) {
+                for (ObjPos pos : positions.headMap(movingBlocks).values()) {
+                    pos.add(random.nextFloat() * 0.2f - 0.1f, random.nextFloat() * 0.2f - 0.1f);
+                }
+                if (sequence % REPLACE_INTERVAL == REPLACE_INTERVAL - 1) {
+                    positions.remove(random.nextInt(BLOCKS));
+                    positions.put(nextIndex++, new ObjPos(random.nextFloat() * 60, random.nextFloat() * 500));
+                }
+                PhysicsPacketiser.Snapshot snapshot = new PhysicsPacketiser.Snapshot(sequence, 0, positions.size());
+                int i = 0;
+                for (Map.Entry<Integer, ObjPos> block : positions.entrySet()) {
+                    snapshot.set(i++, block.getKey(), BLOCK_NAME, block.getValue(), new ObjPos(), new ObjPos());
+                }
+                sent.put(sequence, snapshot);
+                ObjPos player = new ObjPos(random.nextFloat() * 60, random.nextFloat() * 500);
+                ArrayList<PhysicsPacketiser.Entry> fullEntries = PhysicsPacketiser.encodeDelta(snapshot, null);
+                for (PacketWriter p : PhysicsPacketiser.packetise(snapshot, null, null, player, fullEntries)) {
+                    fullBytes += p.toBytes().length;
+                }
+                HashSet<Integer> nearest = new HashSet<>();
+                fullEntries.stream().sorted(Comparator.comparingDouble(e -> e.distanceSquared(player))).limit(NEAREST_BLOCKS)
+                        .forEach(e -> nearest.add(e.index()));
+
+                PhysicsPacketiser.Snapshot baseline = baselines.getBaseline(snapshot);
+                baselines.sent(snapshot, baseline);
+                ArrayList<byte[]> link = new ArrayList<>(late);
+                late.clear();
+                for (PacketWriter p : PhysicsPacketiser.packetise(snapshot, baseline, null, player, PhysicsPacketiser.encodeDelta(snapshot, baseline))) {
+                    byte[] datagram = p.toBytes();
+                    datagrams++;
+                    bytes += datagram.length;
+                    maxSize = Math.max(maxSize, datagram.length);
+                    if (link.size() >= capacity || random.nextFloat() < LOSS) {
+                        lost++;
+                        continue;
+                    }
+                    if (random.nextFloat() < LATE) {
+                        late.add(datagram);
+                        continue;
+                    }
+                    link.add(datagram);
+                    if (random.nextFloat() < DUPLICATION)
+                        link.add(datagram);
+                }
+                for (int j = 1; j < link.size(); j++) {
+                    if (random.nextFloat() < REORDERING)
+                        link.add(j - 1, link.remove(j));
+                }
+                for (byte[] datagram : link) {
+                    sender.send(new DatagramPacket(datagram, datagram.length, address));
+                }
+
+                for (int j = 0; j < link.size(); j++) {
+                    DatagramPacket packet = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+                    receiver.receive(packet);
+                    ByteBuffer buffer = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+                    if (PacketReceiver.readEnum(PacketType.class, buffer) != PacketType.PHYSICS_UPDATE)
+                        throw new RuntimeException("Received a packet that isn't a physics update");
+                    PhysicsSnapshotAssembler.Fragment f = assembler.read(buffer);
+                    if (f == null)
+                        continue;
+                    for (int k = 0; k < f.indices.length; k++) {
+                        clientPositions.put(f.indices[k], f.positions[k]);
+                    }
+                    if (f.completesSnapshot()) {
+                        if (!f.snapshot.sameBlocks(sent.get(f.sequence)))
+                            mismatches++;
+                        clientPositions.keySet().removeIf(index -> f.snapshot.find(index) < 0);
+                        for (int k = 0; k < f.snapshot.count(); k++) {
+                            clientPositions.putIfAbsent(f.snapshot.getIndex(k), f.snapshot.getPos(k));
+                        }
+                        if (random.nextFloat() >= LOSS)
+                            baselines.acknowledge(f.sequence);
+                    }
+                }
+                for (int k = 0; k < snapshot.count(); k++) {
+                    ObjPos clientPos = clientPositions.get(snapshot.getIndex(k));
+                    if (clientPos != null && clientPos.equals(snapshot.getPos(k))) {
+                        currentBlocks++;
+                        if (nearest.contains(snapshot.getIndex(k)))
+                            currentNearest++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        //Updates with every block moving are as large as full ones
+        boolean passed = mismatches == 0 && (movingBlocks == BLOCKS || bytes < fullBytes);
+        System.out.println(name + ":");
+        System.out.println("blocks: " + BLOCKS + ", moving: " + movingBlocks + ", updates: " + UPDATES);
+        System.out.println("bytes per update: " + bytes / UPDATES + ", full updates would be: " + fullBytes / UPDATES +
+                ", delta updates: " + baselines.deltaUpdates + ", full updates: " + baselines.fullUpdates);
+        System.out.println("datagrams per update: " + (float) datagrams / UPDATES + ", largest datagram: " + maxSize + " bytes, lost on the link: " + lost);
+        System.out.println("fragments received: " + assembler.fragmentsReceived + ", stale: " + assembler.staleFragments + ", duplicates: " +
+                assembler.duplicateFragments + ", missing baseline: " + assembler.missingBaselineFragments);
+        System.out.println("complete updates: " + assembler.completeSnapshots + ", incomplete updates: " + assembler.incompleteSnapshots +
+                ", complete updates that differ from the server: " + mismatches);
+        System.out.println("blocks where the server has them per update: " + currentBlocks * 100f / UPDATES / BLOCKS + "%");
+        System.out.println("nearest " + NEAREST_BLOCKS + " blocks where the server has them per update: " + currentNearest * 100f / UPDATES / NEAREST_BLOCKS + "%");
+        return passed;
+    }
+}
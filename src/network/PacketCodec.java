@@ -0,0 +1,104 @@
+package network;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public abstract class PacketCodec {
+    /*
+     * Datagrams are encoded straight into ByteBuffers taken from a pool, and decoded straight out of the
+     * buffer they were received into, instead of going through a new ByteArrayOutputStream and
+     * DataOutputStream for every packet, and a copy of the bytes on top of that.
+     *
+     * Ids, counts and enums are written as varints, 7 bits per byte with the top bit set on every byte but
+     * the last, so that the small numbers most of them are take up one or two bytes instead of four.
+     * Negative numbers always take five bytes, so values that can be -1 are written plus one.
+     */
+    //Large enough for any datagram, which are at most PhysicsPacketiser.MAX_DATAGRAM_SIZE bytes
+    public static final int BUFFER_SIZE = 4096;
+    public static final int MAX_VAR_INT_SIZE = 5;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+
+    //Heap buffers, so that their bytes can also be given to a DatagramPacket without copying them
+    public static ByteBuffer takeBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer == null)
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.clear();
+        return buffer;
+    }
+
+    public static void returnBuffer(ByteBuffer buffer) {
+        bufferPool.add(buffer);
+    }
+
+    public static void writeVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new RuntimeException("Varint is longer than " + MAX_VAR_INT_SIZE + " bytes");
+    }
+
+    //Values that are as likely to be negative as positive, like the changes in physics updates, are zigzag
+    //encoded first, so that small negative numbers also only take one or two bytes
+    public static void writeSignedVarInt(ByteBuffer buffer, int value) {
+        writeVarInt(buffer, (value << 1) ^ (value >> 31));
+    }
+
+    public static int readSignedVarInt(ByteBuffer buffer) {
+        int value = readVarInt(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    //The same encoding for TCP packets, which are still written to and read from streams
+    public static void writeVarInt(DataOutput writer, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            writer.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writer.writeByte(value);
+    }
+
+    public static int readVarInt(DataInput reader) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = reader.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new RuntimeException("Varint is longer than " + MAX_VAR_INT_SIZE + " bytes");
+    }
+
+    public static void writeString(ByteBuffer buffer, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    public static String readString(ByteBuffer buffer) {
+        int length = readVarInt(buffer);
+        if (length > buffer.remaining())
+            throw new BufferUnderflowException();
+        String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+}
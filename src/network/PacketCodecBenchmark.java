@@ -0,0 +1,227 @@
+package network;
+
+import foundation.math.ObjPos;
+import loader.AssetManager;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+public abstract class PacketCodecBenchmark {
+    /*
+     * Encodes and decodes a physics update with BLOCKS physics blocks, with PacketCodec the way the server
+     * and client do, and with DataOutputStream and DataInputStream in the format physics updates used to
+     * have, with 4 byte ints and enums. Each is run for WARMUP_ITERATIONS first so that the JIT has compiled
+     * it, then timed over MEASURED_ITERATIONS, and reports the time and the bytes allocated by this
+     * thread for each update, along with the size of the update.
+     *
+     * The entries are encoded once, as the server does for every client in a level with the same
+     * baseline, so only writing the fragments is timed. Every block is in the update, as in an update sent
+     * in full rather than as the changes from a baseline. Decoding includes creating the fragments, as the
+     * client does.
+     *
+     * Fails if the blocks decoded with PacketCodec aren't the ones that were encoded, or if the update
+     * isn't smaller than in the old format. Run on its own, with the exit status showing whether it passed.
+     */
+    private static final int BLOCKS = 500, WARMUP_ITERATIONS = 2000, MEASURED_ITERATIONS = 5000;
+    //The player is the only block the AssetManager always has
+    private static final String BLOCK_NAME = "player";
+    //Results are added to this so that the JIT can't remove the work
+    private static long sink = 0;
+
+    public static void main(String[] args) {
+        System.exit(run() ? 0 : 1);
+    }
+
+    //Returns whether the decoded update matched the encoded one
+    public static boolean run() {
+        if (AssetManager.blocks.isEmpty())
+            PhysicsPacketiser.setBlockNames(List.of(BLOCK_NAME));
+        Random random = new Random(0);
+        PhysicsPacketiser.Snapshot snapshot = new PhysicsPacketiser.Snapshot(0, 0, BLOCKS);
+        ArrayList<byte[]> streamEntries = new ArrayList<>();
+        for (int i = 0; i < BLOCKS; i++) {
+            ObjPos pos = new ObjPos(random.nextFloat() * 60, random.nextFloat() * 500);
+            ObjPos velocity = new ObjPos(random.nextFloat(), random.nextFloat());
+            snapshot.set(i, i, BLOCK_NAME, pos, velocity, velocity.copy());
+            streamEntries.add(encodeStreamEntry(i, BLOCK_NAME, pos, velocity, pos.copy(), velocity.copy()));
+        }
+        //Every block is sent, as in an update without a baseline
+        ArrayList<PacketWriter> packets = PhysicsPacketiser.packetise(snapshot, null, null, null, PhysicsPacketiser.encodeDelta(snapshot, null));
+        //The old format used the same fragments, only with a larger header
+        ArrayList<ArrayList<byte[]>> streamFragments = new ArrayList<>();
+        int index = 0;
+        for (PacketWriter p : packets) {
+            ArrayList<byte[]> fragment = new ArrayList<>();
+            ByteBuffer buffer = ByteBuffer.wrap(p.toBytes());
+            PacketReceiver.readEnum(PacketType.class, buffer);
+            int count = new PhysicsSnapshotAssembler().read(buffer).indices.length;
+            for (int i = 0; i < count; i++) {
+                fragment.add(streamEntries.get(index++));
+            }
+            streamFragments.add(fragment);
+        }
+
+        ByteBuffer buffer = PacketCodec.takeBuffer();
+        byte[][] encoded = new byte[packets.size()][];
+        int codecSize = 0;
+        for (int i = 0; i < packets.size(); i++) {
+            encoded[i] = packets.get(i).toBytes();
+            codecSize += encoded[i].length;
+        }
+        byte[][] streamEncoded = encodeStream(streamFragments);
+        int streamSize = 0;
+        for (byte[] bytes : streamEncoded) {
+            streamSize += bytes.length;
+        }
+
+        //The client has to get back every block as it was encoded
+        PhysicsSnapshotAssembler checkAssembler = new PhysicsSnapshotAssembler();
+        PhysicsPacketiser.Snapshot decoded = null;
+        for (byte[] bytes : encoded) {
+            ByteBuffer b = ByteBuffer.wrap(bytes);
+            PacketReceiver.readEnum(PacketType.class, b);
+            PhysicsSnapshotAssembler.Fragment f = checkAssembler.read(b);
+            if (f != null && f.completesSnapshot())
+                decoded = f.snapshot;
+        }
+        boolean decodedMatches = decoded != null && decoded.sameBlocks(snapshot);
+
+        System.out.println("--------------------[ Packet codec benchmark ]-----------------");
+        System.out.println("physics blocks: " + BLOCKS + ", fragments: " + packets.size());
+        System.out.println("update size, PacketCodec: " + codecSize + " bytes, DataOutputStream: " + streamSize + " bytes");
+        measure("encode, PacketCodec", () -> {
+            for (PacketWriter p : packets) {
+                buffer.clear();
+                p.encode(buffer);
+                sink += buffer.position();
+            }
+        });
+        measure("encode, DataOutputStream", () -> {
+            for (byte[] bytes : encodeStream(streamFragments)) {
+                sink += bytes.length;
+            }
+        });
+        measure("decode, PacketCodec", () -> {
+            PhysicsSnapshotAssembler assembler = new PhysicsSnapshotAssembler();
+            for (byte[] bytes : encoded) {
+                //The client reuses its receive buffer in the same way
+                buffer.clear();
+                buffer.put(bytes);
+                buffer.flip();
+                PacketReceiver.readEnum(PacketType.class, buffer);
+                sink += assembler.read(buffer).indices.length;
+            }
+        });
+        measure("decode, DataInputStream", () -> {
+            HashSet<Integer> snapshotIndices = new HashSet<>();
+            for (byte[] bytes : streamEncoded) {
+                sink += decodeStream(bytes, snapshotIndices);
+            }
+        });
+        boolean passed = decodedMatches && codecSize < streamSize;
+        System.out.println("decoded blocks match: " + decodedMatches);
+        System.out.println("result: " + (passed ? "PASSED" : "FAILED"));
+        System.out.println("---------------------------------------------------------------");
+        PacketCodec.returnBuffer(buffer);
+        return passed;
+    }
+
+    private static void measure(String name, Runnable update) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            update.run();
+        }
+        long allocatedStart = getAllocatedBytes(), start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            update.run();
+        }
+        long time = System.nanoTime() - start, allocated = getAllocatedBytes() - allocatedStart;
+        System.out.println(name + ": " + time / 1000 / MEASURED_ITERATIONS + " us per update, " + allocated / MEASURED_ITERATIONS + " bytes allocated per update");
+    }
+
+    private static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static byte[] encodeStreamEntry(int index, String name, ObjPos pos, ObjPos velocity, ObjPos prevPos, ObjPos previousVelocity) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream w = new DataOutputStream(bytes);
+        try {
+            w.writeInt(index);
+            w.writeUTF(name);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        pos.write(w);
+        velocity.write(w);
+        prevPos.write(w);
+        previousVelocity.write(w);
+        return bytes.toByteArray();
+    }
+
+    private static byte[][] encodeStream(ArrayList<ArrayList<byte[]>> fragments) {
+        byte[][] encoded = new byte[fragments.size()][];
+        for (int i = 0; i < fragments.size(); i++) {
+            ArrayList<byte[]> fragment = fragments.get(i);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream w = new DataOutputStream(bytes);
+            try {
+                w.writeInt(PacketType.PHYSICS_UPDATE.ordinal());
+                w.writeInt(0);
+                w.writeInt(0);
+                w.writeInt(BLOCKS);
+                w.writeShort(i);
+                w.writeShort(fragments.size());
+                w.writeShort(fragment.size());
+                w.writeInt(-1);
+                w.write(new byte[3]);
+                for (byte[] entry : fragment) {
+                    w.write(entry);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            encoded[i] = bytes.toByteArray();
+        }
+        return encoded;
+    }
+
+    //Reads a fragment into the same arrays as PhysicsSnapshotAssembler.Fragment, and collects the indices of
+    //the blocks as the assembler does. Returns the number of blocks
+    private static int decodeStream(byte[] bytes, HashSet<Integer> snapshotIndices) {
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            stream.readInt();
+            stream.readInt();
+            stream.readInt();
+            stream.readInt();
+            stream.readShort();
+            stream.readShort();
+            int count = stream.readShort();
+            stream.readInt();
+            stream.readBoolean();
+            stream.readBoolean();
+            stream.readBoolean();
+            int[] indices = new int[count];
+            String[] names = new String[count];
+            ObjPos[] positions = new ObjPos[count], prevPositions = new ObjPos[count];
+            ObjPos[] velocities = new ObjPos[count], prevVelocities = new ObjPos[count];
+            for (int i = 0; i < count; i++) {
+                indices[i] = stream.readInt();
+                names[i] = stream.readUTF();
+                positions[i] = ObjPos.read(stream);
+                velocities[i] = ObjPos.read(stream);
+                prevPositions[i] = ObjPos.read(stream);
+                prevVelocities[i] = ObjPos.read(stream);
+                snapshotIndices.add(indices[i]);
+            }
+            return count;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
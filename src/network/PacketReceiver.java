@@ -2,14 +2,19 @@ package network;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.function.Consumer;
 
 public record PacketReceiver(PacketType type, Consumer<DataInputStream> reader) {
     public static <T extends Enum<T>> T readEnum(Class<T> clazz, DataInputStream reader) {
         try {
-            return clazz.getEnumConstants()[reader.readInt()];
+            return clazz.getEnumConstants()[PacketCodec.readVarInt(reader)];
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
+
+    public static <T extends Enum<T>> T readEnum(Class<T> clazz, ByteBuffer buffer) {
+        return clazz.getEnumConstants()[PacketCodec.readVarInt(buffer)];
+    }
 }
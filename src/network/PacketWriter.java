@@ -1,11 +1,58 @@
 package network;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.function.Consumer;
 
-public record PacketWriter(PacketType type, boolean udp, Consumer<DataOutputStream> writer) {
+//Packets sent over TCP are written to a stream by the writer, and datagrams are encoded into a buffer by
+//the encoder, see PacketCodec. Only one of the two is set
+public record PacketWriter(PacketType type, boolean udp, Consumer<DataOutputStream> writer, Consumer<ByteBuffer> encoder) {
+    public PacketWriter(PacketType type, boolean udp, Consumer<DataOutputStream> writer) {
+        this(type, udp, writer, null);
+    }
+
+    public static PacketWriter datagram(PacketType type, Consumer<ByteBuffer> encoder) {
+        return new PacketWriter(type, true, null, encoder);
+    }
+
+    //Encodes the packet as it's sent in a datagram, with the packet type first, at the position of the buffer
+    public void encode(ByteBuffer buffer) {
+        if (encoder == null) {
+            buffer.put(toBytes());
+            return;
+        }
+        writeEnum(type, buffer);
+        encoder.accept(buffer);
+    }
+
+    //The packet as it's sent, with the packet type first
+    public byte[] toBytes() {
+        if (encoder != null) {
+            ByteBuffer buffer = PacketCodec.takeBuffer();
+            encode(buffer);
+            byte[] bytes = Arrays.copyOf(buffer.array(), buffer.position());
+            PacketCodec.returnBuffer(buffer);
+            return bytes;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeEnum(type, out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        writer.accept(out);
+        return bytes.toByteArray();
+    }
+
     public static <T extends Enum<T>> void writeEnum(T value, DataOutputStream writer) throws IOException {
-        writer.writeInt(value.ordinal());
+        PacketCodec.writeVarInt(writer, value.ordinal());
+    }
+
+    public static <T extends Enum<T>> void writeEnum(T value, ByteBuffer buffer) {
+        PacketCodec.writeVarInt(buffer, value.ordinal());
     }
 }
@@ -0,0 +1,46 @@
+package network;
+
+public class PhysicsBaselines {
+    /*
+     * The physics updates last sent to a client, which the next update can be encoded against once the
+     * client has acknowledged them, see PhysicsPacketiser. The client acknowledges an update when it has
+     * every fragment of it and has applied it, so the acknowledged update is one the client is known to
+     * have, even if later ones got lost.
+     *
+     * Only the last HISTORY updates are kept. If the client hasn't acknowledged any of them, for example
+     * because it only just connected, the acknowledgements got lost or the link is too slow, or the
+     * acknowledged update was for another level, the next update is sent in full.
+     *
+     * Updates are sent by the tick thread, acknowledgements are read by whichever thread reads datagrams.
+     */
+    public static final int HISTORY = 64;
+
+    private final PhysicsPacketiser.Snapshot[] sent = new PhysicsPacketiser.Snapshot[HISTORY];
+    private volatile int acknowledged = -1;
+
+    public long deltaUpdates = 0, fullUpdates = 0;
+
+    public synchronized void acknowledge(int sequence) {
+        if (sequence > acknowledged)
+            acknowledged = sequence;
+    }
+
+    //Returns the update to encode the next one against, or null if it has to be sent in full
+    public PhysicsPacketiser.Snapshot getBaseline(PhysicsPacketiser.Snapshot next) {
+        int sequence = acknowledged;
+        if (sequence == -1 || next.sequence - sequence >= HISTORY)
+            return null;
+        PhysicsPacketiser.Snapshot baseline = sent[sequence % HISTORY];
+        if (baseline == null || baseline.sequence != sequence || baseline.levelIndex != next.levelIndex)
+            return null;
+        return baseline;
+    }
+
+    public void sent(PhysicsPacketiser.Snapshot snapshot, PhysicsPacketiser.Snapshot baseline) {
+        sent[snapshot.sequence % HISTORY] = snapshot;
+        if (baseline == null)
+            fullUpdates++;
+        else
+            deltaUpdates++;
+    }
+}
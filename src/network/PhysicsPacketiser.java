@@ -0,0 +1,319 @@
+package network;
+
+import foundation.VelocityHandler;
+import foundation.math.ObjPos;
+import level.Level;
+import level.objects.PhysicsBlock;
+import level.objects.Player;
+import loader.AssetManager;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+public abstract class PhysicsPacketiser {
+    /*
+     * Physics updates used to be sent as a single datagram with every physics block in the level, which
+     * either got fragmented at the IP layer, where losing any fragment loses the whole datagram, or got
+     * truncated by the 4096 byte receive buffer of the client. Each update is now split into fragments
+     * that each fit into MAX_DATAGRAM_SIZE bytes, small enough to never be fragmented on a normal network.
+     *
+     * Every fragment has the full header of the update, and only whole blocks, so the client can use each
+     * fragment on its own as soon as it arrives, see PhysicsSnapshotAssembler. The blocks are sorted by
+     * distance to the client's player before being split, so the blocks nearest to its camera, including
+     * the player itself, are in the first fragment, and are sent first.
+     *
+     * Fragments are encoded with PacketCodec, with the ids and counts as varints and the player's inputs
+     * packed into a single byte.
+     *
+     * Updates are sent as the changes from a baseline, the last update the client has acknowledged, see
+     * PhysicsBaselines. The blocks in each update are captured into a Snapshot, with the position,
+     * velocity and previous velocity in fixed point, as multiples of 1 / FIXED_POINT_SCALE, and the name
+     * as its id in the sorted names of the blocks the AssetManager has loaded. Only the blocks that are
+     * new, removed or have a different fixed point state than in the baseline are sent, as the difference
+     * from the baseline, so resting blocks aren't sent at all. Updates without a baseline are sent as the
+     * changes from an empty level. The client's own player is always sent, so that its prediction gets
+     * corrected even when the server has it at rest.
+     *
+     * The previous position isn't sent, as the client never used it.
+     */
+    //The largest UDP payload, well below the usual 1500 byte MTU minus the IP and UDP headers
+    public static final int MAX_DATAGRAM_SIZE = 1200;
+    //The most the header can take up, with the packet type, sequence, baseline sequence, level index, block
+    //count, fragment index, fragment count and entry count, the player index, the player's inputs, and the
+    //last input handled from the client and the ticks since then, see PlayerPrediction
+    public static final int HEADER_SIZE = 1 + PacketCodec.MAX_VAR_INT_SIZE * 8 + 1 + PacketCodec.MAX_VAR_INT_SIZE * 2;
+    public static final int INPUT_SPACE = 1, INPUT_LEFT = 1 << 1, INPUT_RIGHT = 1 << 2;
+
+    //About a thousandth of a block, well below a pixel
+    public static final float FIXED_POINT_SCALE = 1024;
+    //The x and y of the position, velocity and previous velocity
+    public static final int VALUES_PER_BLOCK = 6;
+    //How an entry starts after its index. New blocks start with the id of their name plus ENTRY_NEW
+    public static final int ENTRY_REMOVED = 0, ENTRY_CHANGED = 1, ENTRY_NEW = 2;
+
+    private static String[] blockNames = null;
+    private static HashMap<String, Integer> blockNameIds = null;
+
+    //The names have to be the same on the server and the client. Only needs to be called if the blocks
+    //aren't loaded by the AssetManager
+    public static synchronized void setBlockNames(Collection<String> names) {
+        blockNames = names.stream().sorted().toArray(String[]::new);
+        blockNameIds = new HashMap<>();
+        for (int i = 0; i < blockNames.length; i++) {
+            blockNameIds.put(blockNames[i], i);
+        }
+    }
+
+    public static synchronized int getBlockNameId(String name) {
+        if (blockNames == null)
+            setBlockNames(AssetManager.blocks.keySet());
+        Integer id = blockNameIds.get(name);
+        if (id == null)
+            throw new RuntimeException("Physics block with name " + name + " has no name id");
+        return id;
+    }
+
+    public static synchronized String getBlockName(int id) {
+        if (blockNames == null)
+            setBlockNames(AssetManager.blocks.keySet());
+        if (id < 0 || id >= blockNames.length)
+            throw new RuntimeException("Physics update has unknown block name id " + id);
+        return blockNames[id];
+    }
+
+    //The physics blocks of a level at one update, in fixed point and ordered by index. Never changed once
+    //it has been sent or assembled
+    public static final class Snapshot {
+        public final int sequence, levelIndex;
+        final int[] indices, nameIds, values;
+
+        //The blocks have to be set in order of increasing index
+        public Snapshot(int sequence, int levelIndex, int count) {
+            this.sequence = sequence;
+            this.levelIndex = levelIndex;
+            indices = new int[count];
+            nameIds = new int[count];
+            values = new int[count * VALUES_PER_BLOCK];
+        }
+
+        public void set(int i, int index, String name, ObjPos pos, ObjPos velocity, ObjPos previousVelocity) {
+            set(i, index, getBlockNameId(name), toFixedPoint(pos.x), toFixedPoint(pos.y), toFixedPoint(velocity.x), toFixedPoint(velocity.y),
+                    toFixedPoint(previousVelocity.x), toFixedPoint(previousVelocity.y));
+        }
+
+        void set(int i, int index, int nameId, int... blockValues) {
+            indices[i] = index;
+            nameIds[i] = nameId;
+            System.arraycopy(blockValues, 0, values, i * VALUES_PER_BLOCK, VALUES_PER_BLOCK);
+        }
+
+        public int count() {
+            return indices.length;
+        }
+
+        //Returns where the block with the given index is, or a negative number if it isn't in the snapshot
+        public int find(int index) {
+            return Arrays.binarySearch(indices, index);
+        }
+
+        public int getIndex(int i) {
+            return indices[i];
+        }
+
+        public String getName(int i) {
+            return getBlockName(nameIds[i]);
+        }
+
+        public ObjPos getPos(int i) {
+            return new ObjPos(fromFixedPoint(values[i * VALUES_PER_BLOCK]), fromFixedPoint(values[i * VALUES_PER_BLOCK + 1]));
+        }
+
+        public VelocityHandler getVelocity(int i) {
+            return new VelocityHandler(fromFixedPoint(values[i * VALUES_PER_BLOCK + 2]), fromFixedPoint(values[i * VALUES_PER_BLOCK + 3]));
+        }
+
+        public VelocityHandler getPreviousVelocity(int i) {
+            return new VelocityHandler(fromFixedPoint(values[i * VALUES_PER_BLOCK + 4]), fromFixedPoint(values[i * VALUES_PER_BLOCK + 5]));
+        }
+
+        public boolean sameBlocks(Snapshot other) {
+            return Arrays.equals(indices, other.indices) && Arrays.equals(nameIds, other.nameIds) && Arrays.equals(values, other.values);
+        }
+
+        private boolean sameBlock(int i, Snapshot other, int j) {
+            return nameIds[i] == other.nameIds[j] && Arrays.equals(values, i * VALUES_PER_BLOCK, (i + 1) * VALUES_PER_BLOCK,
+                    other.values, j * VALUES_PER_BLOCK, (j + 1) * VALUES_PER_BLOCK);
+        }
+    }
+
+    public static int toFixedPoint(float f) {
+        return Math.round(f * FIXED_POINT_SCALE);
+    }
+
+    public static float fromFixedPoint(int i) {
+        return i / FIXED_POINT_SCALE;
+    }
+
+    //A physics block as it's written into an update, encoded once and shared by all fragments, and by all
+    //clients that have the same baseline
+    public record Entry(int index, float x, float y, byte[] bytes) {
+        public float distanceSquared(ObjPos pos) {
+            return (x - pos.x) * (x - pos.x) + (y - pos.y) * (y - pos.y);
+        }
+    }
+
+    public static Snapshot capture(int sequence, Level l) {
+        ArrayList<PhysicsBlock> blocks = new ArrayList<>();
+        l.dynamicBlocks.forEach(d -> {
+            if (d instanceof PhysicsBlock b)
+                blocks.add(b);
+        });
+        blocks.sort(Comparator.comparingInt(b -> b.index));
+        Snapshot snapshot = new Snapshot(sequence, l.levelIndex, blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            PhysicsBlock b = blocks.get(i);
+            snapshot.set(i, b.index, b.name, b.pos, b.velocity, b.previousVelocity);
+        }
+        return snapshot;
+    }
+
+    //Encodes the blocks that changed since the baseline, which can be null to send every block
+    public static ArrayList<Entry> encodeDelta(Snapshot snapshot, Snapshot baseline) {
+        ArrayList<Entry> entries = new ArrayList<>();
+        int baselineCount = baseline == null ? 0 : baseline.count();
+        int i = 0, j = 0;
+        while (i < snapshot.count() || j < baselineCount) {
+            if (i == snapshot.count() || (j < baselineCount && baseline.indices[j] < snapshot.indices[i])) {
+                entries.add(encodeEntry(baseline, j, null, -1, true));
+                j++;
+            } else if (j < baselineCount && baseline.indices[j] == snapshot.indices[i]) {
+                if (!snapshot.sameBlock(i, baseline, j))
+                    entries.add(encodeEntry(snapshot, i, baseline, j, false));
+                i++;
+                j++;
+            } else {
+                entries.add(encodeEntry(snapshot, i, null, -1, false));
+                i++;
+            }
+        }
+        return entries;
+    }
+
+    //Encodes the i-th block of the snapshot as the difference from the j-th block of the baseline, as a new
+    //block if it isn't in the baseline, or the removal of the block
+    private static Entry encodeEntry(Snapshot snapshot, int i, Snapshot baseline, int j, boolean removed) {
+        ByteBuffer buffer = PacketCodec.takeBuffer();
+        PacketCodec.writeVarInt(buffer, snapshot.indices[i]);
+        if (removed) {
+            PacketCodec.writeVarInt(buffer, ENTRY_REMOVED);
+        } else {
+            //A block whose index was reused for another block is sent as new
+            boolean changed = baseline != null && baseline.nameIds[j] == snapshot.nameIds[i];
+            PacketCodec.writeVarInt(buffer, changed ? ENTRY_CHANGED : ENTRY_NEW + snapshot.nameIds[i]);
+            for (int k = 0; k < VALUES_PER_BLOCK; k++) {
+                int value = snapshot.values[i * VALUES_PER_BLOCK + k];
+                PacketCodec.writeSignedVarInt(buffer, changed ? value - baseline.values[j * VALUES_PER_BLOCK + k] : value);
+            }
+        }
+        byte[] bytes = Arrays.copyOf(buffer.array(), buffer.position());
+        PacketCodec.returnBuffer(buffer);
+        return new Entry(snapshot.indices[i], fromFixedPoint(snapshot.values[i * VALUES_PER_BLOCK]),
+                fromFixedPoint(snapshot.values[i * VALUES_PER_BLOCK + 1]), bytes);
+    }
+
+    //Splits the update into fragments, with the entries closest to the origin first. The origin can be null
+    //to keep the order of the entries. At least one fragment is always sent, so that the client can complete
+    //and acknowledge updates with nothing in them
+    public static ArrayList<PacketWriter> packetise(Snapshot snapshot, Snapshot baseline, Player player, ObjPos origin, ArrayList<Entry> entries) {
+        ArrayList<Entry> sorted = entries;
+        if (player != null) {
+            int i = snapshot.find(player.index);
+            if (i >= 0 && entries.stream().noneMatch(e -> e.index == player.index)) {
+                int j = baseline == null ? -1 : baseline.find(player.index);
+                sorted = new ArrayList<>(entries);
+                sorted.add(encodeEntry(snapshot, i, j < 0 ? null : baseline, j, false));
+            }
+        }
+        if (origin != null) {
+            sorted = new ArrayList<>(sorted);
+            sorted.sort(Comparator.comparingDouble(e -> e.distanceSquared(origin)));
+        }
+        ArrayList<ArrayList<Entry>> fragments = new ArrayList<>();
+        fragments.add(new ArrayList<>());
+        int size = HEADER_SIZE;
+        for (Entry e : sorted) {
+            if (size + e.bytes.length > MAX_DATAGRAM_SIZE) {
+                fragments.add(new ArrayList<>());
+                size = HEADER_SIZE;
+            }
+            fragments.get(fragments.size() - 1).add(e);
+            size += e.bytes.length;
+        }
+        if (fragments.size() > Short.MAX_VALUE)
+            throw new RuntimeException("Physics update with " + sorted.size() + " blocks needs too many fragments");
+
+        //Read now rather than when the fragments are encoded, so that they match the encoded entries
+        int inputSequence = player == null ? -1 : player.lastInputSequence, ticksSinceInput = player == null ? 0 : player.ticksSinceInput;
+        int sequence = snapshot.sequence, baselineSequence = baseline == null ? -1 : baseline.sequence;
+        ArrayList<PacketWriter> packets = new ArrayList<>();
+        for (int i = 0; i < fragments.size(); i++) {
+            ArrayList<Entry> fragment = fragments.get(i);
+            int fragmentIndex = i, fragmentCount = fragments.size(), blockCount = snapshot.count();
+            packets.add(PacketWriter.datagram(PacketType.PHYSICS_UPDATE, b -> {
+                PacketCodec.writeVarInt(b, sequence);
+                PacketCodec.writeVarInt(b, baselineSequence + 1);
+                PacketCodec.writeVarInt(b, snapshot.levelIndex);
+                PacketCodec.writeVarInt(b, blockCount);
+                PacketCodec.writeVarInt(b, fragmentIndex);
+                PacketCodec.writeVarInt(b, fragmentCount);
+                PacketCodec.writeVarInt(b, fragment.size());
+                if (player == null) {
+                    PacketCodec.writeVarInt(b, 0);
+                    b.put((byte) 0);
+                } else {
+                    //Plus one, so that no player is 0
+                    PacketCodec.writeVarInt(b, player.index + 1);
+                    b.put((byte) ((player.space ? INPUT_SPACE : 0) | (player.left ? INPUT_LEFT : 0) | (player.right ? INPUT_RIGHT : 0)));
+                }
+                PacketCodec.writeVarInt(b, inputSequence + 1);
+                PacketCodec.writeVarInt(b, ticksSinceInput);
+                for (Entry e : fragment) {
+                    b.put(e.bytes);
+                }
+            }));
+        }
+        return packets;
+    }
+
+    //Sent by the client once it has every fragment of an update and has applied it
+    public static PacketWriter acknowledge(int sequence) {
+        return PacketWriter.datagram(PacketType.PHYSICS_ACK, b -> PacketCodec.writeVarInt(b, sequence));
+    }
+
+    //Builds the snapshot the client ends up with from the baseline and the entries of an update, with the
+    //fixed point state of each changed or new block by its index
+    static Snapshot assemble(int sequence, int levelIndex, Snapshot baseline, TreeMap<Integer, int[]> changes) {
+        TreeMap<Integer, int[]> blocks = new TreeMap<>();
+        if (baseline != null) {
+            for (int i = 0; i < baseline.count(); i++) {
+                int[] block = new int[VALUES_PER_BLOCK + 1];
+                block[0] = baseline.nameIds[i];
+                System.arraycopy(baseline.values, i * VALUES_PER_BLOCK, block, 1, VALUES_PER_BLOCK);
+                blocks.put(baseline.indices[i], block);
+            }
+        }
+        changes.forEach((index, block) -> {
+            //Removed blocks have no state
+            if (block == null)
+                blocks.remove(index);
+            else
+                blocks.put(index, block);
+        });
+        Snapshot snapshot = new Snapshot(sequence, levelIndex, blocks.size());
+        int i = 0;
+        for (Map.Entry<Integer, int[]> block : blocks.entrySet()) {
+            snapshot.set(i++, block.getKey(), block.getValue()[0], Arrays.copyOfRange(block.getValue(), 1, VALUES_PER_BLOCK + 1));
+        }
+        return snapshot;
+    }
+}
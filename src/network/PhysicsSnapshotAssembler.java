@@ -0,0 +1,161 @@
+package network;
+
+import foundation.VelocityHandler;
+import foundation.math.ObjPos;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+public class PhysicsSnapshotAssembler {
+    /*
+     * Collects the fragments of physics updates from the server, see PhysicsPacketiser. Each fragment
+     * can be used on its own to update the blocks in it, but blocks that aren't in the update can only be
+     * removed once every fragment of the update has arrived, otherwise blocks in lost fragments would be
+     * removed.
+     *
+     * Updates are numbered, and fragments of updates older than the newest one seen are dropped, as are
+     * fragments that arrive twice. If a newer update arrives before the current one is complete, the rest
+     * of the current one is treated as lost. Fragments must be read by a single thread.
+     *
+     * Updates only have the blocks that changed since their baseline, an earlier update the client has
+     * acknowledged. The last PhysicsBaselines.HISTORY complete updates are kept to decode the changes
+     * against, and fragments of updates whose baseline isn't kept any more are dropped.
+     */
+    private int sequence = -1;
+    private boolean[] received = new boolean[0];
+    private int receivedCount = 0;
+    private PhysicsPacketiser.Snapshot baseline = null;
+    //The fixed point state of the changed blocks by index, null for removed blocks
+    private TreeMap<Integer, int[]> changes = new TreeMap<>();
+    private final PhysicsPacketiser.Snapshot[] completed = new PhysicsPacketiser.Snapshot[PhysicsBaselines.HISTORY];
+
+    public long fragmentsReceived = 0, staleFragments = 0, duplicateFragments = 0, missingBaselineFragments = 0;
+    public long completeSnapshots = 0, incompleteSnapshots = 0;
+
+    //Reads a fragment, the packet type must already have been read. Returns null if the fragment should be dropped
+    public Fragment read(ByteBuffer buffer) {
+        Fragment f = new Fragment(buffer);
+        fragmentsReceived++;
+        if (f.sequence < sequence) {
+            staleFragments++;
+            return null;
+        }
+        if (f.sequence > sequence) {
+            if (sequence != -1 && receivedCount != received.length)
+                incompleteSnapshots++;
+            sequence = f.sequence;
+            received = new boolean[f.fragmentCount];
+            receivedCount = 0;
+            baseline = getCompleted(f.baselineSequence);
+            changes = new TreeMap<>();
+        }
+        if (f.baselineSequence != -1 && (baseline == null || baseline.sequence != f.baselineSequence)) {
+            missingBaselineFragments++;
+            return null;
+        }
+        if (f.fragmentIndex >= received.length || received[f.fragmentIndex]) {
+            duplicateFragments++;
+            return null;
+        }
+        f.readEntries(buffer, baseline, changes);
+        received[f.fragmentIndex] = true;
+        receivedCount++;
+        if (receivedCount == received.length) {
+            PhysicsPacketiser.Snapshot snapshot = PhysicsPacketiser.assemble(f.sequence, f.levelIndex, baseline, changes);
+            if (snapshot.count() != f.blockCount)
+                throw new RuntimeException("Physics update has " + snapshot.count() + " blocks instead of " + f.blockCount);
+            completed[f.sequence % PhysicsBaselines.HISTORY] = snapshot;
+            completeSnapshots++;
+            f.snapshot = snapshot;
+        }
+        return f;
+    }
+
+    //Returns the complete update with the given sequence, or null if it isn't kept
+    public PhysicsPacketiser.Snapshot getCompleted(int sequence) {
+        if (sequence < 0)
+            return null;
+        PhysicsPacketiser.Snapshot snapshot = completed[sequence % PhysicsBaselines.HISTORY];
+        return snapshot != null && snapshot.sequence == sequence ? snapshot : null;
+    }
+
+    public static class Fragment {
+        public final int sequence, baselineSequence, levelIndex, blockCount, fragmentIndex, fragmentCount, playerIndex;
+        //The last input the server handled from this client, and the ticks since then, see PlayerPrediction
+        public final int inputSequence, ticksSinceInput;
+        public final boolean space, left, right;
+        private final int count;
+        //The blocks that are new or changed, removed blocks are only in the snapshot
+        public int[] indices;
+        public String[] names;
+        public ObjPos[] positions;
+        public VelocityHandler[] velocities, prevVelocities;
+        //Every block in the update, only set on the fragment that completes it
+        public PhysicsPacketiser.Snapshot snapshot = null;
+
+        private Fragment(ByteBuffer buffer) {
+            sequence = PacketCodec.readVarInt(buffer);
+            baselineSequence = PacketCodec.readVarInt(buffer) - 1;
+            levelIndex = PacketCodec.readVarInt(buffer);
+            blockCount = PacketCodec.readVarInt(buffer);
+            fragmentIndex = PacketCodec.readVarInt(buffer);
+            fragmentCount = PacketCodec.readVarInt(buffer);
+            count = PacketCodec.readVarInt(buffer);
+            playerIndex = PacketCodec.readVarInt(buffer) - 1;
+            byte inputs = buffer.get();
+            space = (inputs & PhysicsPacketiser.INPUT_SPACE) != 0;
+            left = (inputs & PhysicsPacketiser.INPUT_LEFT) != 0;
+            right = (inputs & PhysicsPacketiser.INPUT_RIGHT) != 0;
+            inputSequence = PacketCodec.readVarInt(buffer) - 1;
+            ticksSinceInput = PacketCodec.readVarInt(buffer);
+        }
+
+        //Decodes the entries against the baseline, which is null for updates sent in full, and adds them
+        //to the changes
+        private void readEntries(ByteBuffer buffer, PhysicsPacketiser.Snapshot baseline, TreeMap<Integer, int[]> changes) {
+            int[] changedIndices = new int[count];
+            String[] changedNames = new String[count];
+            ObjPos[] changedPositions = new ObjPos[count];
+            VelocityHandler[] changedVelocities = new VelocityHandler[count], changedPrevVelocities = new VelocityHandler[count];
+            int changed = 0;
+            for (int i = 0; i < count; i++) {
+                int index = PacketCodec.readVarInt(buffer);
+                int kind = PacketCodec.readVarInt(buffer);
+                if (kind == PhysicsPacketiser.ENTRY_REMOVED) {
+                    changes.put(index, null);
+                    continue;
+                }
+                int j = -1;
+                int[] block = new int[PhysicsPacketiser.VALUES_PER_BLOCK + 1];
+                if (kind == PhysicsPacketiser.ENTRY_CHANGED) {
+                    j = baseline == null ? -1 : baseline.find(index);
+                    if (j < 0)
+                        throw new RuntimeException("Physics update changes block " + index + ", which isn't in its baseline");
+                    block[0] = baseline.nameIds[j];
+                } else {
+                    block[0] = kind - PhysicsPacketiser.ENTRY_NEW;
+                }
+                for (int k = 0; k < PhysicsPacketiser.VALUES_PER_BLOCK; k++) {
+                    block[k + 1] = PacketCodec.readSignedVarInt(buffer) + (j < 0 ? 0 : baseline.values[j * PhysicsPacketiser.VALUES_PER_BLOCK + k]);
+                }
+                changes.put(index, block);
+                changedIndices[changed] = index;
+                changedNames[changed] = PhysicsPacketiser.getBlockName(block[0]);
+                changedPositions[changed] = new ObjPos(PhysicsPacketiser.fromFixedPoint(block[1]), PhysicsPacketiser.fromFixedPoint(block[2]));
+                changedVelocities[changed] = new VelocityHandler(PhysicsPacketiser.fromFixedPoint(block[3]), PhysicsPacketiser.fromFixedPoint(block[4]));
+                changedPrevVelocities[changed] = new VelocityHandler(PhysicsPacketiser.fromFixedPoint(block[5]), PhysicsPacketiser.fromFixedPoint(block[6]));
+                changed++;
+            }
+            indices = Arrays.copyOf(changedIndices, changed);
+            names = Arrays.copyOf(changedNames, changed);
+            positions = Arrays.copyOf(changedPositions, changed);
+            velocities = Arrays.copyOf(changedVelocities, changed);
+            prevVelocities = Arrays.copyOf(changedPrevVelocities, changed);
+        }
+
+        public boolean completesSnapshot() {
+            return snapshot != null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package network;
+
+import foundation.math.ObjPos;
+
+public class PlayerPrediction {
+    /*
+     * The client's own player used to be pulled towards the position in the last physics update, which
+     * is at least a round trip behind the inputs, so the player only responded to them once the server
+     * had. The client now moves its player itself with the same physics as the server, and uses the
+     * physics updates to correct it.
+     *
+     * Inputs sent to the server are numbered, and the server sends back, with each physics update, the
+     * number of the last input it has handled for that player, and how many ticks it has moved the player
+     * since. The client records its player's position and velocity at the start of each tick, so it knows
+     * where it had the player that many ticks after it sent that input. The difference between that and
+     * where the server has the player is how far off the prediction was.
+     *
+     * Rewinding and replaying the ticks since then isn't possible for a single object, as collisions are
+     * solved by the level's collision handler for every object at once. Instead, the error is added to
+     * the player's current position and velocity, and to the positions recorded since, so that the next
+     * update isn't corrected for it again. This is the same as replaying the ticks from the corrected
+     * state for as long as the player doesn't hit anything the correction would have changed.
+     *
+     * Only used by the tick thread.
+     */
+    //How many ticks are recorded, updates for ticks further back than this can't be matched to a tick
+    public static final int HISTORY_TICKS = 512;
+    //Updates that can't be matched to a recorded tick, for example before the server has handled any
+    //inputs, only move the player if it's further than this from where the server has it
+    public static final float SNAP_DISTANCE = 0.5f;
+
+    private final float[] x = new float[HISTORY_TICKS], y = new float[HISTORY_TICKS];
+    private final float[] velocityX = new float[HISTORY_TICKS], velocityY = new float[HISTORY_TICKS];
+    private final long[] inputTicks = new long[HISTORY_TICKS];
+    private long tick = 0;
+    private int inputSequence = -1;
+
+    public long corrections = 0, snaps = 0;
+    public double totalError = 0;
+
+    //Numbers the next input sent to the server
+    public int nextInput() {
+        inputSequence++;
+        inputTicks[inputSequence % HISTORY_TICKS] = tick;
+        return inputSequence;
+    }
+
+    //Called at the start of each of the player's ticks, before its inputs are applied
+    public void record(ObjPos pos, ObjPos velocity) {
+        int i = (int) (tick % HISTORY_TICKS);
+        x[i] = pos.x;
+        y[i] = pos.y;
+        velocityX[i] = velocity.x;
+        velocityY[i] = velocity.y;
+        tick++;
+    }
+
+    //Corrects the predicted pos and velocity with a physics update from the server, which had handled the
+    //input with the given number ticksSinceInput ticks before the update
+    public void reconcile(int acknowledgedInput, int ticksSinceInput, ObjPos serverPos, ObjPos serverVelocity, ObjPos pos, ObjPos velocity) {
+        long t = -1;
+        if (acknowledgedInput >= 0 && acknowledgedInput <= inputSequence && inputSequence - acknowledgedInput < HISTORY_TICKS) {
+            t = inputTicks[acknowledgedInput % HISTORY_TICKS] + ticksSinceInput;
+            //The client can skip ticks when it falls behind, so the server can be ahead of the recorded ticks
+            if (t >= tick || tick - t > HISTORY_TICKS)
+                t = -1;
+        }
+        if (t < 0) {
+            if (pos.distance(serverPos) > SNAP_DISTANCE) {
+                snaps++;
+                pos.set(serverPos);
+                velocity.set(serverVelocity);
+            }
+            return;
+        }
+        int i = (int) (t % HISTORY_TICKS);
+        float errorX = serverPos.x - x[i], errorY = serverPos.y - y[i];
+        float errorVelocityX = serverVelocity.x - velocityX[i], errorVelocityY = serverVelocity.y - velocityY[i];
+        corrections++;
+        totalError += Math.sqrt(errorX * errorX + errorY * errorY);
+        pos.add(errorX, errorY);
+        velocity.add(errorVelocityX, errorVelocityY);
+        for (long j = t; j < tick; j++) {
+            int k = (int) (j % HISTORY_TICKS);
+            x[k] += errorX;
+            y[k] += errorY;
+            velocityX[k] += errorVelocityX;
+            velocityY[k] += errorVelocityY;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package network;
+
+import foundation.VelocityHandler;
+import foundation.math.ObjPos;
+import foundation.tick.Tick;
+import level.objects.PhysicsObject;
+import level.objects.Player;
+
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+public abstract class PredictionLatencyTest {
+    /*
+     * Moves a player left and right on flat ground with a random sequence of key presses, on a server and
+     * on a client, with the same movement the game uses, and puts a simulated link between the two that
+     * delays everything sent by a latency plus a random jitter, keeping the order of the packets as TCP
+     * would for inputs. The server handles inputs as they arrive and sends physics updates every
+     * SNAPSHOT_INTERVAL ticks, like MainPanel does.
+     *
+     * The client either follows the position in the physics updates, the way it used to, or predicts its
+     * player and corrects it with the updates, see PlayerPrediction. Reports how long the player on the
+     * client takes to respond to a key press, measured as the time until its velocity has changed by
+     * RESPONSE_VELOCITY towards the key, and for prediction, how far the updates move the player.
+     *
+     * This runs on ticks rather than real sockets, as the client can't be run without the game window.
+     * Fails if, at any latency, the predicted player takes more than a tick longer to respond than it does
+     * without latency. Run on its own, with the exit status showing whether it passed.
+     */
+    private static final int TICKS = 3000, SNAPSHOT_INTERVAL = 3;
+    private static final int[] LATENCIES_MS = new int[]{0, 50, 100, 200};
+    private static final int JITTER_MS = 20;
+    private static final float RESPONSE_VELOCITY = 1, FRICTION = 1;
+    private static final float DELTA_TIME = Tick.MAX_DELTA_TIME;
+    private static final ObjPos NO_GRAVITY = new ObjPos();
+
+    private record Input(int tick, boolean left, boolean right) {
+    }
+
+    private record Sent<T>(int arrival, T packet) {
+    }
+
+    private record InputPacket(int sequence, boolean left, boolean right) {
+    }
+
+    private record Snapshot(int inputSequence, int ticksSinceInput, ObjPos pos, ObjPos velocity) {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run() ? 0 : 1);
+    }
+
+    //Returns whether prediction responded as fast as without latency, at every latency
+    public static boolean run() {
+        Random random = new Random(0);
+        ArrayList<Input> inputs = new ArrayList<>();
+        for (int tick = 50; tick < TICKS - 100; tick += 20 + random.nextInt(80)) {
+            int direction = random.nextInt(3);
+            inputs.add(new Input(tick, direction == 1, direction == 2));
+        }
+
+        System.out.println("--------------------[ Prediction latency test ]---------------");
+        System.out.println("ticks: " + TICKS + ", key changes: " + inputs.size() + ", jitter: " + JITTER_MS + " ms, updates every " + SNAPSHOT_INTERVAL + " ticks");
+        float[] withoutLatency = simulateWithoutLatency(inputs);
+        System.out.println("without latency: " + formatResponse(inputs, withoutLatency));
+        boolean passed = true;
+        for (int latency : LATENCIES_MS) {
+            System.out.println("one way latency " + latency + " ms:");
+            runLink("following the server", inputs, latency, false);
+            float[] predicted = runLink("prediction", inputs, latency, true);
+            if (!(getResponseTime(inputs, predicted) <= getResponseTime(inputs, withoutLatency) + DELTA_TIME * 1000))
+                passed = false;
+        }
+        System.out.println("result: " + (passed ? "PASSED" : "FAILED"));
+        System.out.println("---------------------------------------------------------------");
+        return passed;
+    }
+
+    //Returns the x position of the player on the client after each tick
+    private static float[] runLink(String name, ArrayList<Input> inputs, int latency, boolean predict) {
+        Random random = new Random(latency);
+        ObjPos serverPos = new ObjPos();
+        VelocityHandler serverVelocity = new VelocityHandler();
+        boolean serverLeft = false, serverRight = false;
+        int lastInputSequence = -1, ticksSinceInput = 0;
+
+        ObjPos pos = new ObjPos(), followedPos = new ObjPos();
+        VelocityHandler velocity = new VelocityHandler();
+        boolean left = false, right = false;
+        PlayerPrediction prediction = new PlayerPrediction();
+        int sequence = 0;
+
+        ArrayDeque<Sent<InputPacket>> toServer = new ArrayDeque<>();
+        ArrayDeque<Sent<Snapshot>> toClient = new ArrayDeque<>();
+        int lastInputArrival = 0;
+        float[] client = new float[TICKS];
+        float maxCorrection = 0;
+        int nextInput = 0;
+        for (int tick = 0; tick < TICKS; tick++) {
+            //Server
+            while (!toServer.isEmpty() && toServer.peek().arrival <= tick) {
+                InputPacket p = toServer.poll().packet;
+                serverLeft = p.left;
+                serverRight = p.right;
+                lastInputSequence = p.sequence;
+                ticksSinceInput = 0;
+            }
+            ticksSinceInput++;
+            move(serverPos, serverVelocity, serverLeft, serverRight);
+            if (tick % SNAPSHOT_INTERVAL == 0)
+                toClient.add(new Sent<>(tick + delay(latency, random), new Snapshot(lastInputSequence, ticksSinceInput, serverPos.copy(), serverVelocity.copyAsVelocityHandler())));
+
+            //Client
+            while (!toClient.isEmpty() && toClient.peek().arrival <= tick) {
+                Snapshot s = toClient.poll().packet;
+                if (predict) {
+                    ObjPos predicted = pos.copy();
+                    prediction.reconcile(s.inputSequence, s.ticksSinceInput, s.pos, s.velocity, pos, velocity);
+                    maxCorrection = Math.max(maxCorrection, pos.distance(predicted));
+                } else {
+                    followedPos = s.pos;
+                    velocity.set(s.velocity);
+                }
+            }
+            if (nextInput < inputs.size() && inputs.get(nextInput).tick == tick) {
+                Input input = inputs.get(nextInput++);
+                left = input.left;
+                right = input.right;
+                int s = predict ? prediction.nextInput() : sequence++;
+                //Inputs go over TCP, so they can't overtake each other
+                lastInputArrival = Math.max(lastInputArrival, tick + delay(latency, random));
+                toServer.add(new Sent<>(lastInputArrival, new InputPacket(s, left, right)));
+            }
+            if (predict)
+                prediction.record(pos, velocity);
+            else {
+                pos.tickLerpTo(DELTA_TIME, 3, followedPos);
+                pos.tickExponentialTo(DELTA_TIME, 20, followedPos);
+                if (pos.distance(followedPos) > 0.5f)
+                    pos.set(followedPos);
+            }
+            move(pos, velocity, left, right);
+            client[tick] = pos.x;
+        }
+        String result = "  " + name + ": " + formatResponse(inputs, client);
+        if (predict)
+            result += ", corrections: " + prediction.corrections + ", mean correction: " + (float) (prediction.totalError / Math.max(1, prediction.corrections))
+                    + ", max: " + maxCorrection + ", snaps: " + prediction.snaps;
+        System.out.println(result);
+        return client;
+    }
+
+    private static float[] simulateWithoutLatency(ArrayList<Input> inputs) {
+        float[] xs = new float[TICKS];
+        ObjPos pos = new ObjPos();
+        VelocityHandler velocity = new VelocityHandler();
+        boolean left = false, right = false;
+        int nextInput = 0;
+        for (int tick = 0; tick < TICKS; tick++) {
+            if (nextInput < inputs.size() && inputs.get(nextInput).tick == tick) {
+                left = inputs.get(nextInput).left;
+                right = inputs.get(nextInput++).right;
+            }
+            move(pos, velocity, left, right);
+            xs[tick] = pos.x;
+        }
+        return xs;
+    }
+
+    //The horizontal movement of Player on the ground
+    private static void move(ObjPos pos, VelocityHandler velocity, boolean left, boolean right) {
+        if (left && !right)
+            velocity.x -= Player.MOVEMENT_ACCELERATION * DELTA_TIME;
+        if (!left && right)
+            velocity.x += Player.MOVEMENT_ACCELERATION * DELTA_TIME;
+        PhysicsObject.integrateMovement(pos, velocity, NO_GRAVITY, FRICTION, DELTA_TIME);
+    }
+
+    private static int delay(int latency, Random random) {
+        return Math.round((latency + random.nextFloat() * JITTER_MS) / 1000f / DELTA_TIME);
+    }
+
+    private static String formatResponse(ArrayList<Input> inputs, float[] xs) {
+        float responseTime = getResponseTime(inputs, xs);
+        return "response time: " + (Float.isNaN(responseTime) ? "-" : responseTime + " ms") + " (" + getResponses(inputs, xs)[1] + " key presses)";
+    }
+
+    //The mean time in ms from pressing a key until the velocity has changed by RESPONSE_VELOCITY towards it,
+    //or NaN if the player never responded. Key changes that don't change the direction, and ones that the
+    //player doesn't respond to before the next one, aren't counted
+    private static float getResponseTime(ArrayList<Input> inputs, float[] xs) {
+        long[] response = getResponses(inputs, xs);
+        return response[1] == 0 ? Float.NaN : response[0] * DELTA_TIME * 1000 / response[1];
+    }
+
+    //Returns the total ticks until the player responded, and the number of key presses counted
+    private static long[] getResponses(ArrayList<Input> inputs, float[] xs) {
+        long total = 0;
+        int count = 0;
+        for (int i = 1; i < inputs.size() - 1; i++) {
+            Input input = inputs.get(i), previous = inputs.get(i - 1);
+            if (input.left == input.right || (input.left == previous.left && input.right == previous.right))
+                continue;
+            float start = (xs[input.tick - 1] - xs[input.tick - 2]) / DELTA_TIME;
+            for (int tick = input.tick; tick < inputs.get(i + 1).tick; tick++) {
+                float velocity = (xs[tick] - xs[tick - 1]) / DELTA_TIME;
+                if ((input.left ? start - velocity : velocity - start) >= RESPONSE_VELOCITY) {
+                    total += tick - input.tick + 1;
+                    count++;
+                    break;
+                }
+            }
+        }
+        return new long[]{total, count};
+    }
+}
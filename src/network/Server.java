@@ -4,22 +4,55 @@ import foundation.MainPanel;
 import foundation.input.InputEvent;
 import foundation.input.InputType;
 import level.Level;
-import level.objects.PhysicsBlock;
 import level.objects.Player;
 
 import java.io.*;
 import java.net.*;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedTransferQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Server {
     public static final int TCP_PORT = 37001, UDP_SERVER_PORT = 37002, UDP_CLIENT_PORT = 37003;
+    public static final boolean DEBUG_LOAD_TEST = false, DEBUG_PHYSICS_BANDWIDTH = false;
+    /*
+     * All sockets are handled by a single thread waiting on a selector, rather than a thread for accepting
+     * clients, one for UDP, and a reader and a writer thread for each client. Queued packets wake up the
+     * selector, and are written straight away instead of every 5 ms. TCP packets are encoded into a direct
+     * buffer per client, and if the socket can't take all of it, the rest is written once the selector
+     * says the socket is writable again.
+     *
+     * Packets from clients aren't prefixed with their length, so the bytes read from a client are kept
+     * until a whole packet can be read from them.
+     *
+     * Setting useSelector to false before the server is created goes back to the blocking sockets with
+     * threads, which ServerLoadTest compares against.
+     */
+    public static boolean useSelector = true;
+    /*
+     * Without the selector, each client's writer thread waits on a blocking queue of packets, and writes
+     * each one as soon as it's queued. Setting this to false goes back to the writer checking a set of
+     * queued packets every 5 ms, for ServerLoadTest to compare against. Only read when a client connects.
+     */
+    public static boolean transferQueueWriters = true;
+    private static final int READ_BUFFER_SIZE = 4096, WRITE_BUFFER_SIZE = 16384;
+
     public ConcurrentHashMap<Integer, ClientHandler> clients = new ConcurrentHashMap<>();
     public ConcurrentHashMap<InetAddress, ClientHandler> clientsByAddress = new ConcurrentHashMap<>();
     public static DatagramSocket udpSocketReceive, udpSocketSend;
+    private ServerSocket serverSocket;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private DatagramChannel udpChannelReceive, udpChannelSend;
+    //Clients with packets queued, for the selector thread to write
+    private final ConcurrentLinkedQueue<ClientHandler> pendingClients = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
 
     public HashSet<Integer> getClientIDs() {
         HashSet<Integer> ids = new HashSet<>();
@@ -28,14 +61,20 @@ public class Server {
     }
 
     public Server() {
-        ServerSocket serverSocket;
         try {
-            udpSocketReceive = new DatagramSocket(UDP_SERVER_PORT);
-            udpSocketSend = new DatagramSocket(UDP_CLIENT_PORT);
-            serverSocket = new ServerSocket(TCP_PORT);
+            if (useSelector)
+                startSelector();
+            else
+                startThreads();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+    }
+
+    private void startThreads() throws IOException {
+        udpSocketReceive = new DatagramSocket(UDP_SERVER_PORT);
+        udpSocketSend = new DatagramSocket(UDP_CLIENT_PORT);
+        serverSocket = new ServerSocket(TCP_PORT);
         new Thread(() -> {
             byte[] receiveBuffer = new byte[4096];
             while (true) {
@@ -47,7 +86,11 @@ public class Server {
                         ByteArrayInputStream bytes = new ByteArrayInputStream(packet.getData());
                         client.readStream(new DataInputStream(bytes));
                     }
+                } catch (RuntimeException e) {
+                    //Datagrams that can't be read are dropped, the same as ones lost on the network
                 } catch (IOException e) {
+                    if (closed)
+                        return;
                     throw new RuntimeException(e);
                 }
             }
@@ -56,17 +99,139 @@ public class Server {
             try {
                 while (true) {
                     int id = clientIDCounter++;
-                    ClientHandler client = new ClientHandler(serverSocket.accept(), id).start();
-                    clients.put(id, client);
-                    clientsByAddress.put(client.socket.getInetAddress(), client);
-                    MainPanel.updatePlayers.set(true);
+                    ClientHandler client = new ClientHandler(this, serverSocket.accept(), id).start();
+                    addClient(client);
                 }
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                if (!closed)
+                    throw new RuntimeException(e);
             }
         }).start();
     }
 
+    private void startSelector() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(TCP_PORT));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        udpChannelReceive = DatagramChannel.open();
+        udpChannelReceive.bind(new InetSocketAddress(UDP_SERVER_PORT));
+        udpChannelReceive.configureBlocking(false);
+        udpChannelReceive.register(selector, SelectionKey.OP_READ);
+        udpChannelSend = DatagramChannel.open();
+        udpChannelSend.bind(new InetSocketAddress(UDP_CLIENT_PORT));
+        udpChannelSend.configureBlocking(false);
+        new Thread(this::runSelector, "Server selector").start();
+    }
+
+    private void runSelector() {
+        ByteBuffer udpReadBuffer = ByteBuffer.allocate(4096), udpWriteBuffer = ByteBuffer.allocateDirect(4096);
+        try {
+            while (!closed) {
+                selector.select();
+                ClientHandler pending;
+                while ((pending = pendingClients.poll()) != null) {
+                    try {
+                        pending.writeQueued(udpWriteBuffer);
+                    } catch (IOException | RuntimeException e) {
+                        dropClient(pending, e);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        acceptChannel();
+                    else if (key.channel() == udpChannelReceive)
+                        receiveDatagrams(udpReadBuffer);
+                    else {
+                        //A client that sends something that can't be read is disconnected, the other
+                        //clients and the selector thread carry on
+                        ClientHandler client = (ClientHandler) key.attachment();
+                        try {
+                            if (key.isReadable())
+                                client.readChannel();
+                            if (key.isValid() && key.isWritable())
+                                client.writeChannel();
+                        } catch (RuntimeException e) {
+                            dropClient(client, e);
+                        }
+                    }
+                }
+            }
+            //The selector is closed by its own thread, as closing it while it's in use could break the loop
+            selector.close();
+            for (Closeable c : new Closeable[]{serverChannel, udpChannelReceive, udpChannelSend}) {
+                c.close();
+            }
+        } catch (IOException e) {
+            if (!closed)
+                throw new RuntimeException(e);
+        }
+    }
+
+    private void acceptChannel() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            //Packets are small, and should go out as soon as they're written rather than being combined
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            ClientHandler client = new ClientHandler(this, channel, clientIDCounter++);
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+            addClient(client);
+        }
+    }
+
+    private void receiveDatagrams(ByteBuffer buffer) throws IOException {
+        while (true) {
+            buffer.clear();
+            SocketAddress address = udpChannelReceive.receive(buffer);
+            if (address == null)
+                return;
+            ClientHandler client = clientsByAddress.get(((InetSocketAddress) address).getAddress());
+            if (client == null)
+                continue;
+            try {
+                client.readStream(new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, buffer.position())));
+            } catch (IOException | RuntimeException e) {
+                //Datagrams that can't be read are dropped, the same as ones lost on the network
+            }
+        }
+    }
+
+    private void dropClient(ClientHandler client, Exception e) {
+        System.out.println("[WARNING] Disconnected client " + client.clientID + ": " + e);
+        closeClient(client);
+    }
+
+    private void addClient(ClientHandler client) {
+        clients.put(client.clientID, client);
+        clientsByAddress.put(client.socket.getInetAddress(), client);
+        MainPanel.updatePlayers.set(true);
+    }
+
+    //Stops accepting clients and disconnects the ones that are connected, used by ServerLoadTest
+    public void close() {
+        closed = true;
+        clients.forEach((id, c) -> c.closeClient());
+        if (selector != null) {
+            selector.wakeup();
+            return;
+        }
+        try {
+            for (Closeable c : new Closeable[]{serverSocket, udpSocketReceive, udpSocketSend}) {
+                c.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void closeClient(ClientHandler client) {
         client.closeClient();
         removeClient(client);
@@ -100,76 +265,98 @@ public class Server {
         })));
     }
 
+    private int physicsUpdateSequence = 0;
+
     public void sendPhysicsUpdate(HashMap<Integer, Level> loadedLevels) {
+        int sequence = physicsUpdateSequence++;
+        //The blocks of each level are only captured once, and the changes since each baseline are only encoded
+        //once, and shared by every client in that level that has acknowledged that baseline
+        HashMap<Integer, PhysicsPacketiser.Snapshot> snapshots = new HashMap<>();
+        HashMap<Integer, HashMap<PhysicsPacketiser.Snapshot, ArrayList<PhysicsPacketiser.Entry>>> deltas = new HashMap<>();
         clients.forEach((id, c) -> {
             Level l = loadedLevels.get(c.levelIndex);
             if (l == null)
                 return;
-            c.queuePacket(new PacketWriter(PacketType.PHYSICS_UPDATE, true, w -> {
-                AtomicInteger count = new AtomicInteger();
-                l.dynamicBlocks.forEach(d -> {
-                    if (d instanceof PhysicsBlock)
-                        count.getAndIncrement();
-                });
-                try {
-                    w.writeLong(System.currentTimeMillis());
-                    w.writeInt(l.levelIndex);
-                    w.writeInt(count.get());
-                    Player player = l.players.get(id);
-                    if (player == null)
-                        w.writeInt(-1);
-                    else {
-                        w.writeInt(player.index);
-                        w.writeBoolean(player.space);
-                        w.writeBoolean(player.left);
-                        w.writeBoolean(player.right);
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-                l.dynamicBlocks.forEach(d -> {
-                    if (d instanceof PhysicsBlock b) {
-                        try {
-                            w.writeInt(b.index);
-                            w.writeUTF(b.name);
-                            b.pos.write(w);
-                            b.velocity.write(w);
-                            b.prevPos.write(w);
-                            b.previousVelocity.write(w);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    }
-                });
-            }));
+            Player player = l.players.get(id);
+            PhysicsPacketiser.Snapshot snapshot = snapshots.computeIfAbsent(l.levelIndex, i -> PhysicsPacketiser.capture(sequence, l));
+            PhysicsPacketiser.Snapshot baseline = c.physicsBaselines.getBaseline(snapshot);
+            ArrayList<PhysicsPacketiser.Entry> entries = deltas.computeIfAbsent(l.levelIndex, i -> new HashMap<>())
+                    .computeIfAbsent(baseline, b -> PhysicsPacketiser.encodeDelta(snapshot, b));
+            c.physicsBaselines.sent(snapshot, baseline);
+            PhysicsPacketiser.packetise(snapshot, baseline, player, player == null ? null : player.pos, entries).forEach(c::queuePacket);
         });
+        if (DEBUG_PHYSICS_BANDWIDTH) {
+            long time = System.currentTimeMillis();
+            if (time - lastBandwidthPrint >= 1000) {
+                clients.forEach((id, c) -> System.out.println(c.getPhysicsBandwidthInfo(time - lastBandwidthPrint)));
+                lastBandwidthPrint = time;
+            }
+        }
     }
 
+    private long lastBandwidthPrint = 0;
+
     public static int clientIDCounter = 1;
 
     public static class ClientHandler {
+        private final Server server;
         public final Socket socket;
         private final DataInputStream reader;
         private final DataOutputStream writer;
-        private final HashSet<PacketWriter> packetQueue = new HashSet<>();
+        //Sent in the order they were queued, so that the fragments of physics updates with the blocks nearest
+        //to the player go first
+        private final LinkedHashSet<PacketWriter> packetQueue = new LinkedHashSet<>();
+        private final boolean useTransferQueue = transferQueueWriters;
+        private final LinkedTransferQueue<PacketWriter> transferQueue = new LinkedTransferQueue<>();
         public final InetAddress inetAddress;
 
+        //Only used with the selector
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final ConcurrentLinkedQueue<PacketWriter> channelQueue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean writePending = new AtomicBoolean(false);
+        private InetSocketAddress udpAddress;
+        private ByteBuffer readBuffer, writeBuffer;
+
         public int levelIndex = -1;
 
         public final int clientID;
 
-        public ClientHandler(Socket socket, int clientID) {
+        public final PhysicsBaselines physicsBaselines = new PhysicsBaselines();
+        //Only written by the thread that writes this client's packets
+        private volatile long physicsBytesSent = 0;
+        private long lastPhysicsBytesSent = 0, lastDeltaUpdates = 0, lastFullUpdates = 0;
+
+        public ClientHandler(Server server, Socket socket, int clientID) {
+            this(server, socket, null, clientID);
+        }
+
+        public ClientHandler(Server server, SocketChannel channel, int clientID) {
+            this(server, channel.socket(), channel, clientID);
+        }
+
+        private ClientHandler(Server server, Socket socket, SocketChannel channel, int clientID) {
+            this.server = server;
             inetAddress = socket.getInetAddress();
             for (InputEvent event : InputEvent.values()) {
                 lastPlayerMovementUpdate.put(event, 0L);
             }
             this.socket = socket;
+            this.channel = channel;
             this.clientID = clientID;
-            try {
-                reader = new DataInputStream(socket.getInputStream());
-                writer = new DataOutputStream(socket.getOutputStream());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+            if (channel == null) {
+                try {
+                    reader = new DataInputStream(socket.getInputStream());
+                    writer = new DataOutputStream(socket.getOutputStream());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            } else {
+                reader = null;
+                writer = null;
+                udpAddress = new InetSocketAddress(inetAddress, UDP_CLIENT_PORT);
+                readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+                writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
             }
             queuePacket(new PacketWriter(PacketType.CLIENT_ID, false, w -> {
                 try {
@@ -184,8 +371,35 @@ public class Server {
             levelIndex = l.levelIndex;
         }
 
-        public synchronized void queuePacket(PacketWriter packet) {
-            packetQueue.add(packet);
+        //The bytes per second of physics updates sent to this client since the last call, and how many of the
+        //updates were sent in full rather than as changes from a baseline
+        public String getPhysicsBandwidthInfo(long elapsedMillis) {
+            long bytes = physicsBytesSent, deltaUpdates = physicsBaselines.deltaUpdates, fullUpdates = physicsBaselines.fullUpdates;
+            String info = "physics updates to client " + clientID + ": " + (bytes - lastPhysicsBytesSent) * 1000 / Math.max(elapsedMillis, 1) +
+                    " bytes/s, delta updates: " + (deltaUpdates - lastDeltaUpdates) + ", full updates: " + (fullUpdates - lastFullUpdates);
+            lastPhysicsBytesSent = bytes;
+            lastDeltaUpdates = deltaUpdates;
+            lastFullUpdates = fullUpdates;
+            return info;
+        }
+
+        public void queuePacket(PacketWriter packet) {
+            if (channel == null) {
+                if (useTransferQueue)
+                    transferQueue.add(packet);
+                else {
+                    synchronized (this) {
+                        packetQueue.add(packet);
+                    }
+                }
+                return;
+            }
+            channelQueue.add(packet);
+            //The selector only needs waking up once until it has written the queued packets
+            if (writePending.compareAndSet(false, true)) {
+                server.pendingClients.add(this);
+                server.selector.wakeup();
+            }
         }
 
         public ClientHandler start() {
@@ -194,30 +408,116 @@ public class Server {
             return this;
         }
 
-        public boolean closed = false;
+        public volatile boolean closed = false;
 
         public void closeClient() {
             closed = true;
+            //Also closes the channel when using the selector
+            try {
+                socket.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        //Called by the selector thread
+        private void writeQueued(ByteBuffer udpWriteBuffer) throws IOException {
+            writePending.set(false);
+            if (closed)
+                return;
+            PacketWriter p;
+            while ((p = channelQueue.poll()) != null) {
+                if (p.udp()) {
+                    udpWriteBuffer.clear();
+                    p.encode(udpWriteBuffer);
+                    udpWriteBuffer.flip();
+                    if (p.type() == PacketType.PHYSICS_UPDATE)
+                        physicsBytesSent += udpWriteBuffer.remaining();
+                    //Datagrams that don't fit into the socket's buffer are dropped, as they could be on the network
+                    server.udpChannelSend.send(udpWriteBuffer, udpAddress);
+                } else {
+                    byte[] bytes = p.toBytes();
+                    if (writeBuffer.remaining() < bytes.length) {
+                        ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(writeBuffer.capacity() * 2, writeBuffer.position() + bytes.length));
+                        writeBuffer.flip();
+                        larger.put(writeBuffer);
+                        writeBuffer = larger;
+                    }
+                    writeBuffer.put(bytes);
+                }
+            }
+            writeChannel();
+        }
+
+        //Writes as much of the write buffer as the socket takes, and waits for the socket to be writable if there's more
+        private void writeChannel() {
+            if (writeBuffer.position() == 0)
+                return;
+            try {
+                writeBuffer.flip();
+                channel.write(writeBuffer);
+                writeBuffer.compact();
+                key.interestOps(writeBuffer.position() == 0 ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } catch (IOException | CancelledKeyException e) {
+                server.closeClient(this);
+            }
+        }
+
+        private void readChannel() {
+            try {
+                if (!readBuffer.hasRemaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+                    readBuffer.flip();
+                    larger.put(readBuffer);
+                    readBuffer = larger;
+                }
+                if (channel.read(readBuffer) == -1) {
+                    server.closeClient(this);
+                    return;
+                }
+                while (readBuffer.position() > 0) {
+                    DataInputStream stream = new DataInputStream(new ByteArrayInputStream(readBuffer.array(), 0, readBuffer.position()));
+                    try {
+                        readStream(stream);
+                    } catch (EOFException e) {
+                        //Only part of the packet has arrived
+                        break;
+                    } catch (RuntimeException e) {
+                        if (e.getCause() instanceof EOFException)
+                            break;
+                        //Anything else means the packet is invalid
+                        throw e;
+                    }
+                    readBuffer.flip();
+                    readBuffer.position(readBuffer.limit() - stream.available());
+                    readBuffer.compact();
+                }
+            } catch (IOException e) {
+                server.closeClient(this);
+            }
         }
 
         private final HashMap<InputEvent, Long> lastPlayerMovementUpdate = new HashMap<>();
 
         public void readStream(DataInputStream stream) throws IOException {
-            switch (PacketType.values()[stream.readInt()]) {
+            switch (PacketType.values()[PacketCodec.readVarInt(stream)]) {
                 case PLAYER_MOVEMENT -> {
                     long timeStamp = stream.readLong();
                     InputEvent event = PacketReceiver.readEnum(InputEvent.class, stream);
                     InputType inputType = InputType.read(stream);
+                    int sequence = PacketCodec.readVarInt(stream);
                     if (lastPlayerMovementUpdate.get(event) > timeStamp)
                         break;
                     lastPlayerMovementUpdate.put(event, timeStamp);
                     MainPanel.addTask(() -> MainPanel.handleClientPlayerInput(
                             event,
                             inputType,
+                            sequence,
                             clientID, levelIndex
                     ));
                     MainPanel.sendLevelPacketTimer = 1;
                 }
+                case PHYSICS_ACK -> physicsBaselines.acknowledge(PacketCodec.readVarInt(stream));
             }
         }
 
@@ -227,41 +527,31 @@ public class Server {
                     readStream(reader);
                 } catch (EOFException | SocketException e) {
                     break;
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+                } catch (IOException | RuntimeException e) {
+                    //The stream can't be read past a packet that's invalid, so the client is disconnected
+                    if (!closed)
+                        System.out.println("[WARNING] Disconnected client " + clientID + ": " + e);
+                    break;
                 }
             }
-            MainPanel.server.closeClient(this);
+            server.closeClient(this);
         }
 
         public void runWriter() {
             try {
+                if (useTransferQueue) {
+                    while (!closed) {
+                        //Times out now and then to notice if the client was closed
+                        PacketWriter p = transferQueue.poll(100, TimeUnit.MILLISECONDS);
+                        if (p != null)
+                            write(p);
+                    }
+                    return;
+                }
                 while (!closed) {
                     TimeUnit.MILLISECONDS.sleep(5);
                     synchronized (this) {
-                        packetQueue.forEach(p -> {
-                            if (p.udp()) {
-                                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-                                DataOutputStream out = new DataOutputStream(bytes);
-                                try {
-                                    PacketWriter.writeEnum(p.type(), out);
-                                    p.writer().accept(out);
-                                    udpSocketSend.send(new DatagramPacket(bytes.toByteArray(), bytes.size(), inetAddress, UDP_CLIENT_PORT));
-                                } catch (IOException e) {
-                                    throw new RuntimeException(e);
-                                }
-                            } else {
-                                try {
-                                    PacketWriter.writeEnum(p.type(), writer);
-                                } catch (SocketException e) {
-                                    closed = true;
-                                    return;
-                                } catch (IOException e) {
-                                    throw new RuntimeException(e);
-                                }
-                                p.writer().accept(writer);
-                            }
-                        });
+                        packetQueue.forEach(this::write);
                         packetQueue.clear();
                     }
                 }
@@ -269,5 +559,34 @@ public class Server {
                 throw new RuntimeException(e);
             }
         }
+
+        private void write(PacketWriter p) {
+            if (closed)
+                return;
+            if (p.udp()) {
+                ByteBuffer buffer = PacketCodec.takeBuffer();
+                p.encode(buffer);
+                if (p.type() == PacketType.PHYSICS_UPDATE)
+                    physicsBytesSent += buffer.position();
+                try {
+                    udpSocketSend.send(new DatagramPacket(buffer.array(), buffer.position(), inetAddress, UDP_CLIENT_PORT));
+                } catch (IOException e) {
+                    if (!server.closed)
+                        throw new RuntimeException(e);
+                } finally {
+                    PacketCodec.returnBuffer(buffer);
+                }
+            } else {
+                try {
+                    PacketWriter.writeEnum(p.type(), writer);
+                } catch (SocketException e) {
+                    closed = true;
+                    return;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                p.writer().accept(writer);
+            }
+        }
     }
 }
@@ -0,0 +1,140 @@
+package network;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+public abstract class ServerLoadTest {
+    /*
+     * Connects CLIENTS clients to a server over loopback, once with the selector and twice with two threads
+     * for each client, with the writers polling every 5 ms and with them waiting on a transfer queue,
+     * see Server.transferQueueWriters, and sends a level update to every client BROADCASTS times, every 30 ms like the
+     * game does. The level update has no levels in it, so it doesn't depend on what's loaded, but has the
+     * time it was written at, which the clients use to measure how long it took to arrive.
+     *
+     * The clients all run on a single thread with a selector of their own, so that they don't add a
+     * thread per client to both runs. The CPU time is of the whole process, clients included.
+     */
+    private static final int CLIENTS = 300, BROADCASTS = 200, BROADCAST_INTERVAL_MS = 30;
+    //Packet type and client ID, the packet type is a single byte varint
+    private static final int CLIENT_ID_SIZE = 1 + 4;
+    //Packet type, time stamp, level count and level index
+    private static final int LEVEL_UPDATE_SIZE = 1 + 8 + 4 + 4;
+
+    public static void run() {
+        boolean useSelector = Server.useSelector, transferQueueWriters = Server.transferQueueWriters;
+        System.out.println("--------------------[ Server load test ]-----------------------");
+        System.out.println("clients: " + CLIENTS + ", level updates: " + BROADCASTS + " every " + BROADCAST_INTERVAL_MS + " ms");
+        Server.useSelector = false;
+        Server.transferQueueWriters = false;
+        runServer("threads, polling writers");
+        Server.transferQueueWriters = true;
+        runServer("threads, transfer queue writers");
+        Server.useSelector = true;
+        runServer("selector");
+        System.out.println("---------------------------------------------------------------");
+        Server.useSelector = useSelector;
+        Server.transferQueueWriters = transferQueueWriters;
+    }
+
+    private static void runServer(String name) {
+        int threadsBefore = Thread.activeCount();
+        Server server = new Server();
+        ArrayList<Long> latencies = new ArrayList<>();
+        long cpuTime, wallTime;
+        int serverThreads;
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < CLIENTS; i++) {
+                SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), Server.TCP_PORT));
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(4096));
+            }
+            long timeout = System.currentTimeMillis() + 10000;
+            while (server.clients.size() < CLIENTS && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+            serverThreads = Thread.activeCount() - threadsBefore;
+
+            HashMap<Integer, level.Level> levels = new HashMap<>();
+            HashMap<Integer, Boolean> finalised = new HashMap<>();
+            long cpuStart = getProcessCpuTime(), start = System.nanoTime();
+            for (int i = 0; i < BROADCASTS; i++) {
+                server.sendLevelPacket(levels, finalised);
+                receive(selector, BROADCAST_INTERVAL_MS, latencies);
+            }
+            receive(selector, 500, latencies);
+            cpuTime = getProcessCpuTime() - cpuStart;
+            wallTime = System.nanoTime() - start;
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            server.close();
+        }
+        //Waits for the threads of this run to stop, so they aren't counted as part of the next run
+        try {
+            long timeout = System.currentTimeMillis() + 2000;
+            while (Thread.activeCount() > threadsBefore && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        Collections.sort(latencies);
+        long total = 0;
+        for (long l : latencies) {
+            total += l;
+        }
+        System.out.println(name + ":");
+        System.out.println("threads started: " + serverThreads + ", level updates received: " + latencies.size() + " / " + CLIENTS * BROADCASTS);
+        if (!latencies.isEmpty())
+            System.out.println("latency mean: " + (float) total / latencies.size() + " ms, median: " + latencies.get(latencies.size() / 2)
+                    + " ms, 99th percentile: " + latencies.get(latencies.size() * 99 / 100) + " ms, max: " + latencies.get(latencies.size() - 1) + " ms");
+        System.out.println("CPU time: " + cpuTime / 1000000 + " ms, CPU usage: " + cpuTime * 100 / wallTime + "% of one core");
+    }
+
+    private static void receive(Selector selector, int milliseconds, ArrayList<Long> latencies) throws IOException {
+        long end = System.currentTimeMillis() + milliseconds;
+        long remaining;
+        while ((remaining = end - System.currentTimeMillis()) > 0) {
+            if (selector.select(remaining) == 0)
+                continue;
+            for (SelectionKey key : selector.selectedKeys()) {
+                SocketChannel channel = (SocketChannel) key.channel();
+                ByteBuffer buffer = (ByteBuffer) key.attachment();
+                if (channel.read(buffer) == -1) {
+                    key.cancel();
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                buffer.flip();
+                while (buffer.remaining() >= 1) {
+                    PacketType type = PacketType.values()[buffer.get(buffer.position())];
+                    int size = type == PacketType.CLIENT_ID ? CLIENT_ID_SIZE : LEVEL_UPDATE_SIZE;
+                    if (buffer.remaining() < size)
+                        break;
+                    if (type == PacketType.LEVEL_UPDATE)
+                        latencies.add(now - buffer.getLong(buffer.position() + 1));
+                    buffer.position(buffer.position() + size);
+                }
+                buffer.compact();
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    private static long getProcessCpuTime() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+}
@@ -0,0 +1,14 @@
+package physics;
+
+public enum BroadphaseType {
+    //Determines how the collision handler finds the objects a dynamic object could be colliding with
+
+    //Every object is stored in the Y-axis sections, and each dynamic object is tested against
+    //every object in its section. Kept as a fallback to compare against the grid
+    SECTIONED,
+
+    //Static objects are bucketed by the integer cells that their hit box overlaps, and dynamic
+    //objects only test the cells that they overlap. Movable and dynamic objects are still
+    //stored in the sections, since they need position updates
+    GRID
+}
@@ -0,0 +1,135 @@
+package physics;
+
+import foundation.Main;
+import foundation.math.ObjPos;
+import level.Level;
+import level.ObjectLayer;
+import level.objects.PhysicsBlock;
+import level.objects.StaticBlock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public abstract class CollisionBenchmark {
+    /*
+     * Compares the serial and parallel collision solvers on a stress level. Columns of stacked physics
+     * blocks are placed on platforms at regular intervals across the whole height of the level, and the
+     * same simulation is then run once with each solver, starting from the same state. The blocks are never
+     * rendered or added to the level, they only exist in the collision handler for the duration of the
+     * benchmark.
+     *
+     * The collision handler is locked while the benchmark runs, which pauses the game's own collision
+     * ticks, so that the two runs aren't affected by anything else happening in the level.
+     *
+     * Fails if the two solvers don't leave every block in exactly the same place.
+     */
+    private static final int COLUMN_SPACING = 3, LAYER_SPACING = 24, STACK_HEIGHT = 4;
+    private static final float STACK_GAP = 0.25f;
+    private static final int WARMUP_TICKS = 200, BENCHMARK_TICKS = 1000;
+    private static final float DELTA_TIME = 0.01f;
+
+    //Returns whether the serial and parallel solvers gave identical results
+    public static boolean run(Level level) {
+        CollisionHandler handler = level.collisionHandler;
+        ArrayList<PhysicsBlock> blockList = new ArrayList<>();
+        ArrayList<ObjPos> startList = new ArrayList<>();
+        ArrayList<StaticBlock> platformList = new ArrayList<>();
+        for (int y = LAYER_SPACING; y + STACK_HEIGHT * (1 + STACK_GAP) < level.maximumHeight; y += LAYER_SPACING) {
+            for (int x = 1; x < Main.BLOCKS_X - 1; x += COLUMN_SPACING) {
+                //Skip any stack that would be placed inside the level
+                if (isObstructed(handler, x, y))
+                    continue;
+                if (handler.getObjectAt(new ObjPos(x + 0.5f, y - 0.5f)) == null)
+                    platformList.add(new StaticBlock(new ObjPos(x, y - 1), "benchmark", 1, 0, 0, 1, CollisionType.STATIC, ObjectLayer.FOREGROUND, true, level));
+                for (int i = 0; i < STACK_HEIGHT; i++) {
+                    ObjPos pos = new ObjPos(x, y + i * (1 + STACK_GAP));
+                    blockList.add(new PhysicsBlock(pos.copy(), "benchmark", 1, 1, 0, 0, 1, level));
+                    startList.add(pos);
+                }
+            }
+        }
+        PhysicsBlock[] blocks = blockList.toArray(new PhysicsBlock[0]);
+        ObjPos[] start = startList.toArray(new ObjPos[0]);
+        StaticBlock[] platforms = platformList.toArray(new StaticBlock[0]);
+
+        long serialTime, parallelTime;
+        float[] serialResult, parallelResult;
+        int islands;
+        synchronized (handler) {
+            boolean parallelSolving = handler.parallelSolving;
+            handler.register(platforms);
+            handler.register(blocks);
+
+            handler.parallelSolving = false;
+            serialTime = simulate(handler, blocks, start);
+            serialResult = getPositions(blocks);
+
+            handler.parallelSolving = true;
+            parallelTime = simulate(handler, blocks, start);
+            parallelResult = getPositions(blocks);
+            islands = handler.getIslandCount();
+
+            handler.remove(blocks);
+            handler.remove(platforms);
+            handler.parallelSolving = parallelSolving;
+        }
+
+        System.out.println("-------------------[ Collision benchmark ]---------------------");
+        System.out.println("blocks: " + blocks.length);
+        System.out.println("islands: " + islands);
+        System.out.println("threads: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("serial solver time: " + serialTime / 1_000_000_000f);
+        System.out.println("parallel solver time: " + parallelTime / 1_000_000_000f);
+        System.out.println("speedup: " + ((float) serialTime) / parallelTime);
+        boolean passed = Arrays.equals(serialResult, parallelResult);
+        System.out.println("results identical: " + passed);
+        System.out.println("result: " + (passed ? "PASSED" : "FAILED"));
+        System.out.println("---------------------------------------------------------------");
+        return passed;
+    }
+
+    //getBoxCollidingWith only finds procedural objects, so the blocks in the way are looked up one at a time
+    private static boolean isObstructed(CollisionHandler handler, int x, int y) {
+        for (int i = 0; i < Math.ceil(STACK_HEIGHT * (1 + STACK_GAP)); i++) {
+            if (handler.getObjectAt(x + 0.5f, y + i + 0.5f) != null)
+                return true;
+        }
+        return false;
+    }
+
+    //Resets the blocks to their starting positions and runs the simulation, returning the total
+    //time spent in the collision handler after the warmup ticks, in nanoseconds
+    private static long simulate(CollisionHandler handler, PhysicsBlock[] blocks, ObjPos[] start) {
+        for (int i = 0; i < blocks.length; i++) {
+            PhysicsBlock block = blocks[i];
+            block.pos = start[i].copy();
+            block.prevPos = start[i].copy();
+            block.velocity.set(0, 0);
+            block.previousVelocity.set(0, 0);
+            block.constraints.clear();
+            block.previousConstraints.clear();
+        }
+        long time = 0;
+        for (int tick = 0; tick < WARMUP_TICKS + BENCHMARK_TICKS; tick++) {
+            //The same steps that the blocks would do if they were registered to the game tick
+            for (PhysicsBlock block : blocks) {
+                block.processMovement(DELTA_TIME);
+                block.previousConstraints = block.constraints;
+            }
+            long tickStart = System.nanoTime();
+            handler.tick(DELTA_TIME);
+            if (tick >= WARMUP_TICKS)
+                time += System.nanoTime() - tickStart;
+        }
+        return time;
+    }
+
+    private static float[] getPositions(PhysicsBlock[] blocks) {
+        float[] positions = new float[blocks.length * 2];
+        for (int i = 0; i < blocks.length; i++) {
+            positions[i * 2] = blocks[i].pos.x;
+            positions[i * 2 + 1] = blocks[i].pos.y;
+        }
+        return positions;
+    }
+}
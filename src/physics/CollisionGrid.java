@@ -0,0 +1,116 @@
+package physics;
+
+import java.util.Arrays;
+
+public class CollisionGrid {
+    /*
+     * Uniform grid of integer cells, used as a broadphase for static collision objects. Static
+     * objects never move, and they're almost always grid-aligned blocks, so each one only ends up
+     * in one or two cells. A query for a hit box then only has to look at the few cells that the
+     * box overlaps, instead of every object in the section.
+     *
+     * Objects extending past the edge of the grid are clamped into the edge cells. Queries are clamped
+     * the same way, so two overlapping boxes will always share at least one cell.
+     */
+    private static final CollisionObject[] EMPTY_CELL = new CollisionObject[0];
+
+    //Each cell is replaced by a new array whenever it is modified, rather than being modified in place.
+    //This allows the cells to be read without locking, and without risking ConcurrentModificationException
+    //if an object is registered while collisions are being tested
+    private final CollisionObject[][] cells;
+    private final int width, height, yOffset;
+
+    //Writes only lock the rows that they modify, with one lock per stripe of rows, so that objects
+    //can be added to different parts of the level at the same time
+    public static final int STRIPE_HEIGHT = 16;
+    private final Object[] stripeLocks;
+
+    public CollisionGrid(int width, int height, int yOffset) {
+        this.width = width;
+        this.height = height;
+        this.yOffset = yOffset;
+        cells = new CollisionObject[width * height][];
+        Arrays.fill(cells, EMPTY_CELL);
+        stripeLocks = new Object[(height + STRIPE_HEIGHT - 1) / STRIPE_HEIGHT];
+        for (int i = 0; i < stripeLocks.length; i++) {
+            stripeLocks[i] = new Object();
+        }
+    }
+
+    public void add(CollisionObject o) {
+        HitBox box = o.getHitBox();
+        int x0 = cellX(box.getLeft()), x1 = cellX(box.getRight());
+        int y0 = cellY(box.getBottom()), y1 = cellY(box.getTop());
+        for (int y = y0; y <= y1; y++) {
+            synchronized (stripeLocks[y / STRIPE_HEIGHT]) {
+                for (int x = x0; x <= x1; x++) {
+                    int i = index(x, y);
+                    CollisionObject[] cell = cells[i];
+                    CollisionObject[] newCell = Arrays.copyOf(cell, cell.length + 1);
+                    newCell[cell.length] = o;
+                    cells[i] = newCell;
+                }
+            }
+        }
+    }
+
+    public void remove(CollisionObject o) {
+        HitBox box = o.getHitBox();
+        int x0 = cellX(box.getLeft()), x1 = cellX(box.getRight());
+        int y0 = cellY(box.getBottom()), y1 = cellY(box.getTop());
+        for (int y = y0; y <= y1; y++) {
+            synchronized (stripeLocks[y / STRIPE_HEIGHT]) {
+                for (int x = x0; x <= x1; x++) {
+                    int i = index(x, y);
+                    CollisionObject[] cell = cells[i];
+                    for (int j = 0; j < cell.length; j++) {
+                        if (cell[j] != o)
+                            continue;
+                        if (cell.length == 1) {
+                            cells[i] = EMPTY_CELL;
+                        } else {
+                            CollisionObject[] newCell = new CollisionObject[cell.length - 1];
+                            System.arraycopy(cell, 0, newCell, 0, j);
+                            System.arraycopy(cell, j + 1, newCell, j, cell.length - j - 1);
+                            cells[i] = newCell;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for (int stripe = 0; stripe < stripeLocks.length; stripe++) {
+            synchronized (stripeLocks[stripe]) {
+                Arrays.fill(cells, index(0, stripe * STRIPE_HEIGHT), index(0, Math.min(height, (stripe + 1) * STRIPE_HEIGHT)), EMPTY_CELL);
+            }
+        }
+    }
+
+    //The returned array must not be modified
+    public CollisionObject[] getCell(int x, int y) {
+        return cells[index(x, y)];
+    }
+
+    public CollisionObject getObjectAt(float x, float y) {
+        for (CollisionObject object : getCell(cellX(x), cellY(y))) {
+            if (object.hasCollision() && object.getHitBox().isPositionInside(x, y))
+                return object;
+        }
+        return null;
+    }
+
+    public int cellX(float x) {
+        return Math.max(0, Math.min(width - 1, (int) Math.floor(x)));
+    }
+
+    public int cellY(float y) {
+        return Math.max(0, Math.min(height - 1, (int) Math.floor(y) + yOffset));
+    }
+
+    private int index(int x, int y) {
+        return y * width + x;
+    }
+}
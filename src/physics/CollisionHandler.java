@@ -9,11 +9,17 @@ import level.objects.PhysicsObject;
 import level.objects.Player;
 import network.NetworkState;
 
-import java.util.HashMap;
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
 
 public class CollisionHandler implements RegisteredTickable {
     /*
@@ -29,14 +35,25 @@ public class CollisionHandler implements RegisteredTickable {
      * the dynamic objects against all the other objects, instead of testing all objects against
      * all other objects. We know that the vast majority of objects are going to be static, and there's
      * no need to test them against each other.
+     *
+     * With the GRID broadphase, static objects are not added to the sections at all. Instead, they're
+     * bucketed by cell in the collision grid, so that each dynamic object only has to be tested against
+     * the static objects in the cells that it overlaps. The sections then only contain movable and dynamic
+     * objects.
      */
+    public static final BroadphaseType DEFAULT_BROADPHASE = BroadphaseType.GRID;
+
+    public final BroadphaseType broadphase;
+    private final CollisionGrid staticGrid;
+
     private final Set<CollisionObject>[] collisionObjects, dynamicObjects;
     private Set<CollisionObject>[] proceduralObjects;
-    private final HashMap<CollisionObject, CollisionObjectData> proceduralObjectData = new HashMap<>();
+    private final ConcurrentHashMap<CollisionObject, CollisionObjectData> proceduralObjectData = new ConcurrentHashMap<>();
 
     //World border collision objects are always tested against each dynamic object,
     //no matter which section it happens to be in
     private final Set<CollisionObject> worldBorderCollisionObjects = ConcurrentHashMap.newKeySet();
+    private final CollisionObject[] worldBorderObjects;
 
     //A set containing all movable objects. Used to iterate through all movable objects when
     //refreshing their position in the sectioned set to avoid ConcurrentModificationException
@@ -48,10 +65,88 @@ public class CollisionHandler implements RegisteredTickable {
 
     private boolean deleted = false;
 
+    /*
+     * The solver never iterates the sets above directly, as iterating a concurrent set allocates. Instead,
+     * each section is copied into an array whenever that section is modified, and the solver iterates
+     * the arrays. Pairs of objects that have collided are recorded by object id in the contact set, rather
+     * than in per-object hash sets, which together makes a tick in which nothing is registered, removed or
+     * changing section allocation-free.
+     */
+    private final CollisionObject[][] objectArrays, dynamicArrays;
+    private final int[] objectCounts, dynamicCounts;
+    private final boolean[] sectionDirty;
+    private CollisionObject[] movableArray = new CollisionObject[16];
+    private int movableCount = 0;
+    private boolean movablesDirty = false;
+
+    private final ContactSet contacts = new ContactSet();
+
+    /*
+     * Dynamic objects are partitioned into islands every tick. Two dynamic objects end up in the same island
+     * if their hit boxes, grown by ISLAND_MARGIN, overlap, meaning that objects in different islands can't
+     * touch each other during this tick. Static and movable objects are never moved by the solver, so each
+     * island only ever modifies its own objects, and the islands can be solved concurrently.
+     *
+     * Each island is solved with the exact same steps as the serial solver would take for it, in the same
+     * order, so the results are identical no matter how many threads are used. After the islands are solved,
+     * one serial pass is done over all objects to catch any object that moved further than the margin, in
+     * which case the remaining loops are done serially.
+     */
+    public static final boolean DEFAULT_PARALLEL_SOLVING = true;
+    //Runs CollisionBenchmark once the level has finished generating
+    public static final boolean DEBUG_SOLVER_BENCHMARK = false;
+    public boolean parallelSolving = DEFAULT_PARALLEL_SOLVING;
+    private static final float ISLAND_MARGIN = 1;
+    //Only split the solver up if there's enough work to make up for the overhead of scheduling it
+    private static final int MIN_PARALLEL_ISLANDS = 2;
+    private static final ForkJoinPool SOLVER_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private static final Comparator<CollisionObject> ID_ORDER = Comparator.comparingInt(o -> o.getCollisionData().id);
+
+    private int islandCount = 0;
+    private int[] islandParents = new int[16], islandBottomSection = new int[16], islandTopSection = new int[16], islandLoops = new int[16];
+    //Bytes allocated by the pool thread that solved each island, see IslandSolveTask
+    private long[] islandAllocatedBytes = new long[16];
+    private ContactSet[] islandContacts = new ContactSet[0];
+
+    /*
+     * Static objects are registered by the procedural generator while the level is being ticked. Objects
+     * placed in the grid are never seen by the solver arrays, so registering them only needs the grid's own
+     * stripe locks, and an id. This means that the generator doesn't have to wait for the solver to finish
+     * each tick before it can place a block. Every other object is registered while holding the lock on the
+     * collision handler, as it changes the arrays that the solver is using.
+     */
+    private final Object idLock = new Object();
+    private int idCounter = 0, freeIDCount = 0;
+    private int[] freeIDs = new int[16];
+
+    //Prints a warning for every tick in which the solver allocated memory, even though no objects
+    //were registered, removed or changed section that tick. Ticks solved in parallel always allocate
+    //a few bytes for the tasks that get scheduled, so this is only useful with parallel solving disabled
+    private static final boolean PRINT_DEBUG_ALLOCATIONS = false;
+    private boolean solverArraysRebuilt = false;
+
+    private static final ThreadMXBean THREAD_BEAN = createThreadBean();
+    private long lastSolverAllocatedBytes = 0, totalSolverAllocatedBytes = 0, solverTicks = 0;
+    private int lastSolverLoops = 0;
+
+    private static ThreadMXBean createThreadBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof ThreadMXBean bean && bean.isThreadAllocatedMemorySupported()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+            return bean;
+        }
+        return null;
+    }
+
     public CollisionHandler(int maxHeight, int sectionSize, int bufferSections) {
+        this(maxHeight, sectionSize, bufferSections, DEFAULT_BROADPHASE);
+    }
+
+    public CollisionHandler(int maxHeight, int sectionSize, int bufferSections, BroadphaseType broadphase) {
         this.sectionSize = sectionSize;
         this.bufferSections = bufferSections;
+        this.broadphase = broadphase;
         sectionCount = ((int) Math.ceil((double) maxHeight / sectionSize)) + 2 * bufferSections;
+        staticGrid = broadphase == BroadphaseType.GRID ? new CollisionGrid(Main.BLOCKS_X, sectionCount * sectionSize, bufferSections * sectionSize) : null;
         collisionObjects = new Set[sectionCount];
         for (int i = 0; i < sectionCount; i++) {
             collisionObjects[i] = ConcurrentHashMap.newKeySet();
@@ -64,6 +159,15 @@ public class CollisionHandler implements RegisteredTickable {
         for (int i = 0; i < sectionCount; i++) {
             proceduralObjects[i] = ConcurrentHashMap.newKeySet();
         }
+        objectArrays = new CollisionObject[sectionCount][];
+        dynamicArrays = new CollisionObject[sectionCount][];
+        for (int i = 0; i < sectionCount; i++) {
+            objectArrays[i] = new CollisionObject[0];
+            dynamicArrays[i] = new CollisionObject[0];
+        }
+        objectCounts = new int[sectionCount];
+        dynamicCounts = new int[sectionCount];
+        sectionDirty = new boolean[sectionCount];
         //World floor
         worldBorderCollisionObjects.add(new WorldBorderObject(new StaticHitBox(
                 0, 30, 0, Main.BLOCKS_X, new ObjPos())
@@ -76,64 +180,104 @@ public class CollisionHandler implements RegisteredTickable {
         worldBorderCollisionObjects.add(new WorldBorderObject(new StaticHitBox(
                 maxHeight + sectionSize * bufferSections, 10, 0, 10, new ObjPos(Main.BLOCKS_X))
         ));
+        worldBorderObjects = worldBorderCollisionObjects.toArray(new CollisionObject[0]);
         registerTickable();
     }
 
-    public synchronized void registerProcedural(CollisionObject... objects) {
+    public void registerProcedural(CollisionObject... objects) {
         for (CollisionObject o : objects) {
             CollisionObjectData data = generateData(o);
-            o.setCollisionData(data);
+            //Objects that are already registered keep their data, as it holds the object's id
+            if (o.getCollisionData() == null)
+                o.setCollisionData(data);
             proceduralObjects[data.bottomSection].add(o);
             proceduralObjects[data.topSection].add(o);
             proceduralObjectData.put(o, data);
         }
     }
 
-    public synchronized void removeProcedural(CollisionObject... objects) {
+    public void removeProcedural(CollisionObject... objects) {
         for (CollisionObject o : objects) {
-            CollisionObjectData data = proceduralObjectData.get(o);
+            CollisionObjectData data = proceduralObjectData.remove(o);
             if (data == null)
                 return;
-            proceduralObjectData.remove(o);
             proceduralObjects[data.bottomSection].remove(o);
             proceduralObjects[data.topSection].remove(o);
         }
     }
 
-    public synchronized void clearProcedural() {
+    public void clearProcedural() {
         removeProcedural(proceduralObjectData.keySet().toArray(new CollisionObject[0]));
     }
 
-    public synchronized void register(CollisionObject... objects) {
+    public void register(CollisionObject... objects) {
         for (CollisionObject o : objects) {
-            CollisionObjectData data = generateData(o);
-            o.setCollisionData(data);
-            if (o.getCollisionType().interactsDynamically) {
-                dynamicObjects[data.bottomSection].add(o);
-                dynamicObjects[data.topSection].add(o);
-            }
-            if (o.getCollisionType().requiresPositionUpdates)
-                movableObjectSet.add(o);
-            collisionObjects[data.bottomSection].add(o);
-            collisionObjects[data.topSection].add(o);
+            if (isInGrid(o)) {
+                CollisionObjectData data = generateData(o);
+                data.id = nextObjectID();
+                o.setCollisionData(data);
+                staticGrid.add(o);
+            } else
+                registerLocked(o);
         }
     }
 
-    public synchronized void remove(CollisionObject... objects) {
+    private synchronized void registerLocked(CollisionObject o) {
+        CollisionObjectData data = generateData(o);
+        data.id = nextObjectID();
+        o.setCollisionData(data);
+        if (o.getCollisionType().interactsDynamically) {
+            dynamicObjects[data.bottomSection].add(o);
+            dynamicObjects[data.topSection].add(o);
+        }
+        if (o.getCollisionType().requiresPositionUpdates) {
+            movableObjectSet.add(o);
+            movablesDirty = true;
+        }
+        collisionObjects[data.bottomSection].add(o);
+        collisionObjects[data.topSection].add(o);
+        markSectionDirty(data);
+    }
+
+    public void remove(CollisionObject... objects) {
         for (CollisionObject o : objects) {
-            CollisionObjectData data = o.getCollisionData();
-            o.setCollisionData(null);
-            if (o.getCollisionType().interactsDynamically) {
-                dynamicObjects[data.bottomSection].remove(o);
-                dynamicObjects[data.topSection].remove(o);
-            }
-            if (o.getCollisionType().requiresPositionUpdates)
-                movableObjectSet.remove(o);
-            collisionObjects[data.bottomSection].remove(o);
-            collisionObjects[data.topSection].remove(o);
+            if (isInGrid(o)) {
+                //Removed from the grid before the id is released, so that the solver won't find the object again
+                //once its id may belong to another object. The solver skips objects that have no data
+                staticGrid.remove(o);
+                CollisionObjectData data = o.getCollisionData();
+                o.setCollisionData(null);
+                if (data != null && data.id != -1)
+                    releaseObjectID(data.id);
+            } else
+                removeLocked(o);
         }
     }
 
+    private synchronized void removeLocked(CollisionObject o) {
+        CollisionObjectData data = o.getCollisionData();
+        o.setCollisionData(null);
+        if (data.id != -1)
+            releaseObjectID(data.id);
+        if (o.getCollisionType().interactsDynamically) {
+            dynamicObjects[data.bottomSection].remove(o);
+            dynamicObjects[data.topSection].remove(o);
+        }
+        if (o.getCollisionType().requiresPositionUpdates) {
+            movableObjectSet.remove(o);
+            movablesDirty = true;
+        }
+        collisionObjects[data.bottomSection].remove(o);
+        collisionObjects[data.topSection].remove(o);
+        markSectionDirty(data);
+    }
+
+    //Only static objects can be placed in the grid, as anything that moves would need
+    //to have its cells updated every tick
+    private boolean isInGrid(CollisionObject o) {
+        return staticGrid != null && !o.getCollisionType().requiresPositionUpdates;
+    }
+
     private CollisionObjectData generateData(CollisionObject o) {
         HitBox hitBox = o.getHitBox();
         return new CollisionObjectData(
@@ -146,12 +290,59 @@ public class CollisionHandler implements RegisteredTickable {
         return ((int) (y / sectionSize)) + bufferSections;
     }
 
-    private void clearCollidedWith() {
+    //Ids are recycled once an object is removed, so that they stay dense
+    private int nextObjectID() {
+        synchronized (idLock) {
+            if (freeIDCount > 0)
+                return freeIDs[--freeIDCount];
+            return idCounter++;
+        }
+    }
+
+    private void releaseObjectID(int id) {
+        synchronized (idLock) {
+            if (freeIDCount == freeIDs.length)
+                freeIDs = Arrays.copyOf(freeIDs, freeIDs.length * 2);
+            freeIDs[freeIDCount++] = id;
+        }
+    }
+
+    private void markSectionDirty(CollisionObjectData data) {
+        sectionDirty[data.bottomSection] = true;
+        sectionDirty[data.topSection] = true;
+    }
+
+    //Copy the sectioned sets into plain arrays that can be iterated over without allocating.
+    //This only needs to be done for sections that have changed since the last tick, so
+    //while nothing is being registered or changing section, this does nothing
+    private void refreshSolverArrays() {
+        if (movablesDirty) {
+            movablesDirty = false;
+            solverArraysRebuilt = true;
+            movableArray = toArray(movableObjectSet, movableArray);
+            movableCount = movableObjectSet.size();
+        }
         for (int i = 0; i < sectionCount; i++) {
-            dynamicObjects[i].forEach(o -> o.getCollisionData().collidedWith.clear());
+            if (!sectionDirty[i])
+                continue;
+            sectionDirty[i] = false;
+            solverArraysRebuilt = true;
+            dynamicArrays[i] = toArray(dynamicObjects[i], dynamicArrays[i]);
+            dynamicCounts[i] = dynamicObjects[i].size();
+            objectArrays[i] = toArray(collisionObjects[i], objectArrays[i]);
+            objectCounts[i] = collisionObjects[i].size();
         }
     }
 
+    //Set.toArray only allocates a new array if the existing one is too small. The objects are then sorted
+    //by id, as the order of a concurrent set depends on the hash of the objects, and the solver results
+    //depend on the order that the objects are processed in
+    private static CollisionObject[] toArray(Set<CollisionObject> set, CollisionObject[] array) {
+        CollisionObject[] newArray = set.toArray(array);
+        Arrays.sort(newArray, 0, set.size(), ID_ORDER);
+        return newArray;
+    }
+
     @Override
     public synchronized void tick(float deltaTime) {
         if (deleted)
@@ -162,109 +353,345 @@ public class CollisionHandler implements RegisteredTickable {
         qRemove.forEach(this::remove);
         qRemove.clear();
 
-        movableObjectSet.forEach(o -> {
-            CollisionObjectData newData = generateData(o);
-            CollisionObjectData oldData = o.getCollisionData();
-            if (!newData.equals(oldData)) {
+        long allocatedBefore = allocatedBytes();
+        solverArraysRebuilt = false;
+        refreshSolverArrays();
+        for (int i = 0; i < movableCount; i++) {
+            CollisionObject o = movableArray[i];
+            CollisionObjectData data = o.getCollisionData();
+            HitBox hitBox = o.getHitBox();
+            int bottomSection = yPosToSection(hitBox.getBottom()), topSection = yPosToSection(hitBox.getTop());
+            if (bottomSection != data.bottomSection || topSection != data.topSection) {
                 if (o.getCollisionType().interactsDynamically) {
-                    dynamicObjects[oldData.bottomSection].remove(o);
-                    dynamicObjects[oldData.topSection].remove(o);
-                    dynamicObjects[newData.bottomSection].add(o);
-                    dynamicObjects[newData.topSection].add(o);
+                    dynamicObjects[data.bottomSection].remove(o);
+                    dynamicObjects[data.topSection].remove(o);
+                    dynamicObjects[bottomSection].add(o);
+                    dynamicObjects[topSection].add(o);
                 }
-                collisionObjects[oldData.bottomSection].remove(o);
-                collisionObjects[oldData.topSection].remove(o);
-                collisionObjects[newData.bottomSection].add(o);
-                collisionObjects[newData.topSection].add(o);
-                o.setCollisionData(newData);
+                collisionObjects[data.bottomSection].remove(o);
+                collisionObjects[data.topSection].remove(o);
+                collisionObjects[bottomSection].add(o);
+                collisionObjects[topSection].add(o);
+                markSectionDirty(data);
+                data.bottomSection = bottomSection;
+                data.topSection = topSection;
+                markSectionDirty(data);
             }
             o.dynamicPreTick(deltaTime);
-        });
+        }
+        //Objects changing section would otherwise not be picked up until the next tick
+        refreshSolverArrays();
+
+        int loops;
+        long poolAllocatedBytes = 0;
+        if (parallelSolving && createIslands() >= MIN_PARALLEL_ISLANDS) {
+            SOLVER_POOL.invoke(new IslandSolveTask(0, islandCount));
+            for (int i = 0; i < islandCount; i++) {
+                poolAllocatedBytes += islandAllocatedBytes[i];
+            }
+            loops = 0;
+            for (int i = 0; i < islandCount; i++) {
+                if (islandLoops[i] == -1) {
+                    loops = -1;
+                    break;
+                }
+                loops = Math.max(loops, islandLoops[i]);
+            }
+            //Continue serially from where the islands left off. Usually this is just one pass that
+            //finds no collisions
+            if (loops != -1)
+                loops = solve(-1, contacts, loops);
+        } else
+            loops = solve(-1, contacts, 0);
+
+        if (loops == -1) {
+            if (MainPanel.networkState != NetworkState.CLIENT) {
+                throw new RuntimeException("Failed to solve collision");
+            }
+            for (int i = 0; i < movableCount; i++) {
+                if (movableArray[i] instanceof PhysicsObject p) {
+                    p.constraints = p.previousConstraints;
+                    p.pos = p.prevPos;
+                    p.velocity = p.previousVelocity;
+                }
+            }
+        }
+        for (int i = 0; i < movableCount; i++) {
+            movableArray[i].dynamicPostTick(deltaTime);
+        }
+        if (allocatedBefore != -1) {
+            lastSolverAllocatedBytes = allocatedBytes() - allocatedBefore + poolAllocatedBytes;
+            totalSolverAllocatedBytes += lastSolverAllocatedBytes;
+            if (PRINT_DEBUG_ALLOCATIONS && !solverArraysRebuilt && lastSolverAllocatedBytes != 0)
+                System.out.println("[WARNING] Collision solver allocated " + lastSolverAllocatedBytes + " bytes during a steady-state tick");
+        }
+        solverTicks++;
+        lastSolverLoops = loops;
+    }
 
-        int loops = 0;
+    //Runs solver loops until no more collisions are found, testing either just one island,
+    //or all objects if the island is -1. Returns the number of loops done in total, or -1 if
+    //the collisions could not be solved
+    private int solve(int island, ContactSet contacts, int loops) {
         while (true) {
             loops++;
-            AtomicBoolean isCollision = testIsCollision(loops <= 5, loops >= 25);
-            if (!isCollision.get())
-                break;
-            clearCollidedWith();
-            if (loops > 50) {
-                if (MainPanel.networkState != NetworkState.CLIENT) {
-                    throw new RuntimeException("Failed to solve collision");
-                }
-                for (Set<CollisionObject> section : dynamicObjects) {
-                    section.forEach(d -> {
-                        if (d instanceof PhysicsObject p) {
-                            p.constraints = p.previousConstraints;
-                            p.pos = p.prevPos;
-                            p.velocity = p.previousVelocity;
-                        }
-                    });
+            boolean hasHadCollision = testIsCollision(loops <= 5, loops >= 25, island, contacts);
+            contacts.clear();
+            if (!hasHadCollision)
+                return loops;
+            if (loops > 50)
+                return -1;
+        }
+    }
+
+    //Partitions the dynamic objects into islands, returning the number of islands
+    private int createIslands() {
+        if (islandParents.length < movableCount) {
+            int length = Math.max(movableCount, islandParents.length * 2);
+            islandParents = new int[length];
+            islandBottomSection = new int[length];
+            islandTopSection = new int[length];
+            islandLoops = new int[length];
+            islandAllocatedBytes = new long[length];
+        }
+        //The island field temporarily holds the index in the movable array, which is used as the
+        //union-find node for the object
+        for (int i = 0; i < movableCount; i++) {
+            CollisionObject o = movableArray[i];
+            islandParents[i] = i;
+            o.getCollisionData().island = o.getCollisionType().interactsDynamically ? i : -1;
+        }
+        for (int i = 0; i < sectionCount; i++) {
+            CollisionObject[] dynamics = dynamicArrays[i];
+            int dynamicCount = dynamicCounts[i];
+            for (int j = 0; j < dynamicCount; j++) {
+                HitBox box = dynamics[j].getHitBox();
+                for (int k = j + 1; k < dynamicCount; k++) {
+                    if (isWithinIslandMargin(box, dynamics[k].getHitBox()))
+                        unionIslands(dynamics[j].getCollisionData().island, dynamics[k].getCollisionData().island);
                 }
-                break;
             }
         }
-        clearCollidedWith();
-        movableObjectSet.forEach(o -> o.dynamicPostTick(deltaTime));
+        //Number the islands in the order of their first object, so that the numbering is deterministic.
+        //Roots always have the lowest index in their island, so they're numbered before the rest of it
+        islandCount = 0;
+        for (int i = 0; i < movableCount; i++) {
+            CollisionObjectData data = movableArray[i].getCollisionData();
+            if (data.island == -1)
+                continue;
+            int root = findIsland(i);
+            if (root == i) {
+                islandBottomSection[islandCount] = data.bottomSection;
+                islandTopSection[islandCount] = data.topSection;
+                //Reuse the parent slot of the root to store its island number
+                islandParents[i] = -1 - islandCount;
+                data.island = islandCount++;
+            } else {
+                int island = -1 - islandParents[root];
+                islandBottomSection[island] = Math.min(islandBottomSection[island], data.bottomSection);
+                islandTopSection[island] = Math.max(islandTopSection[island], data.topSection);
+                data.island = island;
+            }
+        }
+        if (islandContacts.length < islandCount) {
+            int oldLength = islandContacts.length;
+            islandContacts = Arrays.copyOf(islandContacts, islandCount);
+            for (int i = oldLength; i < islandCount; i++) {
+                islandContacts[i] = new ContactSet();
+            }
+        }
+        return islandCount;
     }
 
-    private AtomicBoolean testIsCollision(boolean constraintsOnly, boolean alwaysSnap) {
-        AtomicBoolean hasHadCollision = new AtomicBoolean(false);
-        for (int i = 0; i < sectionCount; i++) {
-            if (dynamicObjects[i].isEmpty())
+    //Negative parents mark roots that have already been numbered
+    private int findIsland(int i) {
+        while (islandParents[i] >= 0 && islandParents[i] != i) {
+            int parent = islandParents[i];
+            if (islandParents[parent] >= 0)
+                islandParents[i] = islandParents[parent];
+            i = parent;
+        }
+        return i;
+    }
+
+    private void unionIslands(int a, int b) {
+        int rootA = findIsland(a), rootB = findIsland(b);
+        if (rootA < rootB)
+            islandParents[rootB] = rootA;
+        else if (rootB < rootA)
+            islandParents[rootA] = rootB;
+    }
+
+    private static boolean isWithinIslandMargin(HitBox a, HitBox b) {
+        return a.getLeft() - ISLAND_MARGIN < b.getRight() && a.getRight() + ISLAND_MARGIN > b.getLeft()
+                && a.getBottom() - ISLAND_MARGIN < b.getTop() && a.getTop() + ISLAND_MARGIN > b.getBottom();
+    }
+
+    private final class IslandSolveTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+
+        private IslandSolveTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        //Islands solved by the pool threads aren't seen by the allocation counter of the tick thread, so
+        //each one is measured on the thread that solves it. Islands that the tick thread solves itself while
+        //waiting for the pool are already counted, as are the tasks it creates, but the tasks created by the
+        //pool threads aren't
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                boolean poolThread = Thread.currentThread() instanceof ForkJoinWorkerThread w && w.getPool() == SOLVER_POOL;
+                long allocatedBefore = poolThread ? allocatedBytes() : -1;
+                islandLoops[from] = solve(from, islandContacts[from], 0);
+                islandAllocatedBytes[from] = allocatedBefore == -1 ? 0 : allocatedBytes() - allocatedBefore;
+                return;
+            }
+            int middle = (from + to) / 2;
+            invokeAll(new IslandSolveTask(from, middle), new IslandSolveTask(middle, to));
+        }
+    }
+
+    private boolean testIsCollision(boolean constraintsOnly, boolean alwaysSnap, int island, ContactSet contacts) {
+        boolean hasHadCollision = false;
+        int fromSection = island == -1 ? 0 : islandBottomSection[island];
+        int toSection = island == -1 ? sectionCount - 1 : islandTopSection[island];
+        for (int i = fromSection; i <= toSection; i++) {
+            int dynamicCount = dynamicCounts[i];
+            if (dynamicCount == 0)
                 continue;
-            Set<CollisionObject> objects = collisionObjects[i];
-            Set<CollisionObject> dynamics = dynamicObjects[i];
-            dynamics.forEach(dynamic -> {
+            CollisionObject[] objects = objectArrays[i];
+            CollisionObject[] dynamics = dynamicArrays[i];
+            int objectCount = objectCounts[i];
+            for (int j = 0; j < dynamicCount; j++) {
+                CollisionObject dynamic = dynamics[j];
                 if (!dynamic.hasCollision())
-                    return;
+                    continue;
+                CollisionObjectData dynamicData = dynamic.getCollisionData();
+                if (island != -1 && dynamicData.island != island)
+                    continue;
                 HitBox dynamicBox = dynamic.getHitBox();
                 boolean isPlayer = dynamic instanceof Player;
-                objects.forEach(otherObj -> {
+                for (int k = 0; k < objectCount; k++) {
+                    CollisionObject otherObj = objects[k];
                     if (dynamic == otherObj)
-                        return;
+                        continue;
                     if (!otherObj.hasCollision())
-                        return;
-                    if (dynamic.getCollisionData().collidedWith.contains(otherObj))
-                        return;
+                        continue;
+                    CollisionObjectData otherData = otherObj.getCollisionData();
+                    //Dynamic objects in other islands may be getting moved by another thread
+                    if (island != -1 && otherData.island != -1 && otherData.island != island)
+                        continue;
+                    if (contacts.contains(dynamicData.id, otherData.id))
+                        continue;
 
                     if (isPlayer && otherObj instanceof Player)
-                        return;
+                        continue;
 
                     HitBox otherBox = otherObj.getHitBox();
                     if (dynamicBox.isColliding(otherBox)) {
                         dynamic.onCollision(otherObj, constraintsOnly, alwaysSnap);
-                        dynamic.getCollisionData().collidedWith.add(otherObj);
-                        if (dynamics.contains(otherObj))
-                            otherObj.getCollisionData().collidedWith.add(dynamic);
-                        hasHadCollision.set(true);
+                        contacts.add(dynamicData.id, otherData.id);
+                        hasHadCollision = true;
                     }
-                });
+                }
+                //Objects spanning two sections are tested once for each section, but the grid
+                //only needs to be tested once per object
+                if (staticGrid != null && dynamicData.bottomSection == i)
+                    hasHadCollision |= testGridCollision(dynamic, dynamicData, dynamicBox, constraintsOnly, alwaysSnap, contacts);
                 if (dynamic.hasWorldBorderCollision()) {
-                    worldBorderCollisionObjects.forEach(otherObj -> {
+                    for (CollisionObject otherObj : worldBorderObjects) {
                         HitBox otherBox = otherObj.getHitBox();
                         if (dynamicBox.isColliding(otherBox)) {
                             dynamic.onCollision(otherObj, constraintsOnly, alwaysSnap);
-                            dynamic.getCollisionData().collidedWith.add(otherObj);
-                            otherObj.getCollisionData().collidedWith.add(dynamic);
-                            hasHadCollision.set(true);
+                            hasHadCollision = true;
                         }
-                    });
+                    }
                 }
-            });
+            }
         }
         return hasHadCollision;
     }
 
+    private boolean testGridCollision(CollisionObject dynamic, CollisionObjectData dynamicData, HitBox dynamicBox, boolean constraintsOnly, boolean alwaysSnap, ContactSet contacts) {
+        boolean hasHadCollision = false;
+        int x0 = staticGrid.cellX(dynamicBox.getLeft()), x1 = staticGrid.cellX(dynamicBox.getRight());
+        int y0 = staticGrid.cellY(dynamicBox.getBottom()), y1 = staticGrid.cellY(dynamicBox.getTop());
+        for (int x = x0; x <= x1; x++) {
+            for (int y = y0; y <= y1; y++) {
+                for (CollisionObject otherObj : staticGrid.getCell(x, y)) {
+                    if (!otherObj.hasCollision())
+                        continue;
+                    //The object may have been removed from the grid by another thread since the cell was read
+                    CollisionObjectData otherData = otherObj.getCollisionData();
+                    if (otherData == null)
+                        continue;
+                    int otherID = otherData.id;
+                    if (contacts.contains(dynamicData.id, otherID))
+                        continue;
+                    if (dynamicBox.isColliding(otherObj.getHitBox())) {
+                        dynamic.onCollision(otherObj, constraintsOnly, alwaysSnap);
+                        contacts.add(dynamicData.id, otherID);
+                        hasHadCollision = true;
+                    }
+                }
+            }
+        }
+        return hasHadCollision;
+    }
+
+    //The number of bytes allocated by the current thread, or -1 if the JVM doesn't support measuring it
+    private static long allocatedBytes() {
+        if (THREAD_BEAN == null)
+            return -1;
+        return THREAD_BEAN.getCurrentThreadAllocatedBytes();
+    }
+
+    //Bytes allocated by the collision solver during the last tick, on the tick thread and on the pool
+    //threads solving islands, not including processing of the qAdd and qRemove queues. This should be
+    //zero once no objects are being registered, removed or changing sections, apart from the tasks
+    //scheduled when solving in parallel. -1 if allocation tracking is not supported
+    public long getLastSolverAllocatedBytes() {
+        return THREAD_BEAN == null ? -1 : lastSolverAllocatedBytes;
+    }
+
+    public long getTotalSolverAllocatedBytes() {
+        return THREAD_BEAN == null ? -1 : totalSolverAllocatedBytes;
+    }
+
+    public long getSolverTicks() {
+        return solverTicks;
+    }
+
+    public int getLastSolverLoops() {
+        return lastSolverLoops;
+    }
+
+    //The number of islands that were created in the last tick solved in parallel
+    public int getIslandCount() {
+        return islandCount;
+    }
+
     public CollisionObject getObjectAt(ObjPos pos) {
-        for (CollisionObject object : collisionObjects[yPosToSection(pos.y)]) {
-            if (object.hasCollision() && object.getHitBox().isPositionInside(pos))
+        return getObjectAt(pos.x, pos.y);
+    }
+
+    public CollisionObject getObjectAt(float x, float y) {
+        if (staticGrid != null) {
+            CollisionObject object = staticGrid.getObjectAt(x, y);
+            if (object != null)
+                return object;
+        }
+        for (CollisionObject object : collisionObjects[yPosToSection(y)]) {
+            if (object.hasCollision() && object.getHitBox().isPositionInside(x, y))
                 return object;
         }
         return null;
     }
 
-    public synchronized HashSet<CollisionObject> getBoxCollidingWith(HitBox box) {
+    public HashSet<CollisionObject> getBoxCollidingWith(HitBox box) {
         int topSection = yPosToSection(box.getTop());
         int bottomSection = yPosToSection(box.getBottom());
 
@@ -305,7 +732,14 @@ public class CollisionHandler implements RegisteredTickable {
         for (int i = 0; i < sectionCount; i++) {
             collisionObjects[i].clear();
             dynamicObjects[i].clear();
+            objectArrays[i] = new CollisionObject[0];
+            dynamicArrays[i] = new CollisionObject[0];
+            objectCounts[i] = 0;
+            dynamicCounts[i] = 0;
         }
+        movableCount = 0;
+        if (staticGrid != null)
+            staticGrid.clear();
     }
 
 
@@ -313,12 +747,15 @@ public class CollisionHandler implements RegisteredTickable {
         //The section that the top and bottom which the HitBox is in
         //Usually these will be the same, unless the HitBox happens to be on the
         //boundary between two sections
-        public final int topSection, bottomSection;
+        public int topSection, bottomSection;
+
+        //Dense id assigned by the collision handler when the object is registered, used to record
+        //which objects have already collided with each other. -1 if the object was never registered
+        public int id = -1;
 
-        //For each tick, this stores the objects that have already been collided with.
-        //This list is cleared after each tick, and is there to avoid multiple collisions
-        //being done between two objects within a single tick.
-        public HashSet<CollisionObject> collidedWith = new HashSet<>();
+        //The island that the object was placed in for parallel solving, or -1 if the object
+        //isn't dynamic and can therefore be tested by every island
+        public int island = -1;
 
         public CollisionObjectData(int bottomSection, int topSection) {
             this.bottomSection = bottomSection;
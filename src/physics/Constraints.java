@@ -2,60 +2,77 @@ package physics;
 
 import foundation.Direction;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 public class Constraints {
-    public HashMap<Direction, Boolean> isConstrained = new HashMap<>();
-    public HashMap<Direction, Float> constrainedTo = new HashMap<>();
-    public HashMap<Direction, Float> onceConstrainedTo = new HashMap<>();
-    public HashMap<Direction, HitBox> constrainedToBox = new HashMap<>();
+    //Indexed by Direction ordinal. Stored as arrays rather than maps so that setting
+    //a constraint during collision solving doesn't box floats
+    private final boolean[] isConstrained = new boolean[Direction.values().length];
+    private final boolean[] isOnceConstrained = new boolean[Direction.values().length];
+    private final float[] constrainedTo = new float[Direction.values().length];
+    private final HitBox[] constrainedToBox = new HitBox[Direction.values().length];
 
     public Constraints() {
-        for (Direction direction : Direction.values()) {
-            isConstrained.put(direction, false);
-        }
+        clear();
     }
 
     public boolean is(Direction d) {
-        return isConstrained.get(d);
+        return isConstrained[d.ordinal()];
     }
 
     public float to(Direction d) {
-        return constrainedTo.getOrDefault(d, -1f);
+        return isConstrained[d.ordinal()] ? constrainedTo[d.ordinal()] : -1f;
     }
 
     public float box(Direction d, Direction boxDirection) {
-        HitBox box = constrainedToBox.get(d);
+        HitBox box = constrainedToBox[d.ordinal()];
         if (box == null)
             return -1;
         return box.get(boxDirection);
     }
 
     public void set(Direction d, float to) {
-        isConstrained.put(d, true);
-        constrainedTo.put(d, to);
-        onceConstrainedTo.put(d, to);
+        isConstrained[d.ordinal()] = true;
+        constrainedTo[d.ordinal()] = to;
+        isOnceConstrained[d.ordinal()] = true;
     }
 
     public void set(Direction d, float to, HitBox box) {
-        isConstrained.put(d, true);
-        constrainedTo.put(d, to);
-        onceConstrainedTo.put(d, to);
-        constrainedToBox.put(d, box);
+        set(d, to);
+        constrainedToBox[d.ordinal()] = box;
     }
 
     public void remove(Direction d) {
-        isConstrained.put(d, false);
-        constrainedTo.remove(d);
-        constrainedToBox.remove(d);
+        isConstrained[d.ordinal()] = false;
+        constrainedTo[d.ordinal()] = -1f;
+        constrainedToBox[d.ordinal()] = null;
     }
 
     public boolean onceConstrainedTo(Direction d) {
-        return onceConstrainedTo.get(d) != null;
+        return isOnceConstrained[d.ordinal()];
+    }
+
+    //Resets the constraints to the same state as a newly created object
+    public void clear() {
+        Arrays.fill(isConstrained, false);
+        Arrays.fill(isOnceConstrained, false);
+        Arrays.fill(constrainedTo, -1f);
+        Arrays.fill(constrainedToBox, null);
     }
 
     @Override
     public String toString() {
-        return "is constrained: " + isConstrained.toString() + ", constrained to: " + constrainedTo.toString();
+        StringBuilder isString = new StringBuilder(), toString = new StringBuilder();
+        for (Direction d : Direction.values()) {
+            if (!isString.isEmpty())
+                isString.append(", ");
+            isString.append(d).append("=").append(is(d));
+            if (is(d)) {
+                if (!toString.isEmpty())
+                    toString.append(", ");
+                toString.append(d).append("=").append(to(d));
+            }
+        }
+        return "is constrained: {" + isString + "}, constrained to: {" + toString + "}";
     }
 }
@@ -0,0 +1,97 @@
+package physics;
+
+import java.util.Arrays;
+
+public class ContactSet {
+    /*
+     * Records which pairs of collision objects have already collided during the current solver loop,
+     * keyed by the object ids that the collision handler assigns. This replaces a per-object HashSet
+     * that had to be cleared after every loop.
+     *
+     * The pairs are stored in an open-addressing hash table of primitive keys. Each slot is stamped with
+     * the epoch it was written in, and any slot with an older stamp counts as empty. Clearing the set is
+     * then just incrementing the epoch, meaning that once the table has grown large enough to fit the
+     * contacts of a tick, neither adding nor clearing allocates anything.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] epochs = new int[INITIAL_CAPACITY];
+    private int epoch = 1, size = 0;
+
+    //Returns true if the pair was not already present
+    public boolean add(int idA, int idB) {
+        if ((size + 1) * 2 > keys.length)
+            grow();
+        long key = key(idA, idB);
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (epochs[slot] == epoch) {
+            if (keys[slot] == key)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        epochs[slot] = epoch;
+        size++;
+        return true;
+    }
+
+    public boolean contains(int idA, int idB) {
+        long key = key(idA, idB);
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (epochs[slot] == epoch) {
+            if (keys[slot] == key)
+                return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public void clear() {
+        size = 0;
+        epoch++;
+        //Practically unreachable, but if the epoch wraps around we can no longer tell old stamps apart
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(epochs, 0);
+            epoch = 1;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldEpochs = epochs;
+        keys = new long[oldKeys.length * 2];
+        epochs = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldEpochs[i] != epoch)
+                continue;
+            int slot = hash(oldKeys[i]) & mask;
+            while (epochs[slot] == epoch)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            epochs[slot] = epoch;
+        }
+    }
+
+    //Contacts are symmetric, so the pair is ordered before being combined into a key
+    private static long key(int idA, int idB) {
+        int min = Math.min(idA, idB), max = Math.max(idA, idB);
+        return ((long) min << 32) | (max & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
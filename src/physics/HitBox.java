@@ -25,7 +25,11 @@ public interface HitBox {
     }
 
     default boolean isPositionInside(ObjPos pos) {
-        return pos.y < getTop() && pos.y > getBottom() && pos.x < getRight() && pos.x > getLeft();
+        return isPositionInside(pos.x, pos.y);
+    }
+
+    default boolean isPositionInside(float x, float y) {
+        return y < getTop() && y > getBottom() && x < getRight() && x > getLeft();
     }
 
     //Overlap direction is how much of the hit box is overlapping
@@ -36,18 +40,26 @@ public interface HitBox {
     //same size and at the same height, meaning there is no "direction" for the collision to
     //be in on the Y-axis
     default ObjPos collisionOverlap(HitBox otherBox) {
-        ObjPos direction = new ObjPos();
+        return new ObjPos(collisionOverlapX(otherBox), collisionOverlapY(otherBox));
+    }
+
+    //The X and Y components of collisionOverlap, for use where allocating an ObjPos is undesirable
+    default float collisionOverlapX(HitBox otherBox) {
         if (otherBox.getRight() >= getLeft() && otherBox.getRight() <= getRight()) {
-            direction.addX(getLeft() - otherBox.getRight());
+            return getLeft() - otherBox.getRight();
         } else if (getRight() >= otherBox.getLeft() && getRight() <= otherBox.getRight()) {
-            direction.addX(getRight() - otherBox.getLeft());
+            return getRight() - otherBox.getLeft();
         }
+        return 0;
+    }
+
+    default float collisionOverlapY(HitBox otherBox) {
         if (otherBox.getTop() >= getBottom() && otherBox.getTop() <= getTop()) {
-            direction.addY(getBottom() - otherBox.getTop());
+            return getBottom() - otherBox.getTop();
         } else if (getTop() >= otherBox.getBottom() && getTop() <= otherBox.getTop()) {
-            direction.addY(getTop() - otherBox.getBottom());
+            return getTop() - otherBox.getBottom();
         }
-        return direction;
+        return 0;
     }
 
     default String asString() {
@@ -0,0 +1,162 @@
+package physics;
+
+import foundation.MainPanel;
+import foundation.tick.RegisteredTickable;
+import foundation.tick.TickOrder;
+import level.objects.PhysicsObject;
+import network.NetworkState;
+
+import java.util.Arrays;
+
+public class PhysicsStore implements RegisteredTickable {
+    /*
+     * Struct-of-arrays store for the movement integration of physics objects. Each registered object gets a
+     * dense body id, and instead of every object integrating its own velocity in processMovement, the objects
+     * only do the parts of it that depend on the object itself (player input, friction lookup), and the store
+     * then does the velocity decay, gravity, clamping and position update for all bodies at once.
+     *
+     * Positions and velocities are still owned by the objects, as the collision handler, renderer and network
+     * code read them directly. The store copies them into its arrays at the start of the pass and writes them
+     * back at the end. Everything in between is a plain loop over float arrays, one step at a time, which
+     * the JIT is able to vectorise. None of this allocates, as the arrays are only grown when bodies are added.
+     *
+     * The results are identical to PhysicsObject.processMovement, which is still used for objects that aren't
+     * registered to the store.
+     */
+    public static final boolean USE_PHYSICS_STORE = true;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private PhysicsObject[] bodies = new PhysicsObject[INITIAL_CAPACITY];
+    private float[] posX = new float[INITIAL_CAPACITY], posY = new float[INITIAL_CAPACITY];
+    private float[] velX = new float[INITIAL_CAPACITY], velY = new float[INITIAL_CAPACITY];
+    private float[] gravityX = new float[INITIAL_CAPACITY], gravityY = new float[INITIAL_CAPACITY];
+    //The friction multiplier computed by the body during its own tick
+    private float[] friction = new float[INITIAL_CAPACITY];
+    private int bodyCount = 0;
+
+    private boolean deleted = false;
+
+    public PhysicsStore() {
+        registerTickable();
+    }
+
+    public synchronized void add(PhysicsObject body) {
+        if (body.bodyID != -1)
+            return;
+        if (bodyCount == bodies.length)
+            grow();
+        body.bodyID = bodyCount;
+        bodies[bodyCount] = body;
+        friction[bodyCount] = 1;
+        bodyCount++;
+    }
+
+    //The last body is moved into the slot of the removed body, to keep the ids dense
+    public synchronized void remove(PhysicsObject body) {
+        int id = body.bodyID;
+        if (id == -1 || bodies[id] != body)
+            return;
+        bodyCount--;
+        PhysicsObject last = bodies[bodyCount];
+        bodies[id] = last;
+        friction[id] = friction[bodyCount];
+        last.bodyID = id;
+        bodies[bodyCount] = null;
+        body.bodyID = -1;
+    }
+
+    public void setFriction(int bodyID, float f) {
+        friction[bodyID] = f;
+    }
+
+    public int getBodyCount() {
+        return bodyCount;
+    }
+
+    private void grow() {
+        int length = bodies.length * 2;
+        bodies = Arrays.copyOf(bodies, length);
+        posX = Arrays.copyOf(posX, length);
+        posY = Arrays.copyOf(posY, length);
+        velX = Arrays.copyOf(velX, length);
+        velY = Arrays.copyOf(velY, length);
+        gravityX = Arrays.copyOf(gravityX, length);
+        gravityY = Arrays.copyOf(gravityY, length);
+        friction = Arrays.copyOf(friction, length);
+    }
+
+    @Override
+    public synchronized void tick(float deltaTime) {
+        if (deleted || !isEnabled())
+            return;
+        int n = bodyCount;
+        for (int i = 0; i < n; i++) {
+            PhysicsObject body = bodies[i];
+            posX[i] = body.pos.x;
+            posY[i] = body.pos.y;
+            velX[i] = body.velocity.x;
+            velY[i] = body.velocity.y;
+            gravityX[i] = body.getGravity().x;
+            gravityY[i] = body.getGravity().y;
+        }
+        integrate(n, deltaTime);
+        for (int i = 0; i < n; i++) {
+            PhysicsObject body = bodies[i];
+            body.pos.x = posX[i];
+            body.pos.y = posY[i];
+            body.velocity.x = velX[i];
+            body.velocity.y = velY[i];
+        }
+    }
+
+    //Each step is done in the same order, and with the same float and double conversions,
+    //as the methods in VelocityHandler that processMovement uses
+    private void integrate(int n, float deltaTime) {
+        float expXDecay = PhysicsObject.EXP_X_DECAY, linearXDecay = PhysicsObject.LINEAR_X_DECAY;
+        float maxVelocity = PhysicsObject.MAX_VELOCITY;
+        double expYFactor = Math.exp(-PhysicsObject.EXP_Y_DECAY * deltaTime);
+        for (int i = 0; i < n; i++) {
+            velX[i] = (float) (velX[i] * Math.exp(-(expXDecay * friction[i]) * deltaTime));
+        }
+        for (int i = 0; i < n; i++) {
+            velY[i] = (float) (velY[i] * expYFactor);
+        }
+        for (int i = 0; i < n; i++) {
+            float decay = linearXDecay * friction[i] * deltaTime;
+            float x = velX[i];
+            velX[i] = Math.abs(x) < decay ? 0 : x - Math.signum(x) * decay;
+        }
+        for (int i = 0; i < n; i++) {
+            velX[i] += gravityX[i] * deltaTime;
+            velY[i] += gravityY[i] * deltaTime;
+        }
+        for (int i = 0; i < n; i++) {
+            velX[i] = Math.min(maxVelocity, Math.max(-maxVelocity, velX[i]));
+            velY[i] = Math.min(maxVelocity, Math.max(-maxVelocity, velY[i]));
+        }
+        for (int i = 0; i < n; i++) {
+            posX[i] += velX[i] * deltaTime;
+            posY[i] += velY[i] * deltaTime;
+        }
+    }
+
+    //Clients get the positions of physics objects from the server, and lerp toward them as part of
+    //the movement, so the store is only used when simulating the level locally
+    public static boolean isEnabled() {
+        return USE_PHYSICS_STORE && MainPanel.networkState != NetworkState.CLIENT;
+    }
+
+    @Override
+    public TickOrder getTickOrder() {
+        return TickOrder.BODY_INTEGRATION;
+    }
+
+    @Override
+    public synchronized void delete() {
+        deleted = true;
+        Arrays.fill(bodies, null);
+        bodyCount = 0;
+        removeTickable();
+    }
+}
@@ -10,29 +10,51 @@ import render.ui.UIRenderable;
 
 import java.awt.*;
 import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 import static level.Level.*;
 
 public class GameRenderer implements Renderable, Deletable, UIRegister {
+    //Draw the static blocks of each section into cached tiles, see SectionTileCache
+    public static final boolean BAKE_STATIC_SECTIONS = true;
+    //Runs RenderBenchmark once the level has finished generating
+    public static final boolean DEBUG_RENDER_BENCHMARK = false;
+
     public final AffineTransform transform;
     private final Supplier<AffineTransform> cameraTransform;
     private final Set<BoundedRenderable>
             qRegister = ConcurrentHashMap.newKeySet(),
-            qRemove = ConcurrentHashMap.newKeySet(),
-            nonStatics = ConcurrentHashMap.newKeySet();
+            qRemove = ConcurrentHashMap.newKeySet();
     private final Set<UIRenderable>
             qRegisterUI = ConcurrentHashMap.newKeySet(),
             qRemoveUI = ConcurrentHashMap.newKeySet();
     private Set<BoundedRenderable>[] statics;
-    private TreeMap<RenderOrder, TreeMap<Integer, HashSet<BoundedRenderable>>> renderables = new TreeMap<>();
+    private SectionTileCache tileCache;
+    /*
+     * The renderables to draw, sorted by render order and z-order. Rather than rebuilding them whenever
+     * anything is registered or removed, or the camera moves to another section, non-statics are kept in
+     * one sorted list, and the static blocks drawn each frame in a sorted list per section. Adding or
+     * removing a renderable only changes the list it's in, and the lists of the visible sections are
+     * merged as they're drawn.
+     */
+    private final RenderList nonStaticList = new RenderList();
+    //Only used when the sections aren't baked, otherwise the tile cache keeps the animated blocks of each section
+    private RenderList[] staticLists;
     private TreeMap<Integer, HashSet<UIRenderable>> uiElements = new TreeMap<>();
     private Level level;
+    //Incremented whenever anything is registered or removed, or a static block changes how it looks
+    private final AtomicInteger changes = new AtomicInteger();
+    //Whether the last frame drew nothing but tiles, see isViewStatic
+    private boolean lastFrameStatic = false;
 
     public GameRenderer(AffineTransform transform, Supplier<AffineTransform> cameraTransform, Level level) {
         this.level = level;
@@ -42,27 +64,41 @@ public class GameRenderer implements Renderable, Deletable, UIRegister {
 
     public void createStaticsSet(int sectionCount) {
         statics = new Set[sectionCount];
+        staticLists = new RenderList[sectionCount];
         for (int i = 0; i < sectionCount; i++) {
             statics[i] = ConcurrentHashMap.newKeySet();
+            staticLists[i] = new RenderList();
         }
+        tileCache = new SectionTileCache(statics);
+    }
+
+    //The static block will look different, so the tiles it's drawn in have to be drawn again
+    public void invalidateStatic(BoundedRenderable r) {
+        if (tileCache != null)
+            tileCache.invalidate(r);
+        changes.incrementAndGet();
     }
 
     @Override
     public synchronized void registerUI(UIRenderable r) {
         qRegisterUI.add(r);
+        changes.incrementAndGet();
     }
 
     @Override
     public synchronized void removeUI(UIRenderable r) {
         qRemoveUI.add(r);
+        changes.incrementAndGet();
     }
 
     public synchronized void register(BoundedRenderable r) {
         qRegister.add(r);
+        changes.incrementAndGet();
     }
 
     public synchronized void remove(BoundedRenderable r) {
         qRemove.add(r);
+        changes.incrementAndGet();
     }
 
     private synchronized void processQueued() {
@@ -70,8 +106,13 @@ public class GameRenderer implements Renderable, Deletable, UIRegister {
             if (r instanceof StaticBlock) {
                 statics[yPosToSection(r.getTopRenderBound())].add(r);
                 statics[yPosToSection(r.getBottomRenderBound())].add(r);
+                tileCache.invalidate(r);
+                if (!BAKE_STATIC_SECTIONS) {
+                    staticLists[yPosToSection(r.getTopRenderBound())].add(r);
+                    staticLists[yPosToSection(r.getBottomRenderBound())].add(r);
+                }
             } else
-                nonStatics.add(r);
+                nonStaticList.add(r);
         });
         qRegister.clear();
 
@@ -79,8 +120,13 @@ public class GameRenderer implements Renderable, Deletable, UIRegister {
             if (r instanceof StaticBlock) {
                 statics[yPosToSection(r.getTopRenderBound())].remove(r);
                 statics[yPosToSection(r.getBottomRenderBound())].remove(r);
+                tileCache.invalidate(r);
+                if (!BAKE_STATIC_SECTIONS) {
+                    staticLists[yPosToSection(r.getTopRenderBound())].remove(r);
+                    staticLists[yPosToSection(r.getBottomRenderBound())].remove(r);
+                }
             } else
-                nonStatics.remove(r);
+                nonStaticList.remove(r);
         });
         qRemove.clear();
 
@@ -109,46 +155,79 @@ public class GameRenderer implements Renderable, Deletable, UIRegister {
         int bottomSection = yPosToSection(bottom);
         int topSection = yPosToSection(top);
 
-        boolean rebuild = !qRegister.isEmpty() || !qRemove.isEmpty() || prevBottom != bottomSection || prevTop != topSection;
         processQueued();
-        if (rebuild) {
-            rebuildRenderMap();
-            prevBottom = bottomSection;
-            prevTop = topSection;
-        }
+        if (BAKE_STATIC_SECTIONS)
+            tileCache.update(bottomSection, topSection, transform.getScaleX(), (bottom + top) / 2, g.getRenderingHints());
+        prevBottom = bottomSection;
+        prevTop = topSection;
 
         AffineTransform prev = g.getTransform();
         g.transform(transform);
         g.transform(cameraTransform.get());
-        renderables.forEach((order, zSet) -> zSet.forEach((z, set) -> {
-            set.forEach(r -> {
-                if (bottom < r.getTopRenderBound() && top > r.getBottomRenderBound())
-                    r.render(g);
-            });
-        }));
+        lastFrameStatic = renderLists(g, bottom, top, bottomSection, topSection) == 0 && nonStaticList.size() == 0 && uiElements.isEmpty();
         uiElements.forEach((z, set) -> set.forEach(r -> r.render(g)));
         g.setTransform(prev);
     }
 
-    public synchronized void rebuildRenderMap() {
-        int bottom = level.yPosToSection(-MainPanel.cameraY);
-        int top = level.yPosToSection(-MainPanel.cameraY + MainPanel.BLOCK_DIMENSIONS.y);
-        renderables = new TreeMap<>();
-        for (RenderOrder value : RenderOrder.values()) {
-            renderables.put(value, new TreeMap<>());
-        }
-        for (BoundedRenderable r : nonStatics) {
-            if (!renderables.get(r.getRenderOrder()).containsKey(r.getZOrder()))
-                renderables.get(r.getRenderOrder()).put(r.getZOrder(), new HashSet<>());
-            renderables.get(r.getRenderOrder()).get(r.getZOrder()).add(r);
+    //Returns the number of renderables drawn, not counting the ones in tiles
+    private int renderLists(Graphics2D g, float bottom, float top, int bottomSection, int topSection) {
+        int drawn = 0;
+        RenderList[] lists = new RenderList[topSection - bottomSection + 2];
+        lists[0] = nonStaticList;
+        for (int i = bottomSection; i <= topSection; i++) {
+            lists[i - bottomSection + 1] = BAKE_STATIC_SECTIONS ? tileCache.getAnimated(i) : staticLists[i];
         }
-        for (int i = bottom; i <= top; i++) {
-            for (BoundedRenderable r : statics[i]) {
-                if (!renderables.get(r.getRenderOrder()).containsKey(r.getZOrder()))
-                    renderables.get(r.getRenderOrder()).put(r.getZOrder(), new HashSet<>());
-                renderables.get(r.getRenderOrder()).get(r.getZOrder()).add(r);
+        ArrayList<Iterator<Map.Entry<Long, HashSet<BoundedRenderable>>>> iterators = new ArrayList<>(lists.length);
+        ArrayList<Map.Entry<Long, HashSet<BoundedRenderable>>> next = new ArrayList<>(lists.length);
+        for (RenderOrder order : RenderOrder.values()) {
+            if (BAKE_STATIC_SECTIONS)
+                tileCache.render(g, order, bottomSection, topSection);
+            iterators.clear();
+            next.clear();
+            for (RenderList list : lists) {
+                Iterator<Map.Entry<Long, HashSet<BoundedRenderable>>> iterator = list.inOrder(order).entrySet().iterator();
+                iterators.add(iterator);
+                next.add(iterator.hasNext() ? iterator.next() : null);
+            }
+            //Merge the lists, always drawing the renderables with the lowest z-order next
+            while (true) {
+                int lowest = -1;
+                for (int i = 0; i < lists.length; i++) {
+                    if (next.get(i) != null && (lowest == -1 || next.get(i).getKey() < next.get(lowest).getKey()))
+                        lowest = i;
+                }
+                if (lowest == -1)
+                    break;
+                for (BoundedRenderable r : next.get(lowest).getValue()) {
+                    //Static blocks are in the sections of both their top and bottom, so they're only drawn
+                    //by the lowest visible one
+                    if (lowest != 0) {
+                        int drawnBy = Math.max(bottomSection, yPosToSection(r.getBottomRenderBound()));
+                        if (drawnBy != lowest - 1 + bottomSection)
+                            continue;
+                    }
+                    if (bottom < r.getTopRenderBound() && top > r.getBottomRenderBound()) {
+                        r.render(g);
+                        drawn++;
+                    }
+                }
+                next.set(lowest, iterators.get(lowest).hasNext() ? iterators.get(lowest).next() : null);
             }
         }
+        return drawn;
+    }
+
+    /*
+     * A frame can be drawn again from an earlier one if the view is static, meaning that the last frame
+     * drew nothing but the tiles of static blocks, and there's nothing that could move into view, and the
+     * change count hasn't changed since. The camera position has to be checked separately.
+     */
+    public synchronized boolean isViewStatic() {
+        return lastFrameStatic;
+    }
+
+    public int getChangeCount() {
+        return changes.get();
     }
 
     private Random zOrderSource;
@@ -0,0 +1,126 @@
+package render;
+
+import foundation.MainPanel;
+import level.Level;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+public abstract class RenderBenchmark {
+    /*
+     * Compares keeping renderables sorted in an incremental RenderList with rebuilding a map of them
+     * sorted by render order and z-order on every change, the way GameRenderer used to. Renderables are
+     * added and removed every frame, the way blocks and markers are during generation and physics, while
+     * a larger number of them stays registered throughout, and every frame goes through the renderables
+     * in order. Fails if the two ever go through them in a different order.
+     */
+    private static final int STATIC_RENDERABLES = 2000, CHURN_PER_FRAME = 200;
+    private static final int WARMUP_FRAMES = 50, BENCHMARK_FRAMES = 200;
+    //The number of times the render list and the rebuilt map are compared, only the last one is timed as
+    //the earlier ones are still being compiled by the JIT
+    private static final int LIST_RUNS = 4;
+
+    //Returns whether the render list kept the same order as the rebuilt map
+    public static boolean run(Level level) {
+        long[] rebuilt = null, incremental = null;
+        boolean sameOrder = true;
+        for (int i = 0; i < LIST_RUNS; i++) {
+            rebuilt = runFrames(false);
+            incremental = runFrames(true);
+            sameOrder &= rebuilt[1] == incremental[1];
+        }
+
+        System.out.println("--------------------[ Render benchmark ]-----------------------");
+        System.out.println("renderables: " + STATIC_RENDERABLES + ", registered and removed per frame: " + CHURN_PER_FRAME);
+        System.out.println("time per frame with render map rebuilt: " + rebuilt[0] / BENCHMARK_FRAMES / 1000 + " us");
+        System.out.println("time per frame with incremental render list: " + incremental[0] / BENCHMARK_FRAMES / 1000 + " us");
+        System.out.println("speedup: " + ((float) rebuilt[0]) / incremental[0]);
+        System.out.println("same order as the rebuilt map: " + sameOrder);
+        System.out.println("result: " + (sameOrder ? "PASSED" : "FAILED"));
+        System.out.println("---------------------------------------------------------------");
+        return sameOrder;
+    }
+
+    //Returns the total time of the benchmark frames in nanoseconds, and a hash of the order the renderables were gone through in
+    private static long[] runFrames(boolean incremental) {
+        //The same renderables each run, so that both runs go through the same ones
+        Random random = new Random(0);
+        ArrayList<BenchmarkRenderable> registered = new ArrayList<>();
+        RenderList list = new RenderList();
+        for (int i = 0; i < STATIC_RENDERABLES; i++) {
+            BenchmarkRenderable r = new BenchmarkRenderable(random);
+            registered.add(r);
+            list.add(r);
+        }
+        long time = 0, orderHash = 0;
+        for (int frame = 0; frame < WARMUP_FRAMES + BENCHMARK_FRAMES; frame++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CHURN_PER_FRAME; i++) {
+                BenchmarkRenderable r = new BenchmarkRenderable(random);
+                BenchmarkRenderable removed = registered.set(random.nextInt(registered.size()), r);
+                if (incremental) {
+                    list.remove(removed);
+                    list.add(r);
+                }
+            }
+            //Renderables sharing a key can be gone through in any order, so only the keys are hashed
+            long[] hash = new long[1];
+            Consumer<BoundedRenderable> visit = r -> hash[0] = hash[0] * 31 + RenderList.key(r.getRenderOrder(), r.getZOrder());
+            if (incremental)
+                list.forEach(visit);
+            else {
+                TreeMap<RenderOrder, TreeMap<Integer, HashSet<BoundedRenderable>>> renderables = new TreeMap<>();
+                for (BoundedRenderable r : registered) {
+                    renderables.computeIfAbsent(r.getRenderOrder(), order -> new TreeMap<>())
+                            .computeIfAbsent(r.getZOrder(), z -> new HashSet<>()).add(r);
+                }
+                renderables.forEach((order, zSet) -> zSet.forEach((z, set) -> set.forEach(visit)));
+            }
+            if (frame >= WARMUP_FRAMES)
+                time += System.nanoTime() - start;
+            orderHash = orderHash * 31 + hash[0];
+        }
+        return new long[]{time, orderHash};
+    }
+
+    private static class BenchmarkRenderable implements BoundedRenderable {
+        private final float y;
+        private final int z;
+        private final RenderOrder order;
+
+        private BenchmarkRenderable(Random random) {
+            y = -MainPanel.cameraY + random.nextFloat() * MainPanel.BLOCK_DIMENSIONS.y;
+            z = random.nextInt();
+            order = RenderOrder.values()[random.nextInt(RenderOrder.values().length)];
+        }
+
+        //Never drawn, the benchmark only keeps them sorted
+        @Override
+        public void render(Graphics2D g) {
+        }
+
+        @Override
+        public RenderOrder getRenderOrder() {
+            return order;
+        }
+
+        @Override
+        public float getTopRenderBound() {
+            return y + 1;
+        }
+
+        @Override
+        public float getBottomRenderBound() {
+            return y - 1;
+        }
+
+        @Override
+        public int getZOrder() {
+            return z;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package render;
+
+import java.util.HashSet;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+public class RenderList {
+    /*
+     * Renderables sorted by render order and then by z-order, kept sorted as they're added and removed.
+     * Both orders are combined into a single key, so each list is one TreeMap, and renderables sharing a
+     * key are drawn in any order, as they were before. The render order and z-order of a renderable must
+     * not change while it's in the list.
+     */
+    private final TreeMap<Long, HashSet<BoundedRenderable>> renderables = new TreeMap<>();
+    private int size = 0;
+
+    public void add(BoundedRenderable r) {
+        if (renderables.computeIfAbsent(key(r.getRenderOrder(), r.getZOrder()), k -> new HashSet<>()).add(r))
+            size++;
+    }
+
+    public void remove(BoundedRenderable r) {
+        long key = key(r.getRenderOrder(), r.getZOrder());
+        HashSet<BoundedRenderable> set = renderables.get(key);
+        if (set == null || !set.remove(r))
+            return;
+        size--;
+        if (set.isEmpty())
+            renderables.remove(key);
+    }
+
+    public void forEach(Consumer<BoundedRenderable> action) {
+        renderables.forEach((key, set) -> set.forEach(action));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //The renderables in a single render order, sorted by z-order
+    public NavigableMap<Long, HashSet<BoundedRenderable>> inOrder(RenderOrder order) {
+        return renderables.subMap(key(order, Integer.MIN_VALUE), true, key(order, Integer.MAX_VALUE), true);
+    }
+
+    public static long key(RenderOrder order, int z) {
+        return ((long) order.ordinal() << 32) + ((long) z - Integer.MIN_VALUE);
+    }
+}
@@ -0,0 +1,154 @@
+package render;
+
+import foundation.Main;
+import level.objects.BlockLike;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static level.Level.*;
+
+public class SectionTileCache {
+    /*
+     * Static blocks never move, so rather than drawing every static block in view each frame, the static
+     * blocks of a level section are drawn once into a tile image, and the tile is drawn instead. Each
+     * render order gets its own tile, so that non-static objects in other render orders, such as players,
+     * are still drawn in between them. Non-static objects in the same render order as a tile are drawn on
+     * top of it, rather than being sorted by z-order together with the static blocks.
+     *
+     * Tiles are drawn at the size they're shown at, so that drawing one doesn't need to scale it. They
+     * are drawn again whenever a block in the section is added, removed or updated, and all of them are
+     * dropped if the window scale changes. Blocks with animated textures can't be drawn in advance, and
+     * are drawn each frame as before.
+     *
+     * Only the MAX_TILES tiles closest to the camera are kept, so that moving through the level doesn't
+     * keep the whole level in memory. A tile is the full width of the screen, so each one can be a few MB.
+     */
+    public static final int MAX_TILES = 24;
+
+    private final Set<BoundedRenderable>[] statics;
+    //Incremented whenever something in the section changes, so that the tiles know that they're outdated.
+    //Changes can come from any thread, while tiles are only drawn by the render thread
+    private final AtomicIntegerArray versions;
+    private final HashMap<Integer, SectionTiles> sections = new HashMap<>();
+    private double scale = 0;
+    //Never added to
+    private static final RenderList EMPTY_LIST = new RenderList();
+    private int tileCount = 0;
+
+    public SectionTileCache(Set<BoundedRenderable>[] statics) {
+        this.statics = statics;
+        versions = new AtomicIntegerArray(statics.length);
+    }
+
+    public void invalidate(BoundedRenderable r) {
+        invalidateSection((int) (r.getTopRenderBound() / SECTION_SIZE));
+        invalidateSection((int) (r.getBottomRenderBound() / SECTION_SIZE));
+    }
+
+    private void invalidateSection(int section) {
+        if (section >= 0 && section < versions.length())
+            versions.incrementAndGet(section);
+    }
+
+    //Draws the tiles of the visible sections that are missing or outdated, returns true if any of them were drawn
+    public boolean update(int bottomSection, int topSection, double scale, float cameraCentre, RenderingHints hints) {
+        if (scale != this.scale) {
+            sections.clear();
+            tileCount = 0;
+            this.scale = scale;
+        }
+        boolean updated = false;
+        for (int i = Math.max(0, bottomSection); i <= topSection && i < statics.length; i++) {
+            SectionTiles tiles = sections.get(i);
+            int version = versions.get(i);
+            if (tiles != null && tiles.version == version)
+                continue;
+            if (tiles != null)
+                tileCount -= tiles.tiles.size();
+            tiles = drawSection(i, version, hints);
+            tileCount += tiles.tiles.size();
+            sections.put(i, tiles);
+            updated = true;
+        }
+        evict(bottomSection, topSection, cameraCentre);
+        return updated;
+    }
+
+    //Blocks in the section that aren't in its tiles, and have to be drawn every frame. Only valid for the
+    //sections that were visible during the last update, other sections may not have any tiles
+    public RenderList getAnimated(int section) {
+        SectionTiles tiles = sections.get(section);
+        return tiles == null ? EMPTY_LIST : tiles.animated;
+    }
+
+    public void render(Graphics2D g, RenderOrder order, int bottomSection, int topSection) {
+        for (int i = Math.max(0, bottomSection); i <= topSection && i < statics.length; i++) {
+            SectionTiles tiles = sections.get(i);
+            if (tiles == null)
+                continue;
+            BufferedImage tile = tiles.tiles.get(order);
+            if (tile == null)
+                continue;
+            //Undo the scale and flip of the game transform, so that the tile is drawn one pixel to one pixel
+            AffineTransform t = new AffineTransform();
+            t.translate(0, (i + 1) * SECTION_SIZE);
+            t.scale(1 / scale, -1 / scale);
+            g.drawImage(tile, t, Main.window);
+        }
+    }
+
+    private SectionTiles drawSection(int section, int version, RenderingHints hints) {
+        SectionTiles tiles = new SectionTiles(version);
+        EnumMap<RenderOrder, ArrayList<BoundedRenderable>> orders = new EnumMap<>(RenderOrder.class);
+        for (BoundedRenderable r : statics[section]) {
+            if (r instanceof BlockLike b && b.blockRequiresTick()) {
+                tiles.animated.add(r);
+                continue;
+            }
+            orders.computeIfAbsent(r.getRenderOrder(), o -> new ArrayList<>()).add(r);
+        }
+        int width = (int) Math.ceil(Main.BLOCKS_X * scale), height = (int) Math.ceil(SECTION_SIZE * scale);
+        orders.forEach((order, renderables) -> {
+            renderables.sort(Comparator.comparingInt(BoundedRenderable::getZOrder));
+            BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g = tile.createGraphics();
+            g.setRenderingHints(hints);
+            //The same transform as the game transform, with the top of the section at the top of the tile
+            g.scale(scale, -scale);
+            g.translate(0, -(section + 1) * SECTION_SIZE);
+            renderables.forEach(r -> r.render(g));
+            g.dispose();
+            tiles.tiles.put(order, tile);
+        });
+        return tiles;
+    }
+
+    private void evict(int bottomSection, int topSection, float cameraCentre) {
+        if (tileCount <= MAX_TILES)
+            return;
+        ArrayList<Integer> bySection = new ArrayList<>(sections.keySet());
+        bySection.sort(Comparator.comparingDouble(i -> -Math.abs((i + 0.5f) * SECTION_SIZE - cameraCentre)));
+        for (int i : bySection) {
+            if (tileCount <= MAX_TILES)
+                break;
+            //The visible sections are always kept, even if they alone are over the limit
+            if (i >= bottomSection && i <= topSection)
+                continue;
+            tileCount -= sections.remove(i).tiles.size();
+        }
+    }
+
+    private static class SectionTiles {
+        public final int version;
+        public final EnumMap<RenderOrder, BufferedImage> tiles = new EnumMap<>(RenderOrder.class);
+        public final RenderList animated = new RenderList();
+
+        private SectionTiles(int version) {
+            this.version = version;
+        }
+    }
+}
@@ -17,8 +17,8 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Vector;
+import java.util.function.DoubleSupplier;
 import java.util.function.Function;
-import java.util.function.Supplier;
 
 public class RandomTexture implements TickedRenderable, RenderEventListener, Tickable {
     private final Vector<TickedRenderable> textures = new Vector<>();
@@ -49,16 +49,16 @@ public class RandomTexture implements TickedRenderable, RenderEventListener, Tic
             switchToNewTexture(textureRandom::nextDouble);
     }
 
-    private void switchToNewTexture(Supplier<Double> random) {
+    private void switchToNewTexture(DoubleSupplier random) {
         if (guaranteeUnique) {
             Renderable prev = activeTexture;
             while (prev == activeTexture && (transform == null || transform.equals(prevTransform))) {
-                index = (int) (random.get() * textures.size());
+                index = (int) (random.getAsDouble() * textures.size());
                 activeTexture = textures.get(index);
                 createNewTransform(random);
             }
         } else {
-            index = (int) (random.get() * textures.size());
+            index = (int) (random.getAsDouble() * textures.size());
             activeTexture = textures.get(index);
             createNewTransform(random);
         }
@@ -68,7 +68,7 @@ public class RandomTexture implements TickedRenderable, RenderEventListener, Tic
             tickable = null;
     }
 
-    private void createNewTransform(Supplier<Double> random) {
+    private void createNewTransform(DoubleSupplier random) {
         if (!isRandomlyRotated)
             return;
         prevTransform = transform;
@@ -210,7 +210,7 @@ public class RandomTexture implements TickedRenderable, RenderEventListener, Tic
             throw new IllegalArgumentException("Unknown rotation type: " + s);
         }
 
-        public float getRotation(Supplier<Double> randomSource) {
+        public float getRotation(DoubleSupplier randomSource) {
             return possibleRotations[MathUtil.randIntBetween(0, possibleRotations.length - 1, randomSource)];
         }
 
@@ -9,6 +9,7 @@ import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.awt.image.RescaleOp;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 public class TextureAsset implements TickedRenderable {
@@ -16,6 +17,7 @@ public class TextureAsset implements TickedRenderable {
     public BufferedImage image;
     public AffineTransform transform;
     private boolean recoloured = false;
+    private final ConcurrentHashMap<RescaleOp, TextureAsset> colourModified = new ConcurrentHashMap<>();
 
     private TextureAsset(ResourceLocation resource, BufferedImage image, AffineTransform transform, boolean flip) {
         this.resource = resource;
@@ -30,10 +32,20 @@ public class TextureAsset implements TickedRenderable {
     public TextureAsset colourModified(RescaleOp op) {
         if (recoloured)
             return this;
-        if (image.getData().getNumDataElements() == 4) {
-            TextureAsset t = new TextureAsset(resource, op.filter(image, op.createCompatibleDestImage(image, image.getColorModel())), transform, false);
-            t.recoloured = true;
-            return t;
+        //Each colour is only applied once, and the same texture is returned every time it's used again,
+        //such as when players leave and join
+        TextureAsset cached = colourModified.get(op);
+        if (cached != null) {
+            AssetManager.colourModifiedHits.incrementAndGet();
+            return cached;
+        }
+        if (image.getColorModel().getNumComponents() == 4) {
+            return colourModified.computeIfAbsent(op, o -> {
+                AssetManager.colourModifiedMisses.incrementAndGet();
+                TextureAsset t = new TextureAsset(resource, op.filter(image, op.createCompatibleDestImage(image, image.getColorModel())), transform, false);
+                t.recoloured = true;
+                return t;
+            });
         } else {
             System.out.println("[WARNING] Formatting of image with path \"" + resource.relativePath + "\" does not support color modification");
             return this;
@@ -86,7 +98,7 @@ public class TextureAsset implements TickedRenderable {
             float bFactor = colorFactorObj.getOrDefault("b", 1f, JsonType.FLOAT_JSON_TYPE);
             float aFactor = colorFactorObj.getOrDefault("a", 1f, JsonType.FLOAT_JSON_TYPE);
             Function<Graphics2D, RescaleOp> op4 = g -> new RescaleOp(new float[]{rFactor, gFactor, bFactor, aFactor}, new float[]{0, 0, 0, 0}, g.getRenderingHints());
-            if (image.getData().getNumDataElements() == 4) {
+            if (image.getColorModel().getNumComponents() == 4) {
                 op4.apply(image.createGraphics()).filter(image, image);
             } else
                 System.out.println("[WARNING] Formatting of image with path \"" + imageResource.relativePath + "\" does not support color modification");
@@ -135,7 +147,7 @@ public class TextureAsset implements TickedRenderable {
             }
             String imageFile = path.substring(path.lastIndexOf("/") + 1);
             if (op4 != null) {
-                if (image.getData().getNumDataElements() == 4)
+                if (image.getColorModel().getNumComponents() == 4)
                     op4.apply(image.createGraphics()).filter(image, image);
                 else
                     System.out.println("[WARNING] Formatting of image with path \"" + path + "\" does not support color modification");
@@ -2,28 +2,38 @@ package render.texture.ct;
 
 import foundation.expression.Expression;
 import foundation.expression.ExpressionFunction;
+import foundation.expression.ExpressionNode;
 import foundation.expression.ExpressionObject;
+import foundation.expression.ExpressionObjectStatic;
 import foundation.expression.ExpressionValue;
 import foundation.math.ObjPos;
 import level.ObjectLayer;
 import level.objects.BlockLike;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 
 public class CTExpression extends Expression<CTExpressionData> {
+    //Looking up blocks in the level costs a lot more than reading fields, and more again when every layer is checked
+    private static final int LAYER_LOOKUP_COST = 10, ALL_LAYERS_LOOKUP_COST = LAYER_LOOKUP_COST * ObjectLayer.values().length;
+
+    //The expression data itself, used as the first argument of the calls in the expression nodes.
+    //It has to be created before the parser, which uses it in its constructor
+    private static final ExpressionObject<CTExpressionData, CTExpressionData> input = new ExpressionObject<>(CTExpressionData.class, o -> o, ExpressionNode.input());
+
     public static final CTExpression parser = new CTExpression();
 
     protected CTExpression() {
         super();
-        addValue(new ExpressionValue<>("ur", new ExpressionObject<>(ObjPos.class, o -> o.b.getPos().copy().add(1, 1))));
-        addValue(new ExpressionValue<>("ul", new ExpressionObject<>(ObjPos.class, o -> o.b.getPos().copy().add(-1, 1))));
-        addValue(new ExpressionValue<>("dr", new ExpressionObject<>(ObjPos.class, o -> o.b.getPos().copy().add(1, -1))));
-        addValue(new ExpressionValue<>("dl", new ExpressionObject<>(ObjPos.class, o -> o.b.getPos().copy().add(-1, -1))));
-        addValue(new ExpressionValue<>("u", new ExpressionObject<>(ObjPos.class, o -> o.b.getPos().copy().add(0, 1))));
-        addValue(new ExpressionValue<>("d", new ExpressionObject<>(ObjPos.class, o -> o.b.getPos().copy().add(0, -1))));
-        addValue(new ExpressionValue<>("l", new ExpressionObject<>(ObjPos.class, o -> o.b.getPos().copy().add(-1, 0))));
-        addValue(new ExpressionValue<>("r", new ExpressionObject<>(ObjPos.class, o -> o.b.getPos().copy().add(1, 0))));
-        addValue(new ExpressionValue<>("this", new ExpressionObject<>(BlockLike.class, o -> o.b)));
+        addValue(new ExpressionValue<>("ur", offset(1, 1)));
+        addValue(new ExpressionValue<>("ul", offset(-1, 1)));
+        addValue(new ExpressionValue<>("dr", offset(1, -1)));
+        addValue(new ExpressionValue<>("dl", offset(-1, -1)));
+        addValue(new ExpressionValue<>("u", offset(0, 1)));
+        addValue(new ExpressionValue<>("d", offset(0, -1)));
+        addValue(new ExpressionValue<>("l", offset(-1, 0)));
+        addValue(new ExpressionValue<>("r", offset(1, 0)));
+        addValue(new ExpressionValue<>("this", new ExpressionObject<>(BlockLike.class, o -> o.b, ExpressionNode.call(CTExpression.class, "thisBlock", input))));
 
         addFunction(new ExpressionFunction<>("intProperty", args -> {
             if (args.size() != 1)
@@ -54,13 +64,13 @@ public class CTExpression extends Expression<CTExpressionData> {
             if (args.size() == 2)
                 return new ExpressionObject<>(BlockLike.class, o -> {
                     ObjPos pos = getArg(0, args, o, ObjPos.class);
-                    return o.l.getBlock(ObjectLayer.getObjectLayer(getArg(1, args, o, String.class)), (int) pos.x, (int) pos.y);
-                });
+                    return blockOnLayer(o, pos.x, pos.y, objectLayer(getArg(1, args, o, String.class)));
+                }, callNode("blockOnLayer", LAYER_LOOKUP_COST, args));
             if (args.size() == 1)
                 return new ExpressionObject<>(BlockLike.class, o -> {
                     ObjPos pos = getArg(0, args, o, ObjPos.class);
-                    return o.l.getBlock(o.b.getLayer(), (int) pos.x, (int) pos.y);
-                });
+                    return blockAt(o, pos.x, pos.y);
+                }, callNode("blockAt", LAYER_LOOKUP_COST, args));
             throw new IllegalArgumentException("Incorrectly formatted expression, the \"block\" function requires two arguments");
         }));
         //Does any block exist at the specified position, on any layer, or on specific layers if specified? Returns boolean
@@ -68,15 +78,14 @@ public class CTExpression extends Expression<CTExpressionData> {
             if (args.size() == 1)
                 return new ExpressionObject<>(Boolean.class, o -> {
                     ObjPos pos = getArg(0, args, o, ObjPos.class);
-                    if (o.l.outOfBounds(((int) pos.x), ((int) pos.y)))
-                        return true;
-                    for (ObjectLayer layer : ObjectLayer.values()) {
-                        if (o.l.getBlock(layer, (int) pos.x, (int) pos.y) != null)
-                            return true;
-                    }
-                    return false;
-                });
-            else return new ExpressionObject<>(Boolean.class, o -> {
+                    return existsBlockAt(o, pos.x, pos.y);
+                }, callNode("existsBlockAt", ALL_LAYERS_LOOKUP_COST, args));
+            if (args.size() == 2)
+                return new ExpressionObject<>(Boolean.class, o -> {
+                    ObjPos pos = getArg(0, args, o, ObjPos.class);
+                    return existsBlockOnLayer(o, pos.x, pos.y, objectLayer(getArg(1, args, o, String.class)));
+                }, callNode("existsBlockOnLayer", LAYER_LOOKUP_COST, args));
+            return new ExpressionObject<>(Boolean.class, o -> {
                 ObjPos pos = getArg(0, args, o, ObjPos.class);
                 if (o.l.outOfBounds(((int) pos.x), ((int) pos.y)))
                     return true;
@@ -98,16 +107,14 @@ public class CTExpression extends Expression<CTExpressionData> {
             if (args.size() == 1)
                 return new ExpressionObject<>(Boolean.class, o -> {
                     ObjPos pos = getArg(0, args, o, ObjPos.class);
-                    if (o.l.outOfBounds(((int) pos.x), ((int) pos.y)))
-                        return true;
-                    for (ObjectLayer layer : ObjectLayer.values()) {
-                        BlockLike block = o.l.getBlock(layer, (int) pos.x, (int) pos.y);
-                        if (block != null && block.hasCollision())
-                            return true;
-                    }
-                    return false;
-                });
-            else return new ExpressionObject<>(Boolean.class, o -> {
+                    return existsBlockWithCollisionAt(o, pos.x, pos.y);
+                }, callNode("existsBlockWithCollisionAt", ALL_LAYERS_LOOKUP_COST, args));
+            if (args.size() == 2)
+                return new ExpressionObject<>(Boolean.class, o -> {
+                    ObjPos pos = getArg(0, args, o, ObjPos.class);
+                    return existsBlockWithCollisionOnLayer(o, pos.x, pos.y, objectLayer(getArg(1, args, o, String.class)));
+                }, callNode("existsBlockWithCollisionOnLayer", LAYER_LOOKUP_COST, args));
+            return new ExpressionObject<>(Boolean.class, o -> {
                 ObjPos pos = getArg(0, args, o, ObjPos.class);
                 if (o.l.outOfBounds(((int) pos.x), ((int) pos.y)))
                     return true;
@@ -126,4 +133,97 @@ public class CTExpression extends Expression<CTExpressionData> {
             });
         }));
     }
+
+    private static ExpressionObject<CTExpressionData, ObjPos> offset(int x, int y) {
+        ExpressionObject<CTExpressionData, Number> offsetX = new ExpressionObject<>(Number.class, o -> offsetX(o, x),
+                ExpressionNode.call(CTExpression.class, "offsetX", input, new ExpressionObjectStatic<>(Number.class, o -> x, x)));
+        ExpressionObject<CTExpressionData, Number> offsetY = new ExpressionObject<>(Number.class, o -> offsetY(o, y),
+                ExpressionNode.call(CTExpression.class, "offsetY", input, new ExpressionObjectStatic<>(Number.class, o -> y, y)));
+        return new ExpressionObject<>(ObjPos.class, o -> o.b.getPos().copy().add(x, y), ExpressionNode.position(offsetX, offsetY));
+    }
+
+    /*
+     * The first argument must be a position and the rest layer names, otherwise the function is only
+     * evaluated as a closure. The layer names are looked up as a separate call, so that the lookup can
+     * be folded when the name is constant, and shared when the same layer is used several times.
+     */
+    private static ExpressionNode callNode(String name, int cost, ArrayList<ExpressionObject<CTExpressionData, ?>> args) {
+        if (!ObjPos.class.equals(args.get(0).returnType))
+            return null;
+        ExpressionObject<?, ?>[] nodeArgs = new ExpressionObject<?, ?>[args.size() + 1];
+        nodeArgs[0] = input;
+        nodeArgs[1] = args.get(0);
+        for (int i = 1; i < args.size(); i++) {
+            if (!String.class.equals(args.get(i).returnType))
+                return null;
+            ExpressionObject<CTExpressionData, ?> layerName = args.get(i);
+            nodeArgs[i + 1] = new ExpressionObject<CTExpressionData, ObjectLayer>(ObjectLayer.class, o -> objectLayer((String) layerName.f.apply(o)),
+                    ExpressionNode.call(CTExpression.class, "objectLayer", layerName));
+        }
+        return ExpressionNode.call(cost, CTExpression.class, name, nodeArgs);
+    }
+
+    //The functions below are called by the closures, and described by the expression nodes
+
+    public static float offsetX(CTExpressionData o, float x) {
+        return o.b.getPos().x + x;
+    }
+
+    public static float offsetY(CTExpressionData o, float y) {
+        return o.b.getPos().y + y;
+    }
+
+    public static BlockLike thisBlock(CTExpressionData o) {
+        return o.b;
+    }
+
+    public static BlockLike blockAt(CTExpressionData o, float x, float y) {
+        return o.l.getBlock(o.b.getLayer(), (int) x, (int) y);
+    }
+
+    public static ObjectLayer objectLayer(String name) {
+        return ObjectLayer.getObjectLayer(name);
+    }
+
+    public static BlockLike blockOnLayer(CTExpressionData o, float x, float y, ObjectLayer layer) {
+        return o.l.getBlock(layer, (int) x, (int) y);
+    }
+
+    public static boolean existsBlockAt(CTExpressionData o, float x, float y) {
+        if (o.l.outOfBounds(((int) x), ((int) y)))
+            return true;
+        for (ObjectLayer layer : ObjectLayer.values()) {
+            if (o.l.getBlock(layer, (int) x, (int) y) != null)
+                return true;
+        }
+        return false;
+    }
+
+    public static boolean existsBlockOnLayer(CTExpressionData o, float x, float y, ObjectLayer layer) {
+        if (o.l.outOfBounds(((int) x), ((int) y)))
+            return true;
+        if (!layer.addToStatic)
+            throw new IllegalArgumentException("Incorrectly formatted expression, function \"existsBlock\" was provided a non-static ObjectLayer as an argument");
+        return o.l.getBlock(layer, (int) x, (int) y) != null;
+    }
+
+    public static boolean existsBlockWithCollisionAt(CTExpressionData o, float x, float y) {
+        if (o.l.outOfBounds(((int) x), ((int) y)))
+            return true;
+        for (ObjectLayer layer : ObjectLayer.values()) {
+            BlockLike block = o.l.getBlock(layer, (int) x, (int) y);
+            if (block != null && block.hasCollision())
+                return true;
+        }
+        return false;
+    }
+
+    public static boolean existsBlockWithCollisionOnLayer(CTExpressionData o, float x, float y, ObjectLayer layer) {
+        if (o.l.outOfBounds(((int) x), ((int) y)))
+            return true;
+        if (!layer.addToStatic)
+            throw new IllegalArgumentException("Incorrectly formatted expression, function \"existsBlockWithCollision\" was provided a non-static ObjectLayer as an argument");
+        BlockLike block = o.l.getBlock(layer, (int) x, (int) y);
+        return block != null && block.hasCollision();
+    }
 }
@@ -0,0 +1,141 @@
+package render.texture.ct;
+
+import foundation.expression.Expression;
+import foundation.expression.ExpressionOptimizer;
+import level.Level;
+import level.objects.BlockLike;
+
+import java.util.ArrayList;
+import java.util.function.Function;
+
+public abstract class CTExpressionBenchmark {
+    /*
+     * Compares evaluating the connected texture conditions by parsing them every time, which is what
+     * connected textures used to do on every block update, against evaluating the compiled conditions.
+     * Every condition of every loaded connected texture is evaluated for a sample of the level's static
+     * blocks, the same way a block update would, and both ways must give the same result.
+     *
+     * The compiled conditions are also compared against the parsed closures they were compiled from,
+     * for every block and condition, which checks the ExpressionOptimizer against the closures it
+     * replaces, and timed against them to measure what the optimizer saves on each ConnectedTexture
+     * update, which evaluates every condition of the texture once.
+     *
+     * Conditions that ConnectedTexture looks up in a CTNeighbourTable aren't evaluated at all, so the
+     * number of conditions the level's updates evaluated and looked up so far is printed alongside.
+     *
+     * Fails if any way of evaluating the conditions gives a different result than the others.
+     */
+    private static final int SAMPLE_BLOCKS = 2000;
+    //Parsing is slow enough to warm up in a couple of rounds, the closures need more to be fully compiled by the JIT
+    private static final int PARSED_WARMUP_ROUNDS = 2, WARMUP_ROUNDS = 30, BENCHMARK_ROUNDS = 5;
+
+    //Returns whether every way of evaluating the conditions gave the same results, or true if skipped
+    public static boolean run(Level level) {
+        ArrayList<String> conditions = new ArrayList<>(ConnectedTexture.loadedConditions);
+        conditions.sort(String::compareTo);
+        ArrayList<BlockLike> blocks = new ArrayList<>();
+        level.staticBlocks.forEach(b -> {
+            if (blocks.size() < SAMPLE_BLOCKS)
+                blocks.add(b);
+        });
+        if (conditions.isEmpty() || blocks.isEmpty()) {
+            System.out.println("connected texture expression benchmark skipped, no conditions or blocks to test");
+            return true;
+        }
+        ArrayList<Function<CTExpressionData, ?>> compiled = new ArrayList<>(), closures = new ArrayList<>();
+        long compileTime = System.nanoTime();
+        for (String condition : conditions) {
+            compiled.add(CTExpression.parser.compileExpression(condition));
+        }
+        compileTime = System.nanoTime() - compileTime;
+        for (String condition : conditions) {
+            closures.add(CTExpression.parser.parseExpression(condition));
+        }
+        int mismatches = compareResults(level, blocks, closures, compiled);
+
+        for (int i = 0; i < PARSED_WARMUP_ROUNDS; i++) {
+            evaluateParsed(level, blocks, conditions);
+        }
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            evaluateCompiled(level, blocks, closures);
+            evaluateCompiled(level, blocks, compiled);
+        }
+        long parsedTime = 0, closureTime = 0, compiledTime = 0;
+        int parsedResult = 0, closureResult = 0, compiledResult = 0;
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            long time = System.nanoTime();
+            parsedResult = evaluateParsed(level, blocks, conditions);
+            parsedTime += System.nanoTime() - time;
+            time = System.nanoTime();
+            closureResult = evaluateCompiled(level, blocks, closures);
+            closureTime += System.nanoTime() - time;
+            time = System.nanoTime();
+            compiledResult = evaluateCompiled(level, blocks, compiled);
+            compiledTime += System.nanoTime() - time;
+        }
+        long evaluations = (long) BENCHMARK_ROUNDS * conditions.size() * blocks.size();
+        long updates = (long) BENCHMARK_ROUNDS * blocks.size();
+
+        System.out.println("-------------[ Connected texture expression benchmark ]-------------");
+        System.out.println("conditions: " + conditions.size());
+        System.out.println("blocks: " + blocks.size());
+        System.out.println("evaluations: " + evaluations);
+        System.out.println("compile time: " + (compileTime / 1000000f) + " ms");
+        System.out.println("parsed per evaluation: " + (parsedTime / evaluations) + " ns per evaluation");
+        System.out.println("parsed once, closures: " + (closureTime / evaluations) + " ns per evaluation");
+        System.out.println("compiled" + (Expression.OPTIMIZE_EXPRESSIONS ? ", optimized closures: " : ": ") + (compiledTime / evaluations) + " ns per evaluation");
+        System.out.println("speedup: " + Math.round(parsedTime * 100f / compiledTime) / 100f + "x");
+        System.out.println("speedup over closures: " + Math.round(closureTime * 100f / compiledTime) / 100f + "x");
+        System.out.println("per update, closures: " + (closureTime / updates) + " ns, compiled: " + (compiledTime / updates) +
+                " ns, reduction: " + Math.round(100 - compiledTime * 100f / closureTime) + "%");
+        long evaluated = level.evaluatedConnectedTextureConditions.get(), lookedUp = level.lookedUpConnectedTextureConditions.get();
+        System.out.println("conditions in level updates so far, evaluated: " + evaluated + ", looked up in neighbour tables: " + lookedUp +
+                " (" + Math.round(lookedUp * 100f / Math.max(1, evaluated + lookedUp)) + "%)");
+        System.out.println("optimizer: " + ExpressionOptimizer.foldedNodes.get() + " nodes folded, " + ExpressionOptimizer.sharedNodes.get() +
+                " nodes shared, " + ExpressionOptimizer.reorderedChains.get() + " and/or chains reordered");
+        System.out.println("compiled results differing from closures: " + mismatches);
+        boolean passed = parsedResult == compiledResult && closureResult == compiledResult && mismatches == 0;
+        System.out.println("results match: " + passed);
+        System.out.println("result: " + (passed ? "PASSED" : "FAILED"));
+        System.out.println("--------------------------------------------------------------------");
+        return passed;
+    }
+
+    //Returns the number of conditions that were true, so that the results can be compared
+    private static int evaluateParsed(Level level, ArrayList<BlockLike> blocks, ArrayList<String> conditions) {
+        int count = 0;
+        for (BlockLike b : blocks) {
+            CTExpressionData data = new CTExpressionData(b, level);
+            for (String condition : conditions) {
+                if ((boolean) CTExpression.parser.parseExpression(condition).apply(data))
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    private static int compareResults(Level level, ArrayList<BlockLike> blocks, ArrayList<Function<CTExpressionData, ?>> expected,
+                                      ArrayList<Function<CTExpressionData, ?>> actual) {
+        int mismatches = 0;
+        for (BlockLike b : blocks) {
+            CTExpressionData data = new CTExpressionData(b, level);
+            for (int i = 0; i < expected.size(); i++) {
+                if (!expected.get(i).apply(data).equals(actual.get(i).apply(data)))
+                    mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    private static int evaluateCompiled(Level level, ArrayList<BlockLike> blocks, ArrayList<Function<CTExpressionData, ?>> compiled) {
+        int count = 0;
+        for (BlockLike b : blocks) {
+            CTExpressionData data = new CTExpressionData(b, level);
+            for (Function<CTExpressionData, ?> condition : compiled) {
+                if ((boolean) condition.apply(data))
+                    count++;
+            }
+        }
+        return count;
+    }
+}
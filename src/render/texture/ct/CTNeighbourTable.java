@@ -0,0 +1,244 @@
+package render.texture.ct;
+
+import foundation.expression.EvaluateOperation;
+import foundation.expression.Expression;
+import foundation.expression.ExpressionNode;
+import foundation.expression.ExpressionObject;
+import level.ObjectLayer;
+import level.StaticBlockStore;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CTNeighbourTable {
+    /*
+     * Most connected texture conditions only check which of the neighbouring blocks exist, for example
+     * "existsBlock[u, this.layer]". The result of those conditions only depends on a few bits of the
+     * neighbour mask that the level keeps for every cell, so instead of evaluating the conditions every
+     * time a block is updated, they're evaluated once for every combination of those bits when the
+     * texture is loaded. Updating a block is then a single table lookup.
+     *
+     * Each bit that the conditions depend on is an atom: a direction, together with either the block's own
+     * layer, a specific layer, or any layer. Conditions that check anything else, such as block names or
+     * properties, are left out of the table and are still evaluated as expressions.
+     */
+
+    //The table has an entry for every combination of atoms, textures depending on more than this many are evaluated instead
+    private static final int MAX_ATOMS = 10;
+    //How an atom selects the layer, specific layers are SPECIFIC_LAYER + ordinal
+    private static final int THIS_LAYER = 0, ANY_LAYER = 1, SPECIFIC_LAYER = 2;
+    //The neighbour mask bits for a direction on every static layer
+    private static final long ANY_LAYER_BITS;
+
+    static {
+        long bits = 0;
+        for (ObjectLayer layer : ObjectLayer.values()) {
+            if (layer.addToStatic)
+                bits |= 1L << (layer.ordinal() * 8);
+        }
+        ANY_LAYER_BITS = bits;
+    }
+
+    //Each atom is stored as selector * 8 + direction
+    private final int[] atoms;
+    //For each combination of atoms, a bit for every element that is active
+    private final long[] table;
+    //A bit for every element whose condition is in the table
+    private final long tableElements;
+
+    private CTNeighbourTable(int[] atoms, long[] table, long tableElements) {
+        this.atoms = atoms;
+        this.table = table;
+        this.tableElements = tableElements;
+    }
+
+    //Returns null if none of the conditions only depend on neighbours
+    public static CTNeighbourTable create(List<? extends ExpressionObject<?, ?>> conditions) {
+        if (conditions.size() > 64)
+            return null;
+        ArrayList<Integer> atoms = new ArrayList<>();
+        long tableElements = 0;
+        for (int i = 0; i < conditions.size(); i++) {
+            ArrayList<Integer> conditionAtoms = new ArrayList<>();
+            if (!collectAtoms(conditions.get(i), conditionAtoms))
+                continue;
+            ArrayList<Integer> added = new ArrayList<>(atoms);
+            for (int atom : conditionAtoms) {
+                if (!added.contains(atom))
+                    added.add(atom);
+            }
+            if (added.size() > MAX_ATOMS)
+                continue;
+            atoms = added;
+            tableElements |= 1L << i;
+        }
+        if (tableElements == 0)
+            return null;
+
+        long[] table = new long[1 << atoms.size()];
+        for (int key = 0; key < table.length; key++) {
+            for (int i = 0; i < conditions.size(); i++) {
+                if ((tableElements & (1L << i)) != 0 && evaluate(conditions.get(i), atoms, key))
+                    table[key] |= 1L << i;
+            }
+        }
+        int[] atomArray = new int[atoms.size()];
+        for (int i = 0; i < atomArray.length; i++) {
+            atomArray[i] = atoms.get(i);
+        }
+        return new CTNeighbourTable(atomArray, table, tableElements);
+    }
+
+    public boolean isTableElement(int index) {
+        return (tableElements & (1L << index)) != 0;
+    }
+
+    //A bit for every element in the table that is active for a block on this layer with these neighbours
+    public long activeElements(ObjectLayer layer, long neighbourMask) {
+        int key = 0;
+        for (int i = 0; i < atoms.length; i++) {
+            int selector = atoms[i] / 8, direction = atoms[i] % 8;
+            boolean set = switch (selector) {
+                case THIS_LAYER -> (neighbourMask & (1L << (layer.ordinal() * 8 + direction))) != 0;
+                case ANY_LAYER -> (neighbourMask & (ANY_LAYER_BITS << direction)) != 0;
+                default -> (neighbourMask & (1L << ((selector - SPECIFIC_LAYER) * 8 + direction))) != 0;
+            };
+            if (set)
+                key |= 1 << i;
+        }
+        return table[key];
+    }
+
+    //Adds the atoms that the condition depends on. Returns false if it depends on anything else
+    private static boolean collectAtoms(ExpressionObject<?, ?> e, ArrayList<Integer> atoms) {
+        ExpressionNode node = e.node;
+        if (node == null)
+            return false;
+        switch (node.kind) {
+            case CONSTANT -> {
+                return node.value instanceof Boolean;
+            }
+            case OPERATION -> {
+                if (node.value != Expression.OperatorType.AND && node.value != Expression.OperatorType.OR && node.value != Expression.OperatorType.NOT)
+                    return false;
+                for (ExpressionObject<?, ?> arg : node.args) {
+                    if (!collectAtoms(arg, atoms))
+                        return false;
+                }
+                return true;
+            }
+            case CALL -> {
+                int atom = atom(node);
+                if (atom == -1)
+                    return false;
+                if (!atoms.contains(atom))
+                    atoms.add(atom);
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private static boolean evaluate(ExpressionObject<?, ?> e, ArrayList<Integer> atoms, int key) {
+        ExpressionNode node = e.node;
+        return switch (node.kind) {
+            case CONSTANT -> (Boolean) node.value;
+            case OPERATION -> switch ((Expression.OperatorType) node.value) {
+                case NOT -> !evaluate(node.args[0], atoms, key);
+                case AND -> {
+                    for (ExpressionObject<?, ?> arg : node.args) {
+                        if (!evaluate(arg, atoms, key))
+                            yield false;
+                    }
+                    yield true;
+                }
+                case OR -> {
+                    for (ExpressionObject<?, ?> arg : node.args) {
+                        if (evaluate(arg, atoms, key))
+                            yield true;
+                    }
+                    yield false;
+                }
+                default -> throw new RuntimeException("Unexpected operator in connected texture neighbour table: " + node.value);
+            };
+            case CALL -> (key & (1 << atoms.indexOf(atom(node)))) != 0;
+            default -> throw new RuntimeException("Unexpected expression in connected texture neighbour table: " + e);
+        };
+    }
+
+    //The atom checked by an existsBlock call, or -1 if the call isn't one that only checks a neighbour
+    private static int atom(ExpressionNode node) {
+        if (!isCall(node, CTExpression.class, "existsBlockAt") && !isCall(node, CTExpression.class, "existsBlockOnLayer"))
+            return -1;
+        if (node.args[0].node == null || node.args[0].node.kind != ExpressionNode.Kind.INPUT)
+            return -1;
+        int direction = direction(node.args[1].node);
+        if (direction == -1)
+            return -1;
+        if (isCall(node, CTExpression.class, "existsBlockAt"))
+            return ANY_LAYER * 8 + direction;
+        int selector = layerSelector(node.args[2].node);
+        return selector == -1 ? -1 : selector * 8 + direction;
+    }
+
+    //The neighbour that the position points to, in the order used by the neighbour masks
+    private static int direction(ExpressionNode node) {
+        if (node == null || node.kind != ExpressionNode.Kind.POSITION)
+            return -1;
+        ExpressionNode x = node.args[0].node, y = node.args[1].node;
+        if (!isCall(x, CTExpression.class, "offsetX") || !isCall(y, CTExpression.class, "offsetY"))
+            return -1;
+        Float dx = offset(x), dy = offset(y);
+        if (dx == null || dy == null)
+            return -1;
+        for (int i = 0; i < 8; i++) {
+            if (StaticBlockStore.NEIGHBOUR_X[i] == dx && StaticBlockStore.NEIGHBOUR_Y[i] == dy)
+                return i;
+        }
+        return -1;
+    }
+
+    private static Float offset(ExpressionNode offsetCall) {
+        ExpressionNode input = offsetCall.args[0].node, offset = offsetCall.args[1].node;
+        if (input == null || input.kind != ExpressionNode.Kind.INPUT || offset == null || offset.kind != ExpressionNode.Kind.CONSTANT || !(offset.value instanceof Number n))
+            return null;
+        return n.floatValue();
+    }
+
+    private static int layerSelector(ExpressionNode node) {
+        if (node == null)
+            return -1;
+        //A layer name that was already looked up by the optimizer
+        if (node.kind == ExpressionNode.Kind.CONSTANT)
+            return node.value instanceof ObjectLayer layer ? staticLayer(layer) : -1;
+        if (!isCall(node, CTExpression.class, "objectLayer"))
+            return -1;
+        ExpressionNode name = node.args[0].node;
+        if (name != null && name.kind == ExpressionNode.Kind.CONSTANT && name.value instanceof String s) {
+            for (ObjectLayer layer : ObjectLayer.values()) {
+                if (layer.s.equals(s))
+                    return staticLayer(layer);
+            }
+            return -1;
+        }
+        //this.layer
+        if (!isCall(name, EvaluateOperation.class, "blockLayer"))
+            return -1;
+        ExpressionNode block = name.args[0].node;
+        if (!isCall(block, CTExpression.class, "thisBlock") || block.args[0].node == null || block.args[0].node.kind != ExpressionNode.Kind.INPUT)
+            return -1;
+        return THIS_LAYER;
+    }
+
+    //Non-static layers make the condition throw when it's evaluated, so they're left to the expression
+    private static int staticLayer(ObjectLayer layer) {
+        return layer.addToStatic ? SPECIFIC_LAYER + layer.ordinal() : -1;
+    }
+
+    private static boolean isCall(ExpressionNode node, Class<?> owner, String name) {
+        return node != null && node.kind == ExpressionNode.Kind.CALL && ((Method) node.value).getDeclaringClass() == owner && ((Method) node.value).getName().equals(name);
+    }
+}
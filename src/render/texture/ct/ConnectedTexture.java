@@ -1,5 +1,7 @@
 package render.texture.ct;
 
+import foundation.expression.ExpressionObject;
+import foundation.expression.ExpressionOptimizer;
 import foundation.tick.Tickable;
 import level.Level;
 import level.objects.BlockLike;
@@ -11,14 +13,32 @@ import render.event.RenderEventListener;
 
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 
 public class ConnectedTexture implements TickedRenderable, Tickable, RenderEventListener {
+    //Runs CTExpressionBenchmark once the level has finished generating
+    public static final boolean DEBUG_EXPRESSION_BENCHMARK = false;
+    //Look up conditions that only depend on the neighbouring blocks in a CTNeighbourTable, instead of evaluating them
+    public static final boolean NEIGHBOUR_TABLES = true;
+    //Evaluate the conditions in the neighbour tables as well, and throw if the results differ
+    public static final boolean DEBUG_VERIFY_NEIGHBOUR_TABLES = false;
+
+    //Every condition used by a loaded connected texture, for the benchmark
+    public static final Set<String> loadedConditions = ConcurrentHashMap.newKeySet();
+
     private final Vector<CTElement> textures = new Vector<>();
     private final Vector<TickedRenderable> activeTextures = new Vector<>();
     private final Vector<Tickable> activeTickables = new Vector<>();
+    //Shared by all connected textures from the same resource, null if none of the conditions can be looked up
+    private final CTNeighbourTable table;
+
+    public ConnectedTexture(CTNeighbourTable table) {
+        this.table = table;
+    }
 
     public void addTexture(CTElement e) {
         textures.add(e);
@@ -50,13 +70,28 @@ public class ConnectedTexture implements TickedRenderable, Tickable, RenderEvent
             throw new IllegalArgumentException("Connected texture was applied to a \"" + parent.name + "\" block which was on the non-static ObjectLayer \"" + parent.getLayer().toString() + "\"");
         activeTextures.clear();
         activeTickables.clear();
-        textures.forEach((element) -> {
-            if (element.condition.test(parent, parent.level)) {
+        long tableActive = table == null ? 0 : table.activeElements(parent.getLayer(), parent.level.getNeighbourMask((int) parent.pos.x, (int) parent.pos.y));
+        int evaluated = 0;
+        for (int i = 0; i < textures.size(); i++) {
+            CTElement element = textures.get(i);
+            boolean active;
+            if (table != null && table.isTableElement(i)) {
+                active = (tableActive & (1L << i)) != 0;
+                if (DEBUG_VERIFY_NEIGHBOUR_TABLES && active != element.condition.test(parent, parent.level))
+                    throw new RuntimeException("Connected texture neighbour table gave the wrong result for element " + i + " of \"" + parent.name + "\" at " + parent.pos);
+            } else {
+                active = element.condition.test(parent, parent.level);
+                evaluated++;
+            }
+            if (active) {
                 activeTextures.add(element.renderable);
                 if (element.renderable instanceof Tickable t)
                     activeTickables.add(t);
             }
-        });
+        }
+        parent.level.connectedTextureUpdates.incrementAndGet();
+        parent.level.evaluatedConnectedTextureConditions.addAndGet(evaluated);
+        parent.level.lookedUpConnectedTextureConditions.addAndGet(textures.size() - evaluated);
     }
 
     public static Function<Level, ConnectedTexture> getConnectedTexture(ResourceLocation resource) {
@@ -68,8 +103,12 @@ public class ConnectedTexture implements TickedRenderable, Tickable, RenderEvent
             elements.add(new CTElementSupplier(AssetManager.deserializeRenderable(o), o.getOrDefault("condition", "true", JsonType.STRING_JSON_TYPE)));
         }, JsonType.JSON_OBJECT_TYPE);
 
+        ArrayList<ExpressionObject<CTExpressionData, ?>> conditions = new ArrayList<>();
+        elements.forEach(e -> conditions.add(e.expression));
+        CTNeighbourTable table = NEIGHBOUR_TABLES ? CTNeighbourTable.create(conditions) : null;
+
         return level -> {
-            ConnectedTexture texture = new ConnectedTexture();
+            ConnectedTexture texture = new ConnectedTexture(table);
             for (CTElementSupplier element : elements) {
                 texture.addTexture(element.get(level));
             }
@@ -93,10 +132,16 @@ public class ConnectedTexture implements TickedRenderable, Tickable, RenderEvent
     private static class CTElementSupplier {
         public final BiPredicate<BlockLike, Level> condition;
         public final Function<Level, ? extends TickedRenderable> renderable;
+        //The optimized condition, for the CTNeighbourTable
+        public final ExpressionObject<CTExpressionData, ?> expression;
 
         private CTElementSupplier(Function<Level, ? extends TickedRenderable> renderable, String string) {
-            this.condition = (b, l) -> (boolean) CTExpression.parser.parseExpression(string).apply(new CTExpressionData(b, l));
+            //Compiled once here, rather than parsing the condition every time a block is updated
+            Function<CTExpressionData, ?> compiled = CTExpression.parser.compileExpression(string);
+            loadedConditions.add(string);
+            this.condition = (b, l) -> (boolean) compiled.apply(new CTExpressionData(b, l));
             this.renderable = renderable;
+            expression = ExpressionOptimizer.optimize(CTExpression.parser.parseExpressionObject(string));
         }
 
         public CTElement get(Level level) {
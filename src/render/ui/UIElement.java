@@ -45,7 +45,7 @@ public abstract class UIElement implements UIRenderable, Deletable {
     }
 
     public Supplier<ObjPos> relativeToCamera(float xOffset, float yOffset) {
-        return () -> new ObjPos(xOffset, -MainPanel.cameraY + yOffset);
+        return () -> new ObjPos(xOffset, -MainPanel.getRenderCameraY() + yOffset);
     }
 
     public float top() {